@@ -0,0 +1,95 @@
+package socs.network.message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encode and decode cost of LSA updates, with Java serialization as the baseline the binary
+ * codec replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SOSPFPacketBenchmark {
+
+  // LSAs in the update
+  @Param({"1", "16"})
+  public int lsas;
+
+  // links per LSA
+  @Param({"4", "32"})
+  public int links;
+
+  private SOSPFPacket packet;
+  private ByteBuffer buffer;
+  private ByteBuffer encoded;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    packet = new SOSPFPacket();
+    packet.srcProcessIP = "127.0.0.1";
+    packet.srcProcessPort = 5001;
+    packet.srcIP = "192.168.1.1";
+    packet.dstIP = "192.168.1.100";
+    packet.sospfType = SOSPFPacket.LSAUPDATE;
+    packet.routerID = "192.168.1.1";
+    packet.neighborID = "192.168.1.100";
+    packet.lsaArray = new LinkedList<>();
+    for (int l = 0; l < lsas; l++) {
+      List<LinkDescription> descriptions = new ArrayList<>(links);
+      for (int i = 0; i < links; i++) {
+        descriptions.add(new LinkDescription("10." + l + "." + i + ".1", 5000 + i, 1 + i));
+      }
+      packet.lsaArray.add(new LSA("10." + l + ".0.1", l, descriptions));
+    }
+
+    buffer = ByteBuffer.allocate(packet.encodedSize());
+    encoded = ByteBuffer.allocate(packet.encodedSize());
+    packet.encode(encoded);
+    encoded.flip();
+  }
+
+  @Benchmark
+  public ByteBuffer encode() {
+    buffer.clear();
+    packet.encode(buffer);
+    return buffer;
+  }
+
+  @Benchmark
+  public SOSPFPacket decode() throws ProtocolException {
+    return SOSPFPacket.decode(encoded.duplicate());
+  }
+
+  @Benchmark
+  public int javaSerialization() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(packet);
+    }
+    return bytes.size();
+  }
+}
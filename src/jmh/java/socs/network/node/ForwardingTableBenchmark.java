@@ -0,0 +1,84 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import socs.network.message.IPAddresses;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.sim.Topology;
+
+/**
+ * Cost of forwarding: building the table from a shortest path tree and looking up random
+ * addresses, on a random topology whose routers advertise prefixes of random lengths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ForwardingTableBenchmark {
+
+  @Param({"1000", "10000"})
+  public int size;
+
+  @Param({"0", "10", "100"})
+  public int prefixesPerRouter;
+
+  private ShortestPathTree tree;
+  private LinkStateDatabase lsd;
+  private ForwardingTable table;
+  private int[] addresses;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(535);
+    RouterDescription rd = new RouterDescription();
+    rd.simulatedIPAddress = Topologies.ip(0);
+    lsd = new LinkStateDatabase(rd);
+    for (LSA lsa : Topologies.generate(Topology.Shape.RANDOM, size, 535)) {
+      List<LinkDescription> links = new ArrayList<>(lsa.links);
+      for (int i = 0; i < prefixesPerRouter; i++) {
+        int length = 8 + random.nextInt(25);
+        links.add(LinkDescription.prefix(IPAddresses.unpack(0x80000000 | random.nextInt()),
+            length, 1));
+      }
+      lsd._store.put(lsa.linkStateID, new LSA(lsa.linkStateID, lsa.lsaSeqNumber, links));
+    }
+    lsd.getRoutingTable().invalidate();
+    tree = lsd.getRoutingTable().tree();
+    table = lsd.getForwardingTable();
+    addresses = new int[1 << 16];
+    for (int i = 0; i < addresses.length; i++) {
+      addresses[i] = 0x80000000 | random.nextInt();
+    }
+  }
+
+  @Benchmark
+  public ForwardingTable build() {
+    return ForwardingTable.build(tree, lsd::prefixes);
+  }
+
+  @Benchmark
+  public int lookup() {
+    next = (next + 1) & (addresses.length - 1);
+    return table.lookup(addresses[next]);
+  }
+}
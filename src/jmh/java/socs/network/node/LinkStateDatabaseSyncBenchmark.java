@@ -0,0 +1,96 @@
+package socs.network.node;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import socs.network.message.LSA;
+import socs.network.sim.Topology;
+
+/**
+ * Throughput of syncLinkStateDatabase with concurrent writers, each LSA being newer than the one
+ * in the database (accepted) or a copy of it (rejected), and with SPF lookups running alongside.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LinkStateDatabaseSyncBenchmark {
+
+  @Param({"100", "10000"})
+  public int size;
+
+  private LinkStateDatabase lsd;
+  private List<LSA> lsas;
+  // last sequence number handed out per router
+  private AtomicIntegerArray sequence;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    lsas = Topologies.generate(Topology.Shape.RANDOM, size, 535);
+    RouterDescription rd = new RouterDescription();
+    rd.simulatedIPAddress = Topologies.ip(0);
+    lsd = new LinkStateDatabase(rd);
+    // Bypass sync, the generated LSA of this router has the same sequence number as its own
+    for (LSA lsa : lsas) {
+      lsd._store.put(lsa.linkStateID, lsa);
+    }
+    lsd.getRoutingTable().invalidate();
+    sequence = new AtomicIntegerArray(size);
+    // Only full SPFs, the incremental path is measured by SPFBenchmark
+    lsd.setIncrementalSPF(false);
+  }
+
+  private LSA nextLSA() {
+    int router = 1 + ThreadLocalRandom.current().nextInt(size - 1);
+    LSA current = lsas.get(router);
+    return new LSA(current.linkStateID,
+        LSA.INITIAL_SEQUENCE + sequence.incrementAndGet(router), current.links);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean syncNewer() {
+    return lsd.syncLinkStateDatabase(nextLSA());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean syncDuplicate() {
+    int router = 1 + ThreadLocalRandom.current().nextInt(size - 1);
+    return lsd.syncLinkStateDatabase(lsd.getLSA(Topologies.ip(router)));
+  }
+
+  @Benchmark
+  @Group("syncWhileRouting")
+  @GroupThreads(3)
+  public boolean syncWhileRoutingWriter() {
+    return lsd.syncLinkStateDatabase(nextLSA());
+  }
+
+  @Benchmark
+  @Group("syncWhileRouting")
+  @GroupThreads(1)
+  public List<String> syncWhileRoutingReader() {
+    return lsd.getNextHops(Topologies.ip(size / 2));
+  }
+}
@@ -0,0 +1,98 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.sim.Topology;
+
+/**
+ * Cost of answering detect on generated topologies: a full SPF including the index build, the
+ * Dijkstra run alone, an incremental update after one LSA changed, and a lookup in the cached
+ * tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SPFBenchmark {
+
+  @Param({"RING", "GRID", "RANDOM", "SCALE_FREE"})
+  public String shape;
+
+  @Param({"10", "1000", "100000"})
+  public int size;
+
+  private LinkStateDatabase lsd;
+  private AdjacencyIndex index;
+  private String destination;
+  private List<LSA> lsas;
+  private int[] sequence;
+  private Random random;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    lsas = Topologies.generate(Topology.Shape.valueOf(shape), size, 535);
+    RouterDescription rd = new RouterDescription();
+    rd.simulatedIPAddress = Topologies.ip(0);
+    lsd = new LinkStateDatabase(rd);
+    for (LSA lsa : lsas) {
+      lsd._store.put(lsa.linkStateID, lsa);
+    }
+    lsd.getRoutingTable().invalidate();
+    index = AdjacencyIndex.build(lsd.snapshot());
+    destination = Topologies.ip(size / 2);
+    sequence = new int[size];
+    random = new Random(535);
+  }
+
+  @Benchmark
+  public String fullSPF() {
+    lsd.getRoutingTable().invalidate();
+    return lsd.getShortestPath(destination);
+  }
+
+  @Benchmark
+  public ShortestPathTree dijkstra() {
+    return ShortestPathTree.compute(index, 0);
+  }
+
+  @Benchmark
+  public ShortestPathTree incrementalSPF() {
+    // Change the cost of one link of a random router, the way a neighbor's new LSA would
+    int router = 1 + random.nextInt(size - 1);
+    LSA current = lsas.get(router);
+    List<LinkDescription> links = new ArrayList<>(current.links);
+    if (!links.isEmpty()) {
+      int i = random.nextInt(links.size());
+      LinkDescription ld = links.get(i);
+      links.set(i, new LinkDescription(ld.linkID, ld.portNum, 1 + random.nextInt(10)));
+    }
+    lsd.syncLinkStateDatabase(new LSA(current.linkStateID,
+        LSA.INITIAL_SEQUENCE + ++sequence[router], links));
+    return lsd.getRoutingTable().tree();
+  }
+
+  @Benchmark
+  public String cachedLookup() {
+    return lsd.getShortestPath(destination);
+  }
+}
@@ -0,0 +1,49 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.sim.Topology;
+
+/**
+ * Generated topologies for the benchmarks, the shapes of {@link Topology} as LSAs. Every link
+ * is present in the LSAs of both ends, like in a converged database.
+ */
+final class Topologies {
+
+  private Topologies() {
+  }
+
+  /**
+   * @param i index of a router
+   * @return simulated IP of the router, 10.0.0.1 for index 0
+   */
+  static String ip(int i) {
+    return Topology.generatedIP(i);
+  }
+
+  /**
+   * @param shape of the topology
+   * @param size  number of routers
+   * @param seed  for the random shapes
+   * @return one LSA per router, link costs between 1 and 10
+   */
+  static List<LSA> generate(Topology.Shape shape, int size, long seed) {
+    List<List<LinkDescription>> links = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      links.add(new ArrayList<>());
+    }
+    for (Topology.LinkSpec link : Topology.generateLinks(shape, size, seed)) {
+      links.get(link.from).add(new LinkDescription(ip(link.to), link.to, link.cost));
+      links.get(link.to).add(new LinkDescription(ip(link.from), link.from, link.cost));
+    }
+
+    List<LSA> lsas = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      lsas.add(new LSA(ip(i), LSA.INITIAL_SEQUENCE, links.get(i)));
+    }
+    return lsas;
+  }
+}
@@ -1,16 +1,23 @@
 package socs.network;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 import socs.network.node.Router;
 import socs.network.util.Configuration;
 
 public class Main {
 
-  public static void main(String[] args) {
-    if (args.length != 1) {
-      System.out.println("usage: program conf_path");
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.out.println("usage: program conf_path [script_path]");
       System.exit(1);
     }
     Router r = new Router(new Configuration(args[0]));
+    // The terminal takes over once the script is done, unless the script quit
+    if (args.length == 2 && r.runScript(Paths.get(args[1]))) {
+      System.exit(0);
+    }
     r.terminal();
   }
 }
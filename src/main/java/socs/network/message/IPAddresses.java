@@ -0,0 +1,69 @@
+package socs.network.message;
+
+/**
+ * Conversions between dotted-quad IPv4 strings and the 4-byte ints used on the wire
+ */
+public final class IPAddresses {
+
+  private IPAddresses() {
+  }
+
+  /**
+   * @param ip dotted-quad address, null is packed as 0.0.0.0
+   * @return address packed into an int, first octet in the high byte
+   * @throws IllegalArgumentException if ip is not a dotted-quad address
+   */
+  public static int pack(String ip) {
+    if (ip == null) {
+      return 0;
+    }
+    int packed = 0;
+    int octet = 0;
+    int octets = 0;
+    int digits = 0;
+    for (int i = 0; i < ip.length(); i++) {
+      char c = ip.charAt(i);
+      if (c == '.') {
+        if (digits == 0) {
+          throw new IllegalArgumentException("Invalid IP address " + ip);
+        }
+        packed = (packed << 8) | octet;
+        octets++;
+        octet = 0;
+        digits = 0;
+      } else if (c >= '0' && c <= '9' && digits < 3) {
+        octet = octet * 10 + (c - '0');
+        digits++;
+        if (octet > 255) {
+          throw new IllegalArgumentException("Invalid IP address " + ip);
+        }
+      } else {
+        throw new IllegalArgumentException("Invalid IP address " + ip);
+      }
+    }
+    if (digits == 0 || octets != 3) {
+      throw new IllegalArgumentException("Invalid IP address " + ip);
+    }
+    return (packed << 8) | octet;
+  }
+
+  /**
+   * @param length of a prefix, 0 to 32
+   * @return netmask of the prefix, e.g. 0xFFFF0000 for 16
+   */
+  public static int mask(int length) {
+    return length == 0 ? 0 : -1 << (32 - length);
+  }
+
+  /**
+   * @param packed address produced by {@link #pack(String)}
+   * @return dotted-quad address, null for 0.0.0.0
+   */
+  public static String unpack(int packed) {
+    if (packed == 0) {
+      return null;
+    }
+    return ((packed >>> 24) & 0xFF) + "." + ((packed >>> 16) & 0xFF) + "."
+        + ((packed >>> 8) & 0xFF) + "." + (packed & 0xFF);
+  }
+}
@@ -1,15 +1,244 @@
 package socs.network.message;
 
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Link state advertisement of one router. Instances are immutable: a change to the links of a
+ * router is a new LSA with a higher sequence number, so an LSA read from the database can be
+ * used without holding any lock.
+ * <p/>
+ * The age of an LSA grows while it sits in a database. Each copy remembers its age when it was
+ * created or received and when that was, so the current age is computed instead of updated; it
+ * is sent with the LSA and a copy at max age purges the LSA from every database it reaches.
+ * <p/>
+ * On the wire an LSA may be sent as a delta, the links added and removed since the previous
+ * sequence number. Deltas are expanded with {@link #applyTo} before they reach a database.
+ */
 public class LSA implements Serializable {
 
+  // sequence number of the first LSA of a router
+  public static final int INITIAL_SEQUENCE = Integer.MIN_VALUE;
+  // seconds after which an LSA that was not refreshed is purged, the same on every router
+  public static final int MAX_AGE = 3600;
+  // largest age the wire format can carry
+  public static final int MAX_ENCODED_AGE = 0xFFFF;
+
   //IP address of the router originate this LSA
-  public String linkStateID;
-  public int lsaSeqNumber = Integer.MIN_VALUE;
+  public final String linkStateID;
+  public final int lsaSeqNumber;
+
+  // links of the router, the links added since baseSeqNumber for a delta
+  public final List<LinkDescription> links;
+  // delta only: sequence number of the LSA it applies to and the links it removes from it
+  public final int baseSeqNumber;
+  public final List<LinkDescription> removed;
+  private final boolean delta;
+
+  // age in seconds at stampNanos
+  public final int age;
+  // System.nanoTime() when this copy was created or received, not sent
+  public final transient long stampNanos;
+
+  /**
+   * New LSA with age 0
+   */
+  public LSA(String linkStateID, int lsaSeqNumber, List<LinkDescription> links) {
+    this(linkStateID, lsaSeqNumber, 0, System.nanoTime(), links);
+  }
+
+  /**
+   * @param age        in seconds at stampNanos
+   * @param stampNanos System.nanoTime() at which the LSA had the given age
+   */
+  public LSA(String linkStateID, int lsaSeqNumber, int age, long stampNanos,
+      List<LinkDescription> links) {
+    this(linkStateID, lsaSeqNumber, age, stampNanos, links, false, 0, Collections.emptyList());
+  }
+
+  private LSA(String linkStateID, int lsaSeqNumber, int age, long stampNanos,
+      List<LinkDescription> links, boolean delta, int baseSeqNumber,
+      List<LinkDescription> removed) {
+    this.linkStateID = linkStateID;
+    this.lsaSeqNumber = lsaSeqNumber;
+    this.age = Math.min(Math.max(age, 0), MAX_ENCODED_AGE);
+    this.stampNanos = stampNanos;
+    this.links = Collections.unmodifiableList(new ArrayList<>(links));
+    this.delta = delta;
+    this.baseSeqNumber = baseSeqNumber;
+    this.removed = delta ? Collections.unmodifiableList(new ArrayList<>(removed))
+        : Collections.emptyList();
+  }
+
+  /**
+   * @param base previous LSA of the same router
+   * @param next LSA replacing it
+   * @return delta turning base into next, carrying the sequence number and age of next
+   */
+  public static LSA delta(LSA base, LSA next) {
+    if (!base.linkStateID.equals(next.linkStateID) || base.isDelta() || next.isDelta()) {
+      throw new IllegalArgumentException("A delta needs two full LSAs of the same router");
+    }
+    // Counted, a router may list the same link twice
+    Map<LinkDescription, Integer> remaining = new HashMap<>();
+    for (LinkDescription ld : base.links) {
+      remaining.merge(ld, 1, Integer::sum);
+    }
+    List<LinkDescription> added = new ArrayList<>();
+    for (LinkDescription ld : next.links) {
+      Integer count = remaining.get(ld);
+      if (count == null) {
+        added.add(ld);
+      } else if (count == 1) {
+        remaining.remove(ld);
+      } else {
+        remaining.put(ld, count - 1);
+      }
+    }
+    List<LinkDescription> removed = new ArrayList<>();
+    for (Map.Entry<LinkDescription, Integer> entry : remaining.entrySet()) {
+      for (int i = 0; i < entry.getValue(); i++) {
+        removed.add(entry.getKey());
+      }
+    }
+    return new LSA(next.linkStateID, next.lsaSeqNumber, next.age, next.stampNanos, added, true,
+        base.lsaSeqNumber, removed);
+  }
+
+  /**
+   * @return true if this LSA only carries the changes since baseSeqNumber
+   */
+  public boolean isDelta() {
+    return delta;
+  }
+
+  /**
+   * @param base LSA of the same router with sequence number baseSeqNumber
+   * @return the full LSA this delta describes
+   */
+  public LSA applyTo(LSA base) {
+    if (!delta || base.lsaSeqNumber != baseSeqNumber || base.isDelta()) {
+      throw new IllegalArgumentException("Delta does not apply to " + base.linkStateID + ":"
+          + base.lsaSeqNumber);
+    }
+    List<LinkDescription> applied = new ArrayList<>(base.links);
+    for (LinkDescription ld : removed) {
+      applied.remove(ld);
+    }
+    applied.addAll(links);
+    return new LSA(linkStateID, lsaSeqNumber, age, stampNanos, applied);
+  }
+
+  /**
+   * @param links of the new LSA
+   * @return the next LSA of the same router, with the given links
+   */
+  public LSA next(List<LinkDescription> links) {
+    return new LSA(linkStateID, lsaSeqNumber + 1, links);
+  }
+
+  /**
+   * @return the header of this LSA, enough to tell which of two copies is newer, without the
+   *     links
+   */
+  public LSA header() {
+    return new LSA(linkStateID, lsaSeqNumber, age, stampNanos, Collections.emptyList());
+  }
+
+  /**
+   * @param nowNanos System.nanoTime()
+   * @return age in seconds at the given time
+   */
+  public int currentAge(long nowNanos) {
+    long elapsed = TimeUnit.NANOSECONDS.toSeconds(Math.max(0, nowNanos - stampNanos));
+    return (int) Math.min(MAX_ENCODED_AGE, age + elapsed);
+  }
+
+  /**
+   * @param maxAge   in seconds
+   * @param nowNanos System.nanoTime()
+   * @return true if the LSA reached the given max age
+   */
+  public boolean isMaxAge(int maxAge, long nowNanos) {
+    return currentAge(nowNanos) >= maxAge;
+  }
+
+  /**
+   * @param age      in seconds
+   * @param nowNanos System.nanoTime()
+   * @return a copy of this LSA with the given age at the given time
+   */
+  public LSA withAge(int age, long nowNanos) {
+    return new LSA(linkStateID, lsaSeqNumber, age, nowNanos, links);
+  }
+
+  /**
+   * Write this LSA in wire format: originator, sequence number, current age, delta flag, link
+   * count, then every link. A delta follows with its base sequence number, the count of removed
+   * links and the removed links.
+   *
+   * @param buffer with at least {@link #encodedSize()} bytes remaining
+   */
+  public void encode(ByteBuffer buffer) {
+    buffer.putInt(IPAddresses.pack(linkStateID));
+    buffer.putInt(lsaSeqNumber);
+    buffer.putShort((short) currentAge(System.nanoTime()));
+    buffer.put((byte) (delta ? 1 : 0));
+    buffer.putShort((short) links.size());
+    for (LinkDescription ld : links) {
+      ld.encode(buffer);
+    }
+    if (delta) {
+      buffer.putInt(baseSeqNumber);
+      buffer.putShort((short) removed.size());
+      for (LinkDescription ld : removed) {
+        ld.encode(buffer);
+      }
+    }
+  }
+
+  /**
+   * Read an LSA written by {@link #encode(ByteBuffer)}
+   *
+   * @param buffer positioned at the start of the LSA
+   * @return decoded LSA, its age counting from now
+   */
+  public static LSA decode(ByteBuffer buffer) {
+    String linkStateID = IPAddresses.unpack(buffer.getInt());
+    int lsaSeqNumber = buffer.getInt();
+    int age = buffer.getShort() & 0xFFFF;
+    boolean delta = buffer.get() != 0;
+    List<LinkDescription> links = decodeLinks(buffer);
+    if (!delta) {
+      return new LSA(linkStateID, lsaSeqNumber, age, System.nanoTime(), links);
+    }
+    int baseSeqNumber = buffer.getInt();
+    return new LSA(linkStateID, lsaSeqNumber, age, System.nanoTime(), links, true,
+        baseSeqNumber, decodeLinks(buffer));
+  }
 
-  public LinkedList<LinkDescription> links = new LinkedList<LinkDescription>();
+  private static List<LinkDescription> decodeLinks(ByteBuffer buffer) {
+    int count = buffer.getShort() & 0xFFFF;
+    List<LinkDescription> links = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      links.add(LinkDescription.decode(buffer));
+    }
+    return links;
+  }
+
+  public int encodedSize() {
+    int size = 13 + links.size() * LinkDescription.ENCODED_SIZE;
+    if (delta) {
+      size += 6 + removed.size() * LinkDescription.ENCODED_SIZE;
+    }
+    return size;
+  }
 
   @Override
   public String toString() {
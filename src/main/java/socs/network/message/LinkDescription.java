@@ -1,20 +1,144 @@
 package socs.network.message;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Objects;
 
+/**
+ * Link advertised in an LSA, either to a neighbor router or to a prefix the router delivers to
+ * itself. Instances are immutable so that LSAs can be shared between threads without copying.
+ */
 public class LinkDescription implements Serializable {
-  public String linkID;
-  public int portNum;
+  // linkID (4) + portNum (2) + cost (2) + prefixLength (1)
+  static final int ENCODED_SIZE = 9;
+  // prefixLength of links to a router, sent as 0xFF
+  public static final int ROUTER_LINK = -1;
+  // cost of links created without an explicit one
+  public static final int DEFAULT_COST = 1;
+  // costs are sent as unsigned 16-bit values
+  public static final int MAX_COST = 0xFFFF;
 
-  public LinkDescription() {
-  }
+  public final String linkID;
+  public final int portNum;
+  // cost of reaching linkID over this link, used as the edge weight by the SPF
+  public final int cost;
+  // ROUTER_LINK if linkID is a router, otherwise linkID is the network address of a prefix of
+  // this length
+  public final int prefixLength;
 
   public LinkDescription(String linkID, int portNum) {
+    this(linkID, portNum, DEFAULT_COST);
+  }
+
+  public LinkDescription(String linkID, int portNum, int cost) {
+    this(linkID, portNum, cost, ROUTER_LINK);
+  }
+
+  private LinkDescription(String linkID, int portNum, int cost, int prefixLength) {
     this.linkID = linkID;
     this.portNum = portNum;
+    this.cost = cost;
+    this.prefixLength = prefixLength;
+  }
+
+  /**
+   * @param network address in the prefix, the bits past its length are cleared
+   * @param length  of the prefix, 0 to 32
+   * @param cost    of reaching the prefix from the advertising router
+   * @return link to a prefix delivered by the advertising router
+   */
+  public static LinkDescription prefix(String network, int length, int cost) {
+    if (length < 0 || length > 32) {
+      throw new IllegalArgumentException("Invalid prefix length " + length);
+    }
+    int masked = IPAddresses.pack(network) & IPAddresses.mask(length);
+    String address = masked == 0 ? "0.0.0.0" : IPAddresses.unpack(masked);
+    return new LinkDescription(address, -1, cost, length);
+  }
+
+  /**
+   * @param prefix in CIDR notation, e.g. 10.1.0.0/16
+   * @param cost   of reaching the prefix from the advertising router
+   * @return link to a prefix delivered by the advertising router
+   * @throws IllegalArgumentException if the prefix is malformed
+   */
+  public static LinkDescription parsePrefix(String prefix, int cost) {
+    int slash = prefix.indexOf('/');
+    if (slash < 0) {
+      throw new IllegalArgumentException("Invalid prefix " + prefix + ", expected a.b.c.d/len");
+    }
+    try {
+      return prefix(prefix.substring(0, slash), Integer.parseInt(prefix.substring(slash + 1)),
+          cost);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid prefix length in " + prefix);
+    }
+  }
+
+  /**
+   * @return true if this link leads to a prefix rather than to a router
+   */
+  public boolean isPrefix() {
+    return prefixLength != ROUTER_LINK;
+  }
+
+  /**
+   * Write this link in wire format
+   *
+   * @param buffer with at least {@link #encodedSize()} bytes remaining
+   */
+  public void encode(ByteBuffer buffer) {
+    buffer.putInt(IPAddresses.pack(linkID));
+    buffer.putShort((short) portNum);
+    buffer.putShort((short) cost);
+    buffer.put((byte) prefixLength);
+  }
+
+  /**
+   * Read a link written by {@link #encode(ByteBuffer)}
+   *
+   * @param buffer positioned at the start of the link
+   * @return decoded link
+   * @throws IllegalArgumentException if the prefix length is neither 0 to 32 nor a router link
+   */
+  public static LinkDescription decode(ByteBuffer buffer) {
+    String linkID = IPAddresses.unpack(buffer.getInt());
+    short portNum = buffer.getShort();
+    int cost = buffer.getShort() & 0xFFFF;
+    int prefixLength = buffer.get() & 0xFF;
+    if (prefixLength == 0xFF) {
+      return new LinkDescription(linkID, portNum, cost);
+    }
+    // The forwarding table masks and walks addresses by the length
+    if (prefixLength > 32) {
+      throw new IllegalArgumentException("Invalid prefix length " + prefixLength);
+    }
+    return new LinkDescription(linkID == null ? "0.0.0.0" : linkID, portNum, cost, prefixLength);
+  }
+
+  public int encodedSize() {
+    return ENCODED_SIZE;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof LinkDescription)) {
+      return false;
+    }
+    LinkDescription other = (LinkDescription) o;
+    return portNum == other.portNum && cost == other.cost && prefixLength == other.prefixLength
+        && Objects.equals(linkID, other.linkID);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(linkID, portNum, cost, prefixLength);
   }
 
   public String toString() {
-    return linkID + ","  + portNum;
+    if (isPrefix()) {
+      return linkID + "/" + prefixLength + "," + portNum + "," + cost;
+    }
+    return linkID + ","  + portNum + "," + cost;
   }
 }
@@ -1,10 +1,43 @@
 package socs.network.message;
 
 import java.io.*;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
 
 
 public class SOSPFPacket implements Serializable {
 
+  // bumped whenever the wire format changes
+  public static final byte WIRE_VERSION = 8;
+
+  // values of sospfType, sent as a single byte
+  public static final short HELLO = 0;
+  public static final short LSAUPDATE = 1;
+  // database description, the headers of every LSA of the sender
+  public static final short DBD = 2;
+  // link state request, the headers of the LSAs the sender wants in an LSAUPDATE
+  public static final short LSREQ = 3;
+  // link state acknowledgement, the headers of the LSAs the sender received in LSAUPDATEs
+  public static final short LSACK = 4;
+  // user traffic from srcIP to dstIP, forwarded hop by hop along the shortest paths
+  public static final short DATA = 5;
+
+  // most LSAs a packet can carry, their count is an unsigned short
+  public static final int MAX_LSAS = 0xFFFF;
+
+  // version (1) + type (1) + srcProcessIP (4) + srcProcessPort (2) + srcIP, dstIP, routerID,
+  // neighborID (4 each) + linkCost (2) + lsa count (2)
+  private static final int HEADER_SIZE = 28;
+  // DATA only, after the header: ttl (1) + echo (1) + sequence (4) + sentNanos (8) + payload
+  // length (2)
+  private static final int DATA_HEADER_SIZE = 16;
+  // largest DATA payload, its length is an unsigned short
+  public static final int MAX_PAYLOAD = 0xFFFF;
+  // hops a DATA packet may take before it is dropped, unless set by the sender
+  public static final int DEFAULT_TTL = 64;
+
   //for inter-process communication
   public String srcProcessIP;
   public short srcProcessPort;
@@ -22,8 +55,24 @@ public class SOSPFPacket implements Serializable {
   //simulated IP address
   public String neighborID; //neighbor's simulated IP address
 
-  //used by LSAUPDATE
-  public LSA lsa = null;
+  //used by HELLO message to agree on the cost of the link, both directions use the cost set on
+  //the side that attached it
+  public int linkCost = LinkDescription.DEFAULT_COST;
+
+  //used by LSAUPDATE, several LSAs are flooded together in one packet
+  //used by DBD, LSREQ and LSACK for LSA headers, LSAs without links
+  public LinkedList<LSA> lsaArray = null;
+
+  //used by DATA, srcIP and dstIP are the ends of the path, routerID the router forwarding it
+  //and neighborID the next hop. Dropped when the ttl runs out, so a routing loop cannot keep a
+  //packet forever
+  public int ttl = DEFAULT_TTL;
+  //true for the answer of the destination, which sends every DATA packet back to its source
+  public boolean echo;
+  //set by the source, copied into the echo so that it can match answers and measure latency
+  public int sequence;
+  public long sentNanos;
+  public byte[] payload = new byte[0];
 
   public SOSPFPacket() {
   }
@@ -36,7 +85,121 @@ public class SOSPFPacket implements Serializable {
     packet.srcProcessPort = srcProcessPort;
     packet.srcIP = srcIP;
     packet.dstIP = dstIP;
+    packet.sospfType = HELLO;
     packet.neighborID = neighborID;
     return packet;
   }
+
+  /**
+   * @param srcIP    simulated IP of the source
+   * @param dstIP    simulated IP of the destination
+   * @param sequence of the packet in its flow
+   * @param payload  carried to the destination and back
+   * @return DATA packet, the forwarding fields are set at each hop
+   */
+  public static SOSPFPacket createData(String srcIP, String dstIP, int sequence,
+      byte[] payload) {
+    if (payload.length > MAX_PAYLOAD) {
+      throw new IllegalArgumentException("Payload larger than " + MAX_PAYLOAD + " bytes");
+    }
+    SOSPFPacket packet = new SOSPFPacket();
+    packet.srcIP = srcIP;
+    packet.dstIP = dstIP;
+    packet.sospfType = DATA;
+    packet.sequence = sequence;
+    packet.sentNanos = System.nanoTime();
+    packet.payload = payload;
+    return packet;
+  }
+
+  /**
+   * Write this packet in wire format, addresses are packed into 4-byte ints
+   *
+   * @param buffer with at least {@link #encodedSize()} bytes remaining
+   */
+  public void encode(ByteBuffer buffer) {
+    buffer.put(WIRE_VERSION);
+    buffer.put((byte) sospfType);
+    buffer.putInt(IPAddresses.pack(srcProcessIP));
+    buffer.putShort(srcProcessPort);
+    buffer.putInt(IPAddresses.pack(srcIP));
+    buffer.putInt(IPAddresses.pack(dstIP));
+    buffer.putInt(IPAddresses.pack(routerID));
+    buffer.putInt(IPAddresses.pack(neighborID));
+    buffer.putShort((short) linkCost);
+    if (lsaArray == null) {
+      buffer.putShort((short) 0);
+    } else {
+      buffer.putShort((short) lsaArray.size());
+      for (LSA lsa : lsaArray) {
+        lsa.encode(buffer);
+      }
+    }
+    if (sospfType == DATA) {
+      buffer.put((byte) ttl);
+      buffer.put((byte) (echo ? 1 : 0));
+      buffer.putInt(sequence);
+      buffer.putLong(sentNanos);
+      buffer.putShort((short) payload.length);
+      buffer.put(payload);
+    }
+  }
+
+  /**
+   * Read a packet written by {@link #encode(ByteBuffer)}
+   *
+   * @param buffer holding exactly one packet
+   * @return decoded packet
+   * @throws ProtocolException if the packet is truncated, malformed or from another wire version
+   */
+  public static SOSPFPacket decode(ByteBuffer buffer) throws ProtocolException {
+    try {
+      byte version = buffer.get();
+      if (version != WIRE_VERSION) {
+        throw new ProtocolException("Unsupported wire version " + version);
+      }
+      SOSPFPacket packet = new SOSPFPacket();
+      packet.sospfType = buffer.get();
+      packet.srcProcessIP = IPAddresses.unpack(buffer.getInt());
+      packet.srcProcessPort = buffer.getShort();
+      packet.srcIP = IPAddresses.unpack(buffer.getInt());
+      packet.dstIP = IPAddresses.unpack(buffer.getInt());
+      packet.routerID = IPAddresses.unpack(buffer.getInt());
+      packet.neighborID = IPAddresses.unpack(buffer.getInt());
+      packet.linkCost = buffer.getShort() & 0xFFFF;
+      int count = buffer.getShort() & 0xFFFF;
+      if (count > 0) {
+        packet.lsaArray = new LinkedList<>();
+        for (int i = 0; i < count; i++) {
+          packet.lsaArray.add(LSA.decode(buffer));
+        }
+      }
+      if (packet.sospfType == DATA) {
+        packet.ttl = buffer.get() & 0xFF;
+        packet.echo = buffer.get() != 0;
+        packet.sequence = buffer.getInt();
+        packet.sentNanos = buffer.getLong();
+        packet.payload = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(packet.payload);
+      }
+      return packet;
+    } catch (BufferUnderflowException e) {
+      throw new ProtocolException("Truncated packet");
+    } catch (IllegalArgumentException e) {
+      throw new ProtocolException("Malformed packet: " + e.getMessage());
+    }
+  }
+
+  public int encodedSize() {
+    int size = HEADER_SIZE;
+    if (lsaArray != null) {
+      for (LSA lsa : lsaArray) {
+        size += lsa.encodedSize();
+      }
+    }
+    if (sospfType == DATA) {
+      size += DATA_HEADER_SIZE + payload.length;
+    }
+    return size;
+  }
 }
@@ -0,0 +1,250 @@
+package socs.network.node;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+
+/**
+ * Directed, weighted graph built from a set of LSAs. Routers are identified by their id in a
+ * {@link RouterIdTable} and links are stored as arrays of packed (router id, cost) longs per
+ * router, in both directions, so the SPF can walk them without touching strings or maps.
+ * <p/>
+ * An index is never modified once built, so shortest path trees over it can be read from any
+ * thread. {@link #withLinks} derives the index for a change to the links of a single router;
+ * the two share every row the change does not touch.
+ */
+class AdjacencyIndex {
+  private static final long[] NO_LINKS = new long[0];
+
+  final RouterIdTable ids;
+  // outgoing links (target, cost) and incoming links (source, cost) of every router, by id
+  final long[][] out;
+  final long[][] in;
+
+  // routers interned when the index was built, every id in it is below
+  private final int size;
+  // routers that have an LSA of their own, and routers some LSA links to
+  private final boolean[] hasLSA;
+  private final boolean[] mentioned;
+
+  private AdjacencyIndex(RouterIdTable ids, boolean[] hasLSA, boolean[] mentioned,
+      long[][] out, long[][] in) {
+    this.ids = ids;
+    this.size = hasLSA.length;
+    this.hasLSA = hasLSA;
+    this.mentioned = mentioned;
+    this.out = out;
+    this.in = in;
+  }
+
+  /**
+   * Index over LSAs with ids of its own, for tools and tests
+   *
+   * @param lsas content of a link state database
+   * @return index over the LSAs
+   */
+  static AdjacencyIndex build(Collection<LSA> lsas) {
+    RouterIdTable ids = new RouterIdTable();
+    return build(ids, lsas, lsa -> resolve(ids, lsa.links));
+  }
+
+  /**
+   * Every router mentioned by the LSAs is known to the index, but links only lead to routers
+   * that have an LSA of their own.
+   *
+   * @param ids      interning the simulated IPs, shared with the index built before
+   * @param lsas     content of the link state database
+   * @param resolver links of an LSA as packed links to ids, see {@link #resolve}
+   * @return index over the LSAs
+   */
+  static AdjacencyIndex build(RouterIdTable ids, Collection<LSA> lsas,
+      Function<LSA, long[]> resolver) {
+    // Resolving interns the routers seen for the first time, so it comes before sizing
+    int[] originators = new int[lsas.size()];
+    long[][] resolved = new long[lsas.size()][];
+    int count = 0;
+    for (LSA lsa : lsas) {
+      originators[count] = ids.intern(lsa.linkStateID);
+      resolved[count++] = resolver.apply(lsa);
+    }
+
+    int n = ids.size();
+    boolean[] hasLSA = new boolean[n];
+    boolean[] mentioned = new boolean[n];
+    for (int i = 0; i < count; i++) {
+      hasLSA[originators[i]] = true;
+      mentioned[originators[i]] = true;
+      for (long link : resolved[i]) {
+        mentioned[target(link)] = true;
+      }
+    }
+
+    long[][] out = new long[n][];
+    Arrays.fill(out, NO_LINKS);
+    int[] inDegree = new int[n];
+    AdjacencyIndex graph = new AdjacencyIndex(ids, hasLSA, mentioned, out, new long[n][]);
+    for (int i = 0; i < count; i++) {
+      int from = originators[i];
+      out[from] = graph.linksOf(resolved[i]);
+      for (long link : out[from]) {
+        inDegree[target(link)]++;
+      }
+    }
+
+    for (int i = 0; i < n; i++) {
+      graph.in[i] = inDegree[i] == 0 ? NO_LINKS : new long[inDegree[i]];
+      inDegree[i] = 0;
+    }
+    for (int from = 0; from < n; from++) {
+      for (long link : out[from]) {
+        int to = target(link);
+        graph.in[to][inDegree[to]++] = link(from, cost(link));
+      }
+    }
+    return graph;
+  }
+
+  /**
+   * Intern the routers an LSA links to, prefixes are left to the forwarding table
+   *
+   * @param ids   interning the simulated IPs
+   * @param links of an LSA
+   * @return packed links to the ids of the routers, costs below 1 raised to 1
+   */
+  static long[] resolve(RouterIdTable ids, List<LinkDescription> links) {
+    long[] packed = new long[links.size()];
+    int i = 0;
+    for (LinkDescription ld : links) {
+      if (!ld.isPrefix()) {
+        packed[i++] = link(ids.intern(ld.linkID), Math.max(1, ld.cost));
+      }
+    }
+    return i == packed.length ? packed : Arrays.copyOf(packed, i);
+  }
+
+  /**
+   * @return id of the router at the other end of a packed link
+   */
+  static int target(long link) {
+    return (int) (link >>> 32);
+  }
+
+  /**
+   * @return cost of a packed link
+   */
+  static int cost(long link) {
+    return (int) link;
+  }
+
+  static long link(int target, int cost) {
+    return ((long) target << 32) | (cost & 0xFFFFFFFFL);
+  }
+
+  /**
+   * @return number of routers in the index, every id is below
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param simulatedIP of a router
+   * @return id of the router, -1 if no LSA mentions it
+   */
+  int idOf(String simulatedIP) {
+    int id = ids.idOf(simulatedIP);
+    return id >= 0 && id < size && mentioned[id] ? id : -1;
+  }
+
+  /**
+   * @param id of a router
+   * @return simulated IP of the router
+   */
+  String name(int id) {
+    return ids.name(id);
+  }
+
+  /**
+   * @param id of a router
+   * @return true if the router has an LSA of its own
+   */
+  boolean hasLSA(int id) {
+    return hasLSA[id];
+  }
+
+  /**
+   * Drop the resolved links of an LSA that lead to routers without an LSA
+   *
+   * @param resolved links of an LSA, as returned by {@link #resolve}
+   * @return packed links, or null if a link leads to a router unknown to the index
+   */
+  long[] linksOf(long[] resolved) {
+    long[] packed = new long[resolved.length];
+    int count = 0;
+    for (long link : resolved) {
+      int to = target(link);
+      if (to >= size || !mentioned[to]) {
+        return null;
+      }
+      if (hasLSA[to]) {
+        packed[count++] = link;
+      }
+    }
+    return count == packed.length ? packed : Arrays.copyOf(packed, count);
+  }
+
+  /**
+   * @param links packed links of a router
+   * @param to    id of a router
+   * @return cost of the cheapest link to the router, -1 if there is none
+   */
+  static int costTo(long[] links, int to) {
+    int best = -1;
+    for (long link : links) {
+      if (target(link) == to && (best < 0 || cost(link) < best)) {
+        best = cost(link);
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Copy of this index with the outgoing links of one router replaced, this index is left as is
+   *
+   * @param router id of the router
+   * @param links  new packed links, as returned by {@link #linksOf}
+   * @return the new index
+   */
+  AdjacencyIndex withLinks(int router, long[] links) {
+    long[][] newOut = out.clone();
+    long[][] newIn = in.clone();
+    for (long link : out[router]) {
+      int to = target(link);
+      newIn[to] = removeOne(newIn[to], link(router, cost(link)));
+    }
+    for (long link : links) {
+      int to = target(link);
+      long[] row = Arrays.copyOf(newIn[to], newIn[to].length + 1);
+      row[row.length - 1] = link(router, cost(link));
+      newIn[to] = row;
+    }
+    newOut[router] = links;
+    return new AdjacencyIndex(ids, hasLSA, mentioned, newOut, newIn);
+  }
+
+  private static long[] removeOne(long[] row, long value) {
+    for (int i = 0; i < row.length; i++) {
+      if (row[i] == value) {
+        long[] smaller = new long[row.length - 1];
+        System.arraycopy(row, 0, smaller, 0, i);
+        System.arraycopy(row, i + 1, smaller, i, row.length - i - 1);
+        return smaller;
+      }
+    }
+    return row;
+  }
+}
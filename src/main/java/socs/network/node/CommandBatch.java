@@ -0,0 +1,349 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import socs.network.message.LinkDescription;
+
+/**
+ * Runs a batch of router commands, from a script or the control socket, and reports one result
+ * per command instead of printing. Consecutive commands that do not depend on each other run
+ * together:
+ * <ul>
+ * <li>consecutive attach and connect commands add their links one after the other, then the
+ * connects start in one go, handshaking with every new neighbor concurrently and flooding a
+ * single LSA</li>
+ * <li>consecutive disconnects withdraw their links in a single LSA</li>
+ * <li>consecutive detects are answered concurrently</li>
+ * </ul>
+ * Runs of different commands keep their order, so a detect after a connect sees the new link.
+ */
+final class CommandBatch {
+
+  // how long a connect waits for the database exchange with the new neighbor
+  private static final long SYNC_TIMEOUT_MS = 5000;
+
+  private final Router router;
+  // false for the control socket, whose clients must not stop the router under the terminal
+  private final boolean allowQuit;
+  private final List<Result> results = new ArrayList<>();
+  private boolean quit;
+
+  CommandBatch(Router router, boolean allowQuit) {
+    this.router = router;
+    this.allowQuit = allowQuit;
+  }
+
+  /**
+   * @param commands one per line, blank lines and lines starting with # are skipped
+   * @return one result per command, in order
+   */
+  List<Result> run(List<String> commands) {
+    List<Command> parsed = new ArrayList<>();
+    for (int i = 0; i < commands.size(); i++) {
+      String line = commands.get(i).trim();
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        parsed.add(new Command(i + 1, line));
+      }
+    }
+    router.commandLock.lock();
+    try {
+      int from = 0;
+      while (from < parsed.size()) {
+        int to = from + 1;
+        while (to < parsed.size() && parsed.get(to).kind().equals(parsed.get(from).kind())) {
+          to++;
+        }
+        run(parsed.get(from).kind(), parsed.subList(from, to));
+        from = to;
+      }
+    } finally {
+      router.commandLock.unlock();
+    }
+    // Concurrent commands finish in any order
+    Collections.sort(results);
+    return results;
+  }
+
+  /**
+   * @return true if the batch ran a quit command
+   */
+  boolean quit() {
+    return quit;
+  }
+
+  private void run(String kind, List<Command> run) {
+    for (Command command : run) {
+      if (quit) {
+        command.fail("Router quit");
+      }
+    }
+    if (quit) {
+      return;
+    }
+    switch (kind) {
+      case "connect":
+        connect(run);
+        break;
+      case "disconnect":
+        disconnect(run);
+        break;
+      case "detect":
+        detect(run);
+        break;
+      default:
+        for (Command command : run) {
+          runOne(command);
+        }
+    }
+  }
+
+  /**
+   * Attach and connect: every link first, then the handshakes of the connects together
+   */
+  private void connect(List<Command> run) {
+    List<Command> started = new ArrayList<>();
+    for (Command command : run) {
+      String[] args = command.args;
+      try {
+        if (args.length < 4) {
+          throw new IllegalArgumentException("Usage: " + args[0]
+              + " [Process IP] [Process Port] [IP Address] [Cost]");
+        }
+        String error = router.addNeighbor(args[1], Short.parseShort(args[2]), args[3],
+            Router.parseCost(args));
+        if (error != null) {
+          command.fail(error);
+        } else if (args[0].equals("connect")) {
+          started.add(command);
+        } else {
+          command.succeed("attached " + args[3]);
+        }
+      } catch (IllegalArgumentException e) {
+        command.fail(String.valueOf(e.getMessage()));
+      }
+    }
+    if (started.isEmpty()) {
+      return;
+    }
+
+    router.start();
+    awaitRoutes(started);
+    for (Command command : started) {
+      Optional<Link> link = router.ports.findLinkByIP(command.args[3]);
+      if (link.isPresent() && link.get().router2.status == RouterStatus.TWO_WAY) {
+        command.succeed("connected " + command.args[3]);
+      } else {
+        command.fail("No handshake with " + command.args[3]);
+      }
+    }
+  }
+
+  /**
+   * Wait until the new neighbors can be routed to, i.e. their LSAs listing this router arrived,
+   * so that the commands after the connects see the new links
+   */
+  private void awaitRoutes(List<Command> connected) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SYNC_TIMEOUT_MS);
+    for (Command command : connected) {
+      try {
+        while (router.lsd.getNextHops(command.args[3]).isEmpty()
+            && System.nanoTime() < deadline) {
+          Thread.sleep(1);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void disconnect(List<Command> run) {
+    List<Short> portNumbers = new ArrayList<>();
+    List<Command> valid = new ArrayList<>();
+    for (Command command : run) {
+      try {
+        if (command.args.length < 2) {
+          throw new IllegalArgumentException("Usage: disconnect [Port Number]");
+        }
+        short portNumber = Short.parseShort(command.args[1]);
+        if (router.ports.getLinkByIndex(portNumber) == null || portNumbers.contains(portNumber)) {
+          command.fail("Port not currently populated");
+          continue;
+        }
+        portNumbers.add(portNumber);
+        valid.add(command);
+      } catch (IllegalArgumentException e) {
+        command.fail(String.valueOf(e.getMessage()));
+      }
+    }
+    if (portNumbers.isEmpty()) {
+      return;
+    }
+    router.disconnectAll(portNumbers);
+    for (Command command : valid) {
+      command.succeed("disconnected port " + command.args[1]);
+    }
+  }
+
+  private void detect(List<Command> run) {
+    List<Future<?>> answers = new ArrayList<>(run.size());
+    for (Command command : run) {
+      answers.add(router.transport.workers().submit(() -> runOne(command)));
+    }
+    for (int i = 0; i < run.size(); i++) {
+      try {
+        answers.get(i).get();
+      } catch (ExecutionException e) {
+        run.get(i).fail(String.valueOf(e.getCause()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        run.get(i).fail("Interrupted");
+      }
+    }
+  }
+
+  private void runOne(Command command) {
+    String[] args = command.args;
+    try {
+      switch (args[0]) {
+        case "detect": {
+          if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: detect [IP Address]");
+          }
+          String path = router.lsd.getShortestPath(args[1]);
+          if (path.contains(" -> ") || args[1].equals(router.getSimulatedIP())) {
+            command.succeed(path);
+          } else {
+            command.fail(path);
+          }
+          break;
+        }
+        case "start":
+          router.start();
+          command.succeed("started");
+          break;
+        case "advertise":
+          if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: advertise [Prefix] [Cost]");
+          }
+          router.advertise(args[1], args.length > 2 ? Integer.parseInt(args[2])
+              : LinkDescription.DEFAULT_COST);
+          command.succeed("advertised " + args[1]);
+          break;
+        case "neighbors":
+          command.succeed(router.ports.toString());
+          break;
+        case "quit":
+          if (!allowQuit) {
+            command.fail("quit is only accepted on the terminal or in a script");
+            break;
+          }
+          router.quit();
+          quit = true;
+          command.succeed("quit");
+          break;
+        default:
+          command.fail("Invalid command");
+      }
+    } catch (IllegalArgumentException e) {
+      command.fail(String.valueOf(e.getMessage()));
+    }
+  }
+
+  private final class Command {
+    final int line;
+    final String text;
+    final String[] args;
+
+    Command(int line, String text) {
+      this.line = line;
+      this.text = text;
+      this.args = text.split("\\s+");
+    }
+
+    /**
+     * @return commands of the same kind run together
+     */
+    String kind() {
+      switch (args[0]) {
+        case "attach":
+        case "connect":
+          return "connect";
+        case "disconnect":
+        case "detect":
+          return args[0];
+        default:
+          // Each on its own
+          return "line " + line;
+      }
+    }
+
+    void succeed(String output) {
+      add(new Result(line, text, true, output));
+    }
+
+    void fail(String output) {
+      add(new Result(line, text, false, output));
+    }
+
+    private void add(Result result) {
+      synchronized (results) {
+        results.add(result);
+      }
+    }
+  }
+
+  /**
+   * Outcome of one command
+   */
+  static final class Result implements Comparable<Result> {
+    // line of the command in the batch, from 1
+    final int line;
+    final String command;
+    final boolean ok;
+    final String output;
+
+    Result(int line, String command, boolean ok, String output) {
+      this.line = line;
+      this.command = command;
+      this.ok = ok;
+      this.output = output;
+    }
+
+    @Override
+    public int compareTo(Result other) {
+      return Integer.compare(line, other.line);
+    }
+
+    /**
+     * @return the result as one line of JSON
+     */
+    String toJson() {
+      return "{\"line\":" + line + ",\"command\":" + quote(command) + ",\"ok\":" + ok
+          + ",\"output\":" + quote(output) + "}";
+    }
+
+    private static String quote(String s) {
+      StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (c == '"' || c == '\\') {
+          sb.append('\\').append(c);
+        } else if (c == '\n') {
+          sb.append("\\n");
+        } else if (c < 0x20) {
+          sb.append(String.format("\\u%04x", (int) c));
+        } else {
+          sb.append(c);
+        }
+      }
+      return sb.append('"').toString();
+    }
+  }
+}
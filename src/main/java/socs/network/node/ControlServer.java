@@ -0,0 +1,93 @@
+package socs.network.node;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loopback socket taking batches of commands, so that scripts drive many routers without a
+ * terminal each. A client writes commands one per line and ends a batch with an empty line or
+ * by closing its side; the batch runs as a {@link CommandBatch} and the server answers one line
+ * of JSON per command, in order, followed by an empty line. A connection may send any number of
+ * batches.
+ */
+final class ControlServer {
+
+  private final Router router;
+  private final ServerSocket server;
+  private final Thread acceptor;
+
+  /**
+   * @param port on the loopback interface, 0 for any free port
+   */
+  ControlServer(Router router, int port) throws IOException {
+    this.router = router;
+    server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    acceptor = new Thread(this::accept, "control-" + router.getSimulatedIP());
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  int getPort() {
+    return server.getLocalPort();
+  }
+
+  void close() {
+    try {
+      server.close();
+    } catch (IOException e) {
+      System.err.println("Failed to close control socket: " + e.getMessage());
+    }
+  }
+
+  private void accept() {
+    while (!server.isClosed()) {
+      try {
+        Socket client = server.accept();
+        Thread session = new Thread(() -> serve(client), acceptor.getName() + "-client");
+        session.setDaemon(true);
+        session.start();
+      } catch (IOException e) {
+        if (!server.isClosed()) {
+          System.err.println("Control socket failed: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private void serve(Socket client) {
+    try (Socket socket = client;
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), false,
+            StandardCharsets.UTF_8)) {
+      List<String> batch = new ArrayList<>();
+      String line;
+      do {
+        line = in.readLine();
+        if (line != null && !line.isEmpty()) {
+          batch.add(line);
+          continue;
+        }
+        if (!batch.isEmpty()) {
+          for (CommandBatch.Result result : new CommandBatch(router, false).run(batch)) {
+            out.print(result.toJson());
+            out.print('\n');
+          }
+          out.print('\n');
+          out.flush();
+          batch.clear();
+        }
+      } while (line != null);
+    } catch (IOException e) {
+      System.err.println("Control client failed: " + e.getMessage());
+    }
+  }
+}
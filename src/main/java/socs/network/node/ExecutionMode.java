@@ -0,0 +1,51 @@
+package socs.network.node;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads running the blocking work of a transport: packet handlers, which may reconnect to a
+ * neighbor, and the connects of the HELLO handshake. Selected with
+ * socs.network.router.executionMode in the router configuration.
+ */
+public enum ExecutionMode {
+
+  /**
+   * A fixed pool of platform threads, a blocked connect holds one of them
+   */
+  PLATFORM,
+
+  /**
+   * A virtual thread per task, blocking costs no platform thread so one JVM can host many
+   * routers
+   */
+  VIRTUAL;
+
+  /**
+   * @param name platform or virtual, in any case
+   * @return the mode of that name
+   * @throws IllegalArgumentException if there is none
+   */
+  public static ExecutionMode parse(String name) {
+    try {
+      return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown execution mode " + name
+          + ", expected platform or virtual");
+    }
+  }
+
+  /**
+   * @param prefix  of the thread names
+   * @param threads size of the pool, ignored by virtual threads
+   * @return executor for the workers of a transport
+   */
+  ExecutorService newWorkers(String prefix, int threads) {
+    if (this == VIRTUAL) {
+      return Executors.newThreadPerTaskExecutor(
+          Thread.ofVirtual().name(prefix + "-", 1).factory());
+    }
+    return Executors.newFixedThreadPool(threads, PacketReactor.namedThreads(prefix));
+  }
+}
@@ -0,0 +1,71 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Originators bucketed by the second their LSA expires, in a wheel with one slot per second of
+ * the max age. A sweep only drains the slots of the seconds that passed since the previous one,
+ * so its cost depends on what expires, not on the size of the database.
+ * <p/>
+ * An originator is scheduled again whenever a new LSA of it is installed and the old entries are
+ * left in place; whoever drains them checks the age of the LSA actually stored.
+ */
+class ExpiryWheel {
+
+  private final List<Set<String>> slots;
+  private final long originNanos;
+  // last second drained, counted from originNanos
+  private long sweptSecond;
+
+  /**
+   * @param horizonSeconds latest expiry that can be scheduled, relative to now
+   * @param nowNanos       System.nanoTime()
+   */
+  ExpiryWheel(int horizonSeconds, long nowNanos) {
+    // One more slot than the horizon, the slot being filled is never the one being drained
+    slots = new ArrayList<>(horizonSeconds + 2);
+    for (int i = 0; i < horizonSeconds + 2; i++) {
+      slots.add(new HashSet<>());
+    }
+    originNanos = nowNanos;
+  }
+
+  private long secondOf(long nanos) {
+    return TimeUnit.NANOSECONDS.toSeconds(nanos - originNanos);
+  }
+
+  /**
+   * @param linkStateID originator of the LSA
+   * @param expiryNanos System.nanoTime() at which the LSA reaches max age
+   */
+  synchronized void schedule(String linkStateID, long expiryNanos) {
+    // Expiries already swept past are picked up by the next sweep, later ones are clamped to
+    // the horizon
+    long second = Math.max(secondOf(expiryNanos), sweptSecond + 1);
+    second = Math.min(second, sweptSecond + slots.size() - 1);
+    slots.get((int) (second % slots.size())).add(linkStateID);
+  }
+
+  /**
+   * @param nowNanos System.nanoTime()
+   * @return originators scheduled to expire up to now, possibly with duplicates and with
+   *     originators refreshed since
+   */
+  synchronized List<String> due(long nowNanos) {
+    List<String> due = new ArrayList<>();
+    long now = secondOf(nowNanos);
+    // After a long pause every slot is due once
+    long from = Math.max(sweptSecond + 1, now - slots.size() + 1);
+    for (long second = from; second <= now; second++) {
+      Set<String> slot = slots.get((int) (second % slots.size()));
+      due.addAll(slot);
+      slot.clear();
+    }
+    sweptSecond = Math.max(sweptSecond, now);
+    return due;
+  }
+}
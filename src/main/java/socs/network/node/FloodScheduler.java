@@ -0,0 +1,188 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import socs.network.message.LSA;
+
+/**
+ * Paces LSA flooding. LSAs to flood are collected for a short window and only the newest one per
+ * originator is kept; at the end of the window every neighbor gets a single update carrying all
+ * of them, except the ones it sent us.
+ * <p/>
+ * With a window of 0, every LSA is sent as soon as it is offered.
+ */
+class FloodScheduler {
+
+  /**
+   * Sends a batch of LSAs to one neighbor
+   */
+  interface Sender {
+    /**
+     * @return true if the batch was written
+     */
+    boolean send(Link link, List<LSA> lsas);
+  }
+
+  private final ScheduledExecutorService timers;
+  private final long windowMillis;
+  private final Supplier<Iterable<Link>> neighbors;
+  private final Sender sender;
+
+  // linkStateID => newest LSA waiting for the end of the window, in arrival order
+  private final LinkedHashMap<String, Pending> pending = new LinkedHashMap<>();
+  private boolean scheduled;
+  // held while sending so that batches leave in the order they were collected
+  private final Object flushLock = new Object();
+
+  private final AtomicLong offered = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong packetsSent = new AtomicLong();
+  private final AtomicLong lsasSent = new AtomicLong();
+  private final AtomicLong suppressedSends = new AtomicLong();
+
+  /**
+   * @param timers       scheduler running the end of each window
+   * @param windowMillis how long LSAs are collected before being sent, 0 to send right away
+   * @param neighbors    current links, read when a batch is sent
+   * @param sender       writing a batch to a neighbor
+   */
+  FloodScheduler(ScheduledExecutorService timers, long windowMillis,
+      Supplier<Iterable<Link>> neighbors, Sender sender) {
+    this.timers = timers;
+    this.windowMillis = windowMillis;
+    this.neighbors = neighbors;
+    this.sender = sender;
+  }
+
+  /**
+   * Queue an LSA for flooding. An LSA already pending for the same originator is replaced if
+   * this one is at least as new.
+   *
+   * @param lsa  to flood
+   * @param from simulated IP of the neighbor the LSA came from, it does not get it back; null
+   *             for LSAs originated by this router
+   */
+  void offer(LSA lsa, String from) {
+    offered.incrementAndGet();
+    boolean flushNow;
+    synchronized (pending) {
+      Pending previous = pending.get(lsa.linkStateID);
+      if (previous != null) {
+        coalesced.incrementAndGet();
+        // One send to every neighbor that would have received the dropped copy
+        suppressedSends.addAndGet(countTargets(previous.from));
+        if (previous.lsa.lsaSeqNumber > lsa.lsaSeqNumber) {
+          return;
+        }
+      }
+      pending.put(lsa.linkStateID, new Pending(lsa, from));
+      flushNow = windowMillis <= 0;
+      if (!flushNow && !scheduled) {
+        scheduled = true;
+        timers.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+    if (flushNow) {
+      flush();
+    }
+  }
+
+  /**
+   * Send everything pending now instead of waiting for the end of the window. Used before
+   * links go away, e.g. on disconnect and quit.
+   */
+  void flush() {
+    synchronized (flushLock) {
+      List<Pending> batch;
+      synchronized (pending) {
+        scheduled = false;
+        if (pending.isEmpty()) {
+          return;
+        }
+        batch = new ArrayList<>(pending.values());
+        pending.clear();
+      }
+
+      for (Link link : neighbors.get()) {
+        String neighbor = link.router2.simulatedIPAddress;
+        List<LSA> lsas = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+          if (!neighbor.equals(p.from)) {
+            lsas.add(p.lsa);
+          }
+        }
+        if (lsas.isEmpty()) {
+          continue;
+        }
+        if (sender.send(link, lsas)) {
+          packetsSent.incrementAndGet();
+          lsasSent.addAndGet(lsas.size());
+          suppressedSends.addAndGet(lsas.size() - 1);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return number of LSAs queued for flooding
+   */
+  long offered() {
+    return offered.get();
+  }
+
+  /**
+   * @return number of queued LSAs replaced by another LSA of the same originator before being
+   *     sent
+   */
+  long coalesced() {
+    return coalesced.get();
+  }
+
+  /**
+   * @return number of update packets sent
+   */
+  long packetsSent() {
+    return packetsSent.get();
+  }
+
+  /**
+   * @return number of LSAs sent, counted once per neighbor
+   */
+  long lsasSent() {
+    return lsasSent.get();
+  }
+
+  /**
+   * @return number of packets that sending every LSA to every neighbor on its own would have
+   *     cost on top of {@link #packetsSent()}
+   */
+  long suppressedSends() {
+    return suppressedSends.get();
+  }
+
+  private int countTargets(String from) {
+    int count = 0;
+    for (Link link : neighbors.get()) {
+      if (!link.router2.simulatedIPAddress.equals(from)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static final class Pending {
+    final LSA lsa;
+    final String from;
+
+    Pending(LSA lsa, String from) {
+      this.lsa = lsa;
+      this.from = from;
+    }
+  }
+}
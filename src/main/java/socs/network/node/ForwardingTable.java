@@ -0,0 +1,227 @@
+package socs.network.node;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import socs.network.message.IPAddresses;
+import socs.network.message.LinkDescription;
+
+/**
+ * Forwarding information base: the next hop of every destination, looked up by longest prefix
+ * match. Every reachable router gets a /32 route, and every prefix advertised in an LSA a route
+ * through the nearest router advertising it.
+ * <p/>
+ * Routes live in a path-compressed binary trie stored in one int array, {@link #STRIDE} ints
+ * per node, so a lookup is a few array reads per distinct prefix length on the way and never
+ * allocates. Tables are immutable once built, a new one is built from each shortest path tree.
+ */
+final class ForwardingTable {
+  // a node is: prefix bits, prefix length, child for a 0 bit, child for a 1 bit, route or -1,
+  // metric of the route
+  static final int STRIDE = 6;
+  private static final int KEY = 0;
+  private static final int LENGTH = 1;
+  private static final int CHILD = 2;
+  private static final int ROUTE = 4;
+  private static final int METRIC = 5;
+  // metric of the routes to routers, which prefixes cannot replace
+  private static final int ROUTER_METRIC = -1;
+  // route of the destinations this router delivers to itself
+  static final int LOCAL = 0;
+  // lookup result when no prefix matches
+  static final int NO_ROUTE = -1;
+
+  private int[] nodes;
+  private int nodeCount;
+  private int root = -1;
+  // route => simulated IP of the next hop, null for LOCAL
+  private final String[] hops;
+  private int routes;
+
+  private ForwardingTable(String[] hops, int capacity) {
+    this.hops = hops;
+    nodes = new int[Math.max(1, capacity) * STRIDE];
+  }
+
+  /**
+   * @param tree     shortest path tree of this router
+   * @param prefixes prefix links of the LSA of a router, empty if it has none
+   * @return forwarding table over every router reachable in the tree and their prefixes
+   */
+  static ForwardingTable build(ShortestPathTree tree,
+      Function<String, List<LinkDescription>> prefixes) {
+    AdjacencyIndex graph = tree.graph;
+    int n = graph.size();
+    // Route r + 1 leads to router r, route 0 is LOCAL
+    String[] hops = new String[n + 1];
+    for (int id = 0; id < n; id++) {
+      int hop = tree.firstHop(id);
+      hops[id + 1] = hop < 0 ? null : graph.name(hop);
+    }
+
+    ForwardingTable table = new ForwardingTable(hops, 2 * n);
+    for (int id = 0; id < n; id++) {
+      if (tree.distance[id] != ShortestPathTree.UNREACHABLE) {
+        table.insert(IPAddresses.pack(graph.name(id)), 32, route(tree, id), ROUTER_METRIC);
+      }
+    }
+    for (int id = 0; id < n; id++) {
+      if (tree.distance[id] == ShortestPathTree.UNREACHABLE || !graph.hasLSA(id)) {
+        continue;
+      }
+      for (LinkDescription ld : prefixes.apply(graph.name(id))) {
+        // Prefixes advertised by several routers go to the nearest one, and a router address
+        // inside a prefix keeps its own /32 route
+        int metric = (int) Math.min(Integer.MAX_VALUE, (long) tree.distance[id] + ld.cost);
+        table.insert(IPAddresses.pack(ld.linkID), ld.prefixLength, route(tree, id), metric);
+      }
+    }
+    return table;
+  }
+
+  private static int route(ShortestPathTree tree, int id) {
+    return tree.firstHop(id) < 0 ? LOCAL : id + 1;
+  }
+
+  /**
+   * @param address packed destination address, see {@link IPAddresses#pack}
+   * @return route of the longest prefix holding the address, NO_ROUTE if none does
+   */
+  int lookup(int address) {
+    int[] nodes = this.nodes;
+    int best = NO_ROUTE;
+    int node = root;
+    while (node >= 0) {
+      int base = node * STRIDE;
+      int length = nodes[base + LENGTH];
+      if (((address ^ nodes[base + KEY]) & IPAddresses.mask(length)) != 0) {
+        break;
+      }
+      if (nodes[base + ROUTE] != NO_ROUTE) {
+        best = nodes[base + ROUTE];
+      }
+      if (length == 32) {
+        break;
+      }
+      node = nodes[base + CHILD + bit(address, length)];
+    }
+    return best;
+  }
+
+  /**
+   * @param route returned by {@link #lookup}, not NO_ROUTE
+   * @return simulated IP of the neighbor to send to, null if the destination is this router
+   */
+  String hop(int route) {
+    return hops[route];
+  }
+
+  /**
+   * @param destinationIP simulated IP of a destination
+   * @return simulated IP of the neighbor to send to, null if there is no route or the
+   *     destination is this router
+   */
+  String nextHop(String destinationIP) {
+    int route = lookup(IPAddresses.pack(destinationIP));
+    return route == NO_ROUTE ? null : hops[route];
+  }
+
+  /**
+   * @param destinationIP simulated IP of a destination
+   * @return true if this router is the destination or advertises the prefix holding it
+   */
+  boolean isLocal(String destinationIP) {
+    return lookup(IPAddresses.pack(destinationIP)) == LOCAL;
+  }
+
+  /**
+   * @return number of routes, prefixes and routers together
+   */
+  int size() {
+    return routes;
+  }
+
+  /**
+   * Add a route, unless the prefix already has one with a lower or equal metric
+   */
+  private void insert(int prefix, int length, int route, int metric) {
+    prefix &= IPAddresses.mask(length);
+    int parent = -1;
+    int side = 0;
+    int node = root;
+    while (node >= 0) {
+      int base = node * STRIDE;
+      int nodeKey = nodes[base + KEY];
+      int nodeLength = nodes[base + LENGTH];
+      int common = Math.min(Math.min(length, nodeLength),
+          Integer.numberOfLeadingZeros(prefix ^ nodeKey));
+      if (common == nodeLength) {
+        if (nodeLength == length) {
+          if (nodes[base + ROUTE] == NO_ROUTE) {
+            routes++;
+          } else if (nodes[base + METRIC] <= metric) {
+            return;
+          }
+          nodes[base + ROUTE] = route;
+          nodes[base + METRIC] = metric;
+          return;
+        }
+        parent = node;
+        side = bit(prefix, nodeLength);
+        node = nodes[base + CHILD + side];
+        continue;
+      }
+
+      // The new prefix branches off inside this node's prefix, or contains it
+      int inserted = newNode(prefix, length, route, metric);
+      if (common == length) {
+        setChild(inserted, bit(nodeKey, length), node);
+      } else {
+        int branch = newNode(prefix & IPAddresses.mask(common), common, NO_ROUTE, 0);
+        setChild(branch, bit(prefix, common), inserted);
+        setChild(branch, bit(nodeKey, common), node);
+        inserted = branch;
+      }
+      attach(parent, side, inserted);
+      return;
+    }
+    attach(parent, side, newNode(prefix, length, route, metric));
+  }
+
+  private void attach(int parent, int side, int node) {
+    if (parent < 0) {
+      root = node;
+    } else {
+      setChild(parent, side, node);
+    }
+  }
+
+  private int newNode(int prefix, int length, int route, int metric) {
+    if ((nodeCount + 1) * STRIDE > nodes.length) {
+      nodes = Arrays.copyOf(nodes, nodes.length * 2);
+    }
+    int base = nodeCount * STRIDE;
+    nodes[base + KEY] = prefix;
+    nodes[base + LENGTH] = length;
+    nodes[base + CHILD] = -1;
+    nodes[base + CHILD + 1] = -1;
+    nodes[base + ROUTE] = route;
+    nodes[base + METRIC] = metric;
+    if (route != NO_ROUTE) {
+      routes++;
+    }
+    return nodeCount++;
+  }
+
+  private void setChild(int node, int side, int child) {
+    nodes[node * STRIDE + CHILD + side] = child;
+  }
+
+  /**
+   * @return bit of the address at the given position, 0 being the most significant
+   */
+  private static int bit(int address, int position) {
+    return (address >>> (31 - position)) & 1;
+  }
+}
@@ -0,0 +1,98 @@
+package socs.network.node;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap over the integer ids 0..capacity-1 with decrease-key, used by the SPF. All
+ * storage is allocated up front so pushing and popping never allocates.
+ */
+class IndexedMinHeap {
+  private final int[] heap;
+  // position of each id in heap, -1 when absent
+  private final int[] position;
+  private final int[] keys;
+  private int size;
+
+  IndexedMinHeap(int capacity) {
+    heap = new int[capacity];
+    position = new int[capacity];
+    keys = new int[capacity];
+    Arrays.fill(position, -1);
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Insert id with the given key, or lower its key if it is already queued
+   *
+   * @param id  to queue
+   * @param key priority, smaller pops first
+   */
+  void push(int id, int key) {
+    int i = position[id];
+    if (i < 0) {
+      i = size++;
+      heap[i] = id;
+      position[id] = i;
+    } else if (key >= keys[id]) {
+      return;
+    }
+    keys[id] = key;
+    siftUp(i);
+  }
+
+  /**
+   * @return id with the smallest key, removed from the heap
+   */
+  int pop() {
+    int min = heap[0];
+    position[min] = -1;
+    if (--size > 0) {
+      int last = heap[size];
+      heap[0] = last;
+      position[last] = 0;
+      siftDown(0);
+    }
+    return min;
+  }
+
+  private void siftUp(int i) {
+    int id = heap[i];
+    int key = keys[id];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      int parentId = heap[parent];
+      if (keys[parentId] <= key) {
+        break;
+      }
+      heap[i] = parentId;
+      position[parentId] = i;
+      i = parent;
+    }
+    heap[i] = id;
+    position[id] = i;
+  }
+
+  private void siftDown(int i) {
+    int id = heap[i];
+    int key = keys[id];
+    int half = size >>> 1;
+    while (i < half) {
+      int child = 2 * i + 1;
+      int right = child + 1;
+      if (right < size && keys[heap[right]] < keys[heap[child]]) {
+        child = right;
+      }
+      if (key <= keys[heap[child]]) {
+        break;
+      }
+      heap[i] = heap[child];
+      position[heap[i]] = i;
+      i = child;
+    }
+    heap[i] = id;
+    position[id] = i;
+  }
+}
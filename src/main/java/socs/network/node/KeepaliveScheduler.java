@@ -0,0 +1,98 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Sends a HELLO to every neighbor that completed a handshake each hello interval and declares a
+ * neighbor dead when nothing came from it for the dead interval. A single periodic task on the
+ * shared timers serves every link, so a dead neighbor is noticed at most one hello interval after
+ * the dead interval.
+ */
+class KeepaliveScheduler {
+
+  private final ScheduledExecutorService timers;
+  private final long helloIntervalMillis;
+  private final long deadIntervalNanos;
+  private final Supplier<Iterable<Link>> neighbors;
+  private final Consumer<Link> sendHello;
+  private final Consumer<Link> onDead;
+  private ScheduledFuture<?> task;
+
+  /**
+   * @param timers              scheduler running the periodic check
+   * @param helloIntervalMillis time between two HELLOs to a neighbor, 0 to disable keepalives
+   * @param deadIntervalMillis  silence after which a neighbor is dead, larger than the hello
+   *                            interval
+   * @param neighbors           current links
+   * @param sendHello           sending a keepalive HELLO on a link
+   * @param onDead              removing the link of a dead neighbor
+   */
+  KeepaliveScheduler(ScheduledExecutorService timers, long helloIntervalMillis,
+      long deadIntervalMillis, Supplier<Iterable<Link>> neighbors, Consumer<Link> sendHello,
+      Consumer<Link> onDead) {
+    if (helloIntervalMillis > 0 && deadIntervalMillis <= helloIntervalMillis) {
+      throw new IllegalArgumentException("Dead interval must be longer than the hello interval");
+    }
+    this.timers = timers;
+    this.helloIntervalMillis = helloIntervalMillis;
+    this.deadIntervalNanos = TimeUnit.MILLISECONDS.toNanos(deadIntervalMillis);
+    this.neighbors = neighbors;
+    this.sendHello = sendHello;
+    this.onDead = onDead;
+  }
+
+  synchronized void start() {
+    if (helloIntervalMillis <= 0 || task != null) {
+      return;
+    }
+    task = timers.scheduleAtFixedRate(this::tick, helloIntervalMillis, helloIntervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  synchronized void stop() {
+    if (task != null) {
+      task.cancel(false);
+      task = null;
+    }
+  }
+
+  /**
+   * Send the keepalives and remove the neighbors that went silent. Runs on the timer thread, so
+   * it must not throw: the periodic task would silently stop.
+   */
+  void tick() {
+    long now = System.nanoTime();
+    List<Link> dead = new ArrayList<>();
+    for (Link link : neighbors.get()) {
+      // Links still in their first handshake are left to it
+      if (link.lastHeardNanos == 0) {
+        continue;
+      }
+      if (now - link.lastHeardNanos > deadIntervalNanos) {
+        dead.add(link);
+      } else {
+        try {
+          sendHello.accept(link);
+        } catch (RuntimeException e) {
+          System.err.println("Failed to send keepalive to " + link.router2.simulatedIPAddress
+              + ": " + e.getMessage());
+        }
+      }
+    }
+    // Removing changes the links, so it is done once they were all visited
+    for (Link link : dead) {
+      try {
+        onDead.accept(link);
+      } catch (RuntimeException e) {
+        System.err.println("Failed to remove dead neighbor " + link.router2.simulatedIPAddress
+            + ": " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package socs.network.node;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies counted in power-of-two buckets of microseconds. Recording never blocks and
+ * percentiles are accurate within a factor of two, which is enough to tell a 50us SPF from a 5ms
+ * one.
+ */
+class LatencyHistogram {
+  // bucket i holds latencies below 2^i microseconds, the last one everything above
+  private static final int BUCKETS = 40;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * @param nanos latency of one event
+   */
+  void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    long micros = nanos / 1000;
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    buckets.incrementAndGet(bucket);
+    count.increment();
+    totalNanos.add(nanos);
+    maxNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  /**
+   * @return number of recorded events
+   */
+  long count() {
+    return count.sum();
+  }
+
+  /**
+   * @return mean latency in microseconds, 0 if nothing was recorded
+   */
+  long meanMicros() {
+    long n = count.sum();
+    return n == 0 ? 0 : totalNanos.sum() / n / 1000;
+  }
+
+  /**
+   * @return largest latency in microseconds
+   */
+  long maxMicros() {
+    return maxNanos.get() / 1000;
+  }
+
+  /**
+   * @param fraction between 0 and 1, e.g. 0.99
+   * @return upper bound in microseconds of the bucket holding the percentile, 0 if nothing was
+   *     recorded
+   */
+  long percentileMicros(double fraction) {
+    long n = 0;
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      n += counts[i];
+    }
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(fraction * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        // The bound of the last bucket would be meaningless, the max is known exactly
+        return i == BUCKETS - 1 ? maxMicros() : Math.min(1L << i, Math.max(1, maxMicros()));
+      }
+    }
+    return maxMicros();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count %d, mean %dus, p50 <=%dus, p99 <=%dus, max %dus", count(),
+        meanMicros(), percentileMicros(0.5), percentileMicros(0.99), maxMicros());
+  }
+}
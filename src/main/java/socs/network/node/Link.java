@@ -1,12 +1,50 @@
 package socs.network.node;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+
 public class Link {
 
   RouterDescription router1;
   RouterDescription router2;
+  // cost advertised for this link in our LSA
+  int cost;
+
+  // persistent connection to router2, set up by the HELLO handshake and replaced on reconnect
+  volatile NeighborChannel channel;
+  // guards replacing the channel, a lock rather than a monitor so that a virtual thread blocked
+  // reconnecting does not pin its carrier
+  final ReentrantLock channelLock = new ReentrantLock();
+  // released once router2 reaches TWO_WAY
+  final CountDownLatch twoWay = new CountDownLatch(1);
+  // System.nanoTime() of our first HELLO on this link, 0 before it
+  volatile long helloSentNanos;
+  // System.nanoTime() of the last packet from router2, checked against the dead interval
+  volatile long lastHeardNanos;
+  // originator => LSA sent to router2 and not acknowledged yet
+  final ConcurrentHashMap<String, RetransmissionScheduler.Retransmission> retransmissions =
+      new ConcurrentHashMap<>();
+  // smoothed time router2 takes to acknowledge an LSA, 0 before the first acknowledgement
+  volatile long ackDelayNanos;
+  // headers of the LSAs received from router2 waiting to be acknowledged, guarded by itself
+  final List<LSA> pendingAcks = new ArrayList<>();
+  // originator => newest sequence number router2 acknowledged or sent us, the base a delta LSA
+  // sent to it may use
+  final ConcurrentHashMap<String, Integer> known = new ConcurrentHashMap<>();
 
   public Link(RouterDescription r1, RouterDescription r2) {
+    this(r1, r2, LinkDescription.DEFAULT_COST);
+  }
+
+  public Link(RouterDescription r1, RouterDescription r2, int cost) {
     router1 = r1;
     router2 = r2;
+    this.cost = cost;
   }
 }
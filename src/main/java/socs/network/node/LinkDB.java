@@ -1,21 +1,44 @@
 package socs.network.node;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import socs.network.message.LinkDescription;
+
+/**
+ * Links of a router, one per port. Ports are numbered from 0 and reused once free. Links are
+ * found by the process port or the simulated IP of the neighbor in constant time.
+ * <p/>
+ * Changes are serialized and publish a new immutable snapshot of the links, which is what
+ * iteration goes over: the packet handlers, timers and commands can all iterate while links come
+ * and go, and each sees a consistent set.
+ */
 public class LinkDB implements Iterable<Link> {
+  // ports of a router unless configured otherwise
+  public static final int DEFAULT_PORTS = 4;
+
   private final Link[] _links;
   private final int _maxSize;
+  // ports in use
+  private final BitSet occupied;
+  // neighbor process port => port
+  private final Map<Short, Integer> byProcessPort = new HashMap<>();
+  // neighbor simulated IP => port
+  private final Map<String, Integer> bySimulatedIP = new HashMap<>();
+  // links in port order, replaced on every change
+  private volatile List<Link> snapshot = Collections.emptyList();
 
   public int getCurrentSize() {
-    return currentSize;
+    return snapshot.size();
   }
 
-  private int currentSize;
-
   public AtomicInteger getLsaSeqNumber() {
     return lsaSeqNumber;
   }
@@ -26,12 +49,23 @@ public class LinkDB implements Iterable<Link> {
    * @param size max size of DB
    */
   public LinkDB(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("A router needs at least one port");
+    }
     _maxSize = size;
     _links = new Link[_maxSize];
+    occupied = new BitSet(_maxSize);
   }
 
   /**
-   * Try to add link to DB, sets status of link to INIT
+   * @return number of ports, used or not
+   */
+  public int getMaxSize() {
+    return _maxSize;
+  }
+
+  /**
+   * Try to add link with the default cost to DB, sets status of link to INIT
    *
    * @param processIP     of new link
    * @param processPort   of new link
@@ -41,6 +75,28 @@ public class LinkDB implements Iterable<Link> {
    */
   public boolean addLink(String processIP, short processPort, String simulatedIP,
       RouterDescription currentRouter) {
+    return addLink(processIP, processPort, simulatedIP, currentRouter,
+        LinkDescription.DEFAULT_COST);
+  }
+
+  /**
+   * Try to add link to DB, sets status of link to INIT
+   *
+   * @param processIP     of new link
+   * @param processPort   of new link
+   * @param simulatedIP   of new link
+   * @param currentRouter description to add to link pair
+   * @param cost          of the new link
+   * @return true if link was added to DB, false if every port is used or the neighbor already
+   *     has a link
+   */
+  public synchronized boolean addLink(String processIP, short processPort, String simulatedIP,
+      RouterDescription currentRouter, int cost) {
+    int port = occupied.nextClearBit(0);
+    if (port >= _maxSize || byProcessPort.containsKey(processPort)
+        || bySimulatedIP.containsKey(simulatedIP)) {
+      return false;
+    }
 
     RouterDescription newRouter = new RouterDescription();
     newRouter.processPortNumber = processPort;
@@ -48,19 +104,11 @@ public class LinkDB implements Iterable<Link> {
     newRouter.simulatedIPAddress = simulatedIP;
     newRouter.status = RouterStatus.INIT;
 
-    Link newLink = new Link(currentRouter, newRouter);
-
-    if (!(currentSize < _maxSize)) {
-      return false;
-    }
-
-    for (int i = 0; i < _maxSize; ++i) {
-      if (_links[i] == null) {
-        _links[i] = newLink;
-        break;
-      }
-    }
-    currentSize++;
+    _links[port] = new Link(currentRouter, newRouter, cost);
+    occupied.set(port);
+    byProcessPort.put(processPort, port);
+    bySimulatedIP.put(simulatedIP, port);
+    publish();
     lsaSeqNumber.addAndGet(1);
     return true;
   }
@@ -71,46 +119,100 @@ public class LinkDB implements Iterable<Link> {
    * @return true if link removed
    */
   public boolean removeLink(short portNumber) {
-    for (int i = 0; i < _maxSize; ++i) {
-      Link link = _links[i];
-      if (link.router2.processPortNumber == portNumber) {
-        _links[i] = null;
-        return true;
+    Link link;
+    synchronized (this) {
+      Integer port = byProcessPort.get(portNumber);
+      if (port == null) {
+        return false;
       }
+      link = clear(port);
     }
     lsaSeqNumber.addAndGet(1);
-
-    return false;
+    closeChannel(link);
+    return true;
   }
 
   /**
    * Remove link by index
    *
    * @param index of link (0-_maxSize)
-   * @return Link
+   * @return Link, null if the port was free
    */
   public Link removeLinkByIndex(int index) {
-    Link link = getLinkByIndex(index);
-    _links[index] = null;
+    Link link;
+    synchronized (this) {
+      link = clear(index);
+    }
     lsaSeqNumber.addAndGet(1);
+    closeChannel(link);
+    return link;
+  }
+
+  /**
+   * Remove every link
+   *
+   * @return links removed
+   */
+  public List<Link> removeAll() {
+    List<Link> removed = snapshot;
+    for (Link link : removed) {
+      removeLink(link.router2.processPortNumber);
+    }
+    return removed;
+  }
+
+  private Link clear(int port) {
+    Link link = _links[port];
+    if (link == null) {
+      return null;
+    }
+    _links[port] = null;
+    occupied.clear(port);
+    byProcessPort.remove(link.router2.processPortNumber);
+    bySimulatedIP.remove(link.router2.simulatedIPAddress);
+    publish();
     return link;
   }
 
+  private void publish() {
+    List<Link> links = new ArrayList<>(occupied.cardinality());
+    for (int port = occupied.nextSetBit(0); port >= 0; port = occupied.nextSetBit(port + 1)) {
+      links.add(_links[port]);
+    }
+    snapshot = Collections.unmodifiableList(links);
+  }
+
+  private void closeChannel(Link link) {
+    if (link != null && link.channel != null) {
+      link.channel.close();
+    }
+  }
+
   /**
    * Get link by index
    * @param index of link (0-_maxSize)
-   * @return
+   * @return link on that port, null if it is free or out of range
    */
-  public Link getLinkByIndex(int index) {
-    return _links[index];
+  public synchronized Link getLinkByIndex(int index) {
+    return index >= 0 && index < _maxSize ? _links[index] : null;
   }
 
   /**
    * @param portNumber port number to match by
-   * @return first link to have port number in list
+   * @return link to the neighbor with that process port
+   */
+  public synchronized Optional<Link> findLink(short portNumber) {
+    Integer port = byProcessPort.get(portNumber);
+    return port == null ? Optional.empty() : Optional.of(_links[port]);
+  }
+
+  /**
+   * @param simulatedIP of the neighbor
+   * @return link to the neighbor with that simulated IP
    */
-  public Optional<Link> findLink(short portNumber) {
-    return Arrays.stream(_links).filter(x -> x != null && x.router2.processPortNumber == portNumber).findFirst();
+  public synchronized Optional<Link> findLinkByIP(String simulatedIP) {
+    Integer port = bySimulatedIP.get(simulatedIP);
+    return port == null ? Optional.empty() : Optional.of(_links[port]);
   }
 
   /**
@@ -118,52 +220,36 @@ public class LinkDB implements Iterable<Link> {
    * @return true if link was in DB and successfully changed
    */
   public boolean setLinkToTwoWay(short portNumber) {
-    Optional<Link> first = Arrays.stream(_links).filter(x -> x.router2.processPortNumber == portNumber).findFirst();
+    Optional<Link> first = findLink(portNumber);
     if (!first.isPresent()) {
       return false;
     }
 
+    first.get().lastHeardNanos = System.nanoTime();
     first.get().router2.status = RouterStatus.TWO_WAY;
+    first.get().twoWay.countDown();
     return true;
   }
 
   @Override
   public String toString() {
-    if (currentSize == 0) {
+    List<Link> links = snapshot;
+    if (links.isEmpty()) {
       return "Router has no current neighbors";
     }
 
     StringBuilder sb = new StringBuilder();
-    for (Link link : _links) {
-      if (link == null) {
-        continue;
-      }
+    for (Link link : links) {
       sb.append(link.router2.simulatedIPAddress).append(System.getProperty("line.separator"));
     }
     return sb.toString();
   }
 
+  /**
+   * @return iterator over the links at the time of the call, not affected by later changes
+   */
   @Override
   public Iterator<Link> iterator() {
-    return new Iterator<Link>() {
-      private int currentIndex = 0;
-
-      @Override
-      public boolean hasNext() {
-        // Skips over null elements as the array can have holes in it
-        while (currentIndex < _maxSize && _links[currentIndex] == null) {
-          currentIndex++;
-        }
-        return currentIndex < _maxSize;
-      }
-
-      @Override
-      public Link next() {
-        if (!hasNext()) {
-          throw new NoSuchElementException();
-        }
-        return _links[currentIndex++];
-      }
-    };
+    return snapshot.iterator();
   }
 }
@@ -3,209 +3,695 @@ package socs.network.node;
 import socs.network.message.LSA;
 import socs.network.message.LinkDescription;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * LSAs known to this router, at most one per originator. LSAs are immutable and entries are only
+ * ever replaced by a newer LSA with a compare-and-swap, so readers never block writers.
+ * <p/>
+ * LSAs of other routers that are not refreshed before they reach max age are purged by
+ * {@link #sweep}, which also refreshes our own LSA.
+ */
 public class LinkStateDatabase {
 
   //linkID => LSAInstance
-  public HashMap<String, LSA> _store = new HashMap<String, LSA>();
+  final ConcurrentHashMap<String, LSA> _store = new ConcurrentHashMap<String, LSA>();
 
   private RouterDescription rd = null;
 
+  // equal-cost paths printed by getShortestPath, their number grows exponentially on grids
+  private static final int MAX_REPORTED_PATHS = 16;
+
+  // shortest paths from this router, recomputed only after the store changes
+  private final RoutingTable routingTable;
+  // router ids of the routing table, which never sees a simulated IP
+  private final RouterIdTable ids = new RouterIdTable();
+  // originator id => links of its LSA resolved to router ids, so that SPF resolves each LSA once
+  private Resolved[] resolved = new Resolved[16];
+
+  // System.nanoTime() of the last change to our own LSA and of the last change to any LSA
+  private volatile long lastLocalChangeNanos;
+  private volatile long lastChangeNanos;
+  private volatile boolean changedLocally;
+
+  // seconds after which an LSA that was not refreshed is purged
+  private final int maxAge;
+  // originators of the other LSAs by expiry time
+  private final ExpiryWheel expiry;
+  // LSAs removed because they reached max age, here or at another router
+  private final LongAdder purged = new LongAdder();
+  // flood deltas instead of whole LSAs, see deltaOf
+  private volatile boolean deltaLSAs;
+  // originator => LSA replaced by the current one, kept while delta LSAs are on
+  private final ConcurrentHashMap<String, LSA> previous = new ConcurrentHashMap<>();
+  // originator => delta from the previous to the current LSA, built on first use
+  private final ConcurrentHashMap<String, Delta> deltas = new ConcurrentHashMap<>();
+  // our own LSA was restored from a snapshot, its links to routers are replaced by the first
+  // local change
+  private volatile boolean provisional;
+  // records every LSA installed or purged, null if not journaled
+  private volatile LsaJournal journal;
+
 
   public LinkStateDatabase(RouterDescription routerDescription) {
+    this(routerDescription, LSA.MAX_AGE);
+  }
+
+  /**
+   * Database of a router that is not running, e.g. to replay its journal
+   *
+   * @param simulatedIP of the router the database belongs to
+   */
+  public LinkStateDatabase(String simulatedIP, int maxAge) {
+    this(describe(simulatedIP), maxAge);
+  }
+
+  private static RouterDescription describe(String simulatedIP) {
+    RouterDescription rd = new RouterDescription();
+    rd.simulatedIPAddress = simulatedIP;
+    return rd;
+  }
+
+  /**
+   * @param maxAge seconds after which an LSA that was not refreshed is purged, it must be the
+   *               same on every router
+   */
+  public LinkStateDatabase(RouterDescription routerDescription, int maxAge) {
+    if (maxAge < 1 || maxAge > LSA.MAX_ENCODED_AGE) {
+      throw new IllegalArgumentException("Max age must be between 1 and " + LSA.MAX_ENCODED_AGE);
+    }
+    this.maxAge = maxAge;
+    expiry = new ExpiryWheel(maxAge, System.nanoTime());
     rd = routerDescription;
     LSA l = initLinkStateDatabase();
     _store.put(l.linkStateID, l);
+    routingTable = new RoutingTable(rd.simulatedIPAddress, this::buildIndex,
+        this::resolvedLinks, this::prefixes);
   }
 
   /**
-   * Output the shortest path from this router to the destination with the given IP address
+   * Output the shortest paths from this router to the destination with the given IP address,
+   * one per line when several paths have the same cost
    * @param destinationIP The IP address of the destination router
    */
   public String getShortestPath(String destinationIP) {
-    // Check if router exists in network
-    RouterDescription destinationRouter = null;
-    // Find the destination router description
-    synchronized (_store){
-      for (LSA lsa : _store.values()) {
-          for (LinkDescription ld : lsa.links) {
-              if (ld.linkID.equals(destinationIP)) {
-                  destinationRouter = new RouterDescription();
-                  destinationRouter.simulatedIPAddress = destinationIP;
-                  break;
-              }
-          }
-          if (destinationRouter != null) {
-              break;
-          }
-      }
-      if (destinationRouter == null) {
-          return "Destination router not found in the network.";
-      }
+    List<List<String>> paths;
+    try {
+      paths = routingTable.lookupAll(destinationIP, MAX_REPORTED_PATHS);
+    } catch (IllegalArgumentException e) {
+      return "Destination router not found in the network.";
     }
-    // Call Dijkstra's algorithm to find the shortest path
-    Map<String, List<String>> distances = dijkstra(rd, destinationRouter);
-    if (distances.get(destinationRouter.simulatedIPAddress) == null) {
+    if (paths.isEmpty()) {
       return "No path found to destination router.";
     }
-    // Reconstruct the shortest path
-    StringBuilder shortestPath = new StringBuilder();
-    
-    distances.get(destinationRouter.simulatedIPAddress).forEach(router -> shortestPath.append(router).append(" -> "));
-    
-    // Remove the last " -> " from the string
-    shortestPath.setLength(shortestPath.length() - 4);
-    
-    return shortestPath.toString();
-  }
-
-  /**
-   * Dijkstra's algorithm to find the shortest path from source to destination
-   * @param source the source router
-   * @param destination the destination router
-   * @return a map of router IP addresses to the distance from the source router
-   */
-  private synchronized Map<String, List<String>> dijkstra(RouterDescription source, RouterDescription destination) {
-      Map<String, Integer> distances = new HashMap<>();
-      Map<String, String> previous = new HashMap<>();
-      Set<String> visited = new HashSet<>();
-      Map<String, List<String>> paths = new HashMap<>();
-      
-
-      
-      for (LSA lsa : _store.values()) {
-          String router = lsa.linkStateID;
-          // Check if router is neighbor of source, then we know the distance
-          if (lsa.links.stream().anyMatch(ld -> ld.linkID.equals(source.simulatedIPAddress))) {
-            // double check if the router is the source
-            if (router.equals(source.simulatedIPAddress)) {
-              distances.put(router, 0);
-              previous.put(router, null);
-              paths.put(router, new LinkedList<>());
-              paths.get(router).add(router);
-            } else {
-              distances.put(router, 1);
-              previous.put(router, source.simulatedIPAddress);
-            }
-          } else {
-            distances.put(router, Integer.MAX_VALUE);
-            previous.put(router, null);
-          }
-      }
+    List<String> lines = new ArrayList<>(paths.size());
+    for (List<String> path : paths) {
+      lines.add(String.join(" -> ", path));
+    }
+    Collections.sort(lines);
+    return String.join(System.lineSeparator(), lines);
+  }
 
+  /**
+   * @param destinationIP The IP address of the destination router
+   * @return simulated IPs of the neighbors starting an equal-cost shortest path to the
+   *     destination, empty if it cannot be reached
+   */
+  public List<String> getNextHops(String destinationIP) {
+    return routingTable.nextHops(destinationIP);
+  }
 
+  /**
+   * @param destinationIP The IP address of the destination router
+   * @return simulated IP of the neighbor that packets to the destination are forwarded to, by
+   *     longest prefix match, null if it cannot be reached or is delivered here
+   */
+  public String getNextHop(String destinationIP) {
+    return routingTable.forwardingTable().nextHop(destinationIP);
+  }
 
-      // visited.add(source.simulatedIPAddress);
-
-      // Loop through all routers in the network
-      while (visited.size() < _store.size()){
-          String current = getMinimumDistanceRouter(distances, visited);
-
-          if (current == null) {
-              break;
-          }
-
-          visited.add(current);
-
-          for (LSA lsa : _store.values()) {
-              if (current.equals(lsa.linkStateID)) {
-                
-                for (LinkDescription ld : lsa.links) {
-                    String neighbor = null;
-                    neighbor = ld.linkID;
-                    if (_store.get(neighbor) == null){
-                      continue;
-                    }
-                    if (!visited.contains(neighbor)) {
-                        int alt = distances.get(current) + 1; // Assuming equal weight for all links
-                        if (alt <= distances.get(neighbor)) {
-                            distances.put(neighbor, alt);
-                            previous.put(neighbor, current);
-                            paths.put(neighbor, new LinkedList<>(paths.get(current)));
-                            paths.get(neighbor).add(neighbor);
-                        }
-                    }
-                }
-              }
-          }
-      }
+  /**
+   * @return the forwarding table of this router, computed from the current content of the
+   *     database
+   */
+  ForwardingTable getForwardingTable() {
+    return routingTable.forwardingTable();
+  }
 
-      return paths;
+  /**
+   * Advertise a prefix this router delivers to itself, e.g. a network behind it
+   *
+   * @param prefix link to the prefix, see {@link LinkDescription#prefix}
+   * @return the updated LSA of this router
+   */
+  public LSA advertisePrefix(LinkDescription prefix) {
+    if (!prefix.isPrefix()) {
+      throw new IllegalArgumentException(prefix.linkID + " is not a prefix");
+    }
+    LSA lsa = _store.compute(rd.simulatedIPAddress, (id, current) -> {
+      List<LinkDescription> links = new ArrayList<>();
+      for (LinkDescription ld : current.links) {
+        // Advertised again, e.g. with another cost
+        if (!ld.isPrefix() || !ld.linkID.equals(prefix.linkID)
+            || ld.prefixLength != prefix.prefixLength) {
+          links.add(ld);
+        }
+      }
+      links.add(prefix);
+      return replacing(current, current.next(links));
+    });
+    journal(LsaJournal.INSTALLED, lsa, null);
+    routingTable.invalidate(rd.simulatedIPAddress);
+    localChange();
+    return lsa;
   }
 
   /**
-   * Get the router with the minimum distance that has not been visited
-   * @param distances The map of router IP addresses to distances
-   * @param visited The set of visited routers
+   * @return prefixes advertised in the LSA of the given router, empty if it has none
    */
-  private String getMinimumDistanceRouter(Map<String, Integer> distances, Set<String> visited) {
-      String minRouter = null;
-      int minDistance = Integer.MAX_VALUE;
-      for (Map.Entry<String, Integer> entry : distances.entrySet()) {
-          if (!visited.contains(entry.getKey()) && entry.getValue() < minDistance) {
-              minDistance = entry.getValue();
-              minRouter = entry.getKey();
-          }
+  List<LinkDescription> prefixes(String linkStateID) {
+    LSA lsa = _store.get(linkStateID);
+    if (lsa == null) {
+      return Collections.emptyList();
+    }
+    List<LinkDescription> prefixes = new ArrayList<>();
+    for (LinkDescription ld : lsa.links) {
+      if (ld.isPrefix()) {
+        prefixes.add(ld);
       }
-      return minRouter;
+    }
+    return prefixes;
+  }
+
+  /**
+   * @return the routing table of this router, computed from the current content of the database
+   */
+  RoutingTable getRoutingTable() {
+    return routingTable;
+  }
+
+  /**
+   * @param incremental true to update the routing table with incremental SPF when a single
+   *                    router's links change, false to always run a full SPF
+   */
+  public void setIncrementalSPF(boolean incremental) {
+    routingTable.setIncremental(incremental);
   }
 
+  /**
+   * @param linkStateID simulated IP of the originator
+   * @return the newest LSA of the originator, null if there is none
+   */
+  public LSA getLSA(String linkStateID) {
+    return _store.get(linkStateID);
+  }
+
+  /**
+   * @return the LSAs currently in the database. Each LSA is consistent on its own, LSAs changed
+   *     while copying may or may not be included.
+   */
+  public Collection<LSA> snapshot() {
+    return new ArrayList<>(_store.values());
+  }
+
+  private AdjacencyIndex buildIndex() {
+    // Changes made while the index is built bump the routing table's version, so a tree built
+    // from a stale snapshot is recomputed on the next lookup
+    return AdjacencyIndex.build(ids, snapshot(), this::resolve);
+  }
+
+  private long[] resolvedLinks(String linkStateID) {
+    LSA lsa = _store.get(linkStateID);
+    return lsa == null ? null : resolve(lsa);
+  }
+
+  /**
+   * @return the links of an LSA resolved to router ids, cached until the originator's LSA is
+   *     replaced
+   */
+  private synchronized long[] resolve(LSA lsa) {
+    int id = ids.intern(lsa.linkStateID);
+    if (id >= resolved.length) {
+      resolved = Arrays.copyOf(resolved, Math.max(id + 1, resolved.length * 2));
+    }
+    Resolved cached = resolved[id];
+    if (cached == null || cached.lsa != lsa) {
+      cached = new Resolved(lsa, AdjacencyIndex.resolve(ids, lsa.links));
+      resolved[id] = cached;
+    }
+    return cached.links;
+  }
+
+  private static final class Resolved {
+    final LSA lsa;
+    final long[] links;
+
+    Resolved(LSA lsa, long[] links) {
+      this.lsa = lsa;
+      this.links = links;
+    }
+  }
 
   /**
    * initialize the linkstate database by adding an entry about the router itself
    * @return the LSA instance containing the information about the router
    */
   private LSA initLinkStateDatabase() {
-    LSA lsa = new LSA();
-    lsa.linkStateID = rd.simulatedIPAddress;
-    lsa.lsaSeqNumber = Integer.MIN_VALUE;
-    LinkDescription ld = new LinkDescription();
-    ld.linkID = rd.simulatedIPAddress;
-    ld.portNum = -1;
-    lsa.links.add(ld);
-    return lsa;
+    LinkDescription ld = new LinkDescription(rd.simulatedIPAddress, -1);
+    return new LSA(rd.simulatedIPAddress, LSA.INITIAL_SEQUENCE, Collections.singletonList(ld));
+  }
+
+  /**
+   * Write every LSA of the database to a snapshot file, see {@link #load}
+   *
+   * @param path of the snapshot, replaced if it exists
+   */
+  public void save(Path path) throws IOException {
+    LinkStateSnapshot.write(path, rd.simulatedIPAddress, _store.values());
+  }
+
+  /**
+   * Load a snapshot written by {@link #save} as provisional state. LSAs of other routers age
+   * from their age in the snapshot plus the time since it was written and give way to any
+   * newer copy flooded or requested later. Our own LSA keeps its links until the first local
+   * change replaces them, and takes the next sequence number, since our last LSA may have been
+   * flooded after the snapshot was written.
+   *
+   * @param path of the snapshot
+   * @return number of LSAs loaded, 0 if there is no snapshot
+   * @throws IOException if the snapshot cannot be read or belongs to another router
+   */
+  public int load(Path path) throws IOException {
+    if (!path.toFile().exists()) {
+      return 0;
+    }
+    int loaded = 0;
+    for (LSA lsa : LinkStateSnapshot.read(path, rd.simulatedIPAddress)) {
+      if (!lsa.linkStateID.equals(rd.simulatedIPAddress)) {
+        if (syncLinkStateDatabase(lsa)) {
+          loaded++;
+        }
+        continue;
+      }
+      journal(LsaJournal.INSTALLED, _store.compute(rd.simulatedIPAddress,
+          (id, current) -> new LSA(id, Math.max(current.lsaSeqNumber, lsa.lsaSeqNumber + 1),
+              lsa.links)), null);
+      routingTable.invalidate(rd.simulatedIPAddress);
+      provisional = true;
+      loaded++;
+    }
+    return loaded;
+  }
+
+  /**
+   * Install an LSA of this router recorded earlier, e.g. in a journal, in place of the current
+   * one unless that one is newer. Our own links may change without a new sequence number, an
+   * LSA with the same one replaces the current one too.
+   *
+   * @return true if the LSA was installed
+   */
+  public boolean restoreLocalLSA(LSA lsa) {
+    if (!lsa.linkStateID.equals(rd.simulatedIPAddress)) {
+      throw new IllegalArgumentException(lsa.linkStateID + " is not this router");
+    }
+    LSA current = _store.get(rd.simulatedIPAddress);
+    if (current.lsaSeqNumber > lsa.lsaSeqNumber
+        || !_store.replace(rd.simulatedIPAddress, current, lsa)) {
+      return false;
+    }
+    installed(lsa, System.nanoTime());
+    return true;
   }
 
   /**
    * Sync the link state database with the given LSA
    * If the LSA already exists, update it if the sequence number is larger
    * If the LSA does not exist, add it to the database
-   * 
-   * @param lsa The LSA to update the database with
-   * @return true if the LSA was more recent than one in database
+   * An LSA at max age purges the copy in the database with the same or a lower sequence number
+   *
+   * @param lsa The LSA to update the database with, a delta is applied to the copy in the
+   *            database, see {@link #expand}
+   * @return true if the LSA was more recent than one in database, it should be flooded further
    */
   public boolean syncLinkStateDatabase(LSA lsa) {
-    // Potentially lock on the lsa object instead of the whole store
-    synchronized (_store) {
-      if (_store.containsKey(lsa.linkStateID)) {
-        // Update the LSA if the sequence number is larger
-        LSA existingLsa = _store.get(lsa.linkStateID);
-        if (lsa.lsaSeqNumber > existingLsa.lsaSeqNumber) {
-          _store.put(lsa.linkStateID, lsa);
+    return syncLinkStateDatabase(lsa, null);
+  }
+
+  /**
+   * @param lsa        The LSA to update the database with, see {@link #syncLinkStateDatabase}
+   * @param neighborIP simulated IP of the neighbor the LSA came from, for the journal
+   * @return true if the LSA was more recent than one in database, it should be flooded further
+   */
+  public boolean syncLinkStateDatabase(LSA lsa, String neighborIP) {
+    if (lsa.isDelta()) {
+      lsa = expand(lsa);
+      if (lsa == null) {
+        return false;
+      }
+    }
+    long now = System.nanoTime();
+    boolean purge = lsa.isMaxAge(maxAge, now);
+    while (true) {
+      LSA existingLsa = _store.get(lsa.linkStateID);
+      if (existingLsa == null) {
+        // Nothing to purge
+        if (purge) {
+          return false;
+        }
+        if (_store.putIfAbsent(lsa.linkStateID, lsa) == null) {
+          installed(lsa, now);
+          journal(LsaJournal.INSTALLED, lsa, neighborIP);
+          return true;
+        }
+        continue;
+      }
+      if (!isNewer(lsa, existingLsa, now)) {
+        return false;
+      }
+      if (purge) {
+        // Our own LSA is refreshed long before it could age out anywhere
+        if (lsa.linkStateID.equals(rd.simulatedIPAddress)) {
+          return false;
+        }
+        if (_store.remove(lsa.linkStateID, existingLsa)) {
+          previous.remove(lsa.linkStateID);
+          purged.increment();
+          routingTable.invalidate();
+          lastChangeNanos = now;
+          journal(LsaJournal.PURGED, lsa, neighborIP);
           return true;
         }
-      } else {
-        // Add the LSA if it does not exist
-        _store.put(lsa.linkStateID, lsa);
+      } else if (_store.replace(lsa.linkStateID, existingLsa, lsa)) {
+        replacing(existingLsa, lsa);
+        installed(lsa, now);
+        journal(LsaJournal.INSTALLED, lsa, neighborIP);
         return true;
       }
-      return false;
+      // Another thread stored a different LSA in between, compare against that one
+    }
+  }
+
+  /**
+   * @param delta LSA received as a delta
+   * @return the full LSA, the copy in the database if it is already as new as the delta, or
+   *     null if the database holds neither that copy nor the base of the delta and the full LSA
+   *     has to be requested
+   */
+  public LSA expand(LSA delta) {
+    LSA existing = _store.get(delta.linkStateID);
+    if (existing != null && existing.lsaSeqNumber >= delta.lsaSeqNumber) {
+      return existing;
+    }
+    if (existing == null || existing.lsaSeqNumber != delta.baseSeqNumber) {
+      return null;
+    }
+    return delta.applyTo(existing);
+  }
+
+  /**
+   * @param lsa            full LSA about to be sent
+   * @param neighborSeqNum sequence number of the copy the neighbor holds, if known
+   * @return the changes since the previous LSA of the same router, if delta LSAs are on, the
+   *     neighbor holds that previous LSA and the delta is smaller on the wire, otherwise lsa
+   */
+  public LSA deltaOf(LSA lsa, Integer neighborSeqNum) {
+    if (!deltaLSAs || lsa.isDelta() || neighborSeqNum == null
+        || neighborSeqNum != lsa.lsaSeqNumber - 1
+        || lsa.isMaxAge(maxAge, System.nanoTime())) {
+      return lsa;
+    }
+    LSA base = previous.get(lsa.linkStateID);
+    if (base == null || base.lsaSeqNumber + 1 != lsa.lsaSeqNumber) {
+      return lsa;
+    }
+    Delta cached = deltas.get(lsa.linkStateID);
+    if (cached == null || cached.full != lsa || cached.base != base) {
+      cached = new Delta(base, lsa, LSA.delta(base, lsa));
+      deltas.put(lsa.linkStateID, cached);
+    }
+    return cached.delta.encodedSize() < lsa.encodedSize() ? cached.delta : lsa;
+  }
+
+  /**
+   * @param deltaLSAs true to flood the changes of an LSA rather than the whole LSA when the
+   *                  previous one is known, see {@link #deltaOf}
+   */
+  public void setDeltaLSAs(boolean deltaLSAs) {
+    this.deltaLSAs = deltaLSAs;
+  }
+
+  public boolean isDeltaLSAs() {
+    return deltaLSAs;
+  }
+
+  /**
+   * Remember the LSA being replaced as the base of the next delta
+   *
+   * @return next
+   */
+  private LSA replacing(LSA current, LSA next) {
+    if (!deltaLSAs) {
+      return next;
+    }
+    if (next.lsaSeqNumber == current.lsaSeqNumber + 1) {
+      previous.put(next.linkStateID, current);
+    } else if (next.lsaSeqNumber != current.lsaSeqNumber) {
+      previous.remove(next.linkStateID);
+    }
+    return next;
+  }
+
+  private static final class Delta {
+    final LSA base;
+    final LSA full;
+    final LSA delta;
+
+    Delta(LSA base, LSA full, LSA delta) {
+      this.base = base;
+      this.full = full;
+      this.delta = delta;
+    }
+  }
+
+  /**
+   * @param journal to record every LSA installed or purged from now on, null to stop
+   */
+  public void setJournal(LsaJournal journal) {
+    this.journal = journal;
+  }
+
+  private void journal(byte type, LSA lsa, String neighborIP) {
+    LsaJournal journal = this.journal;
+    if (journal != null) {
+      journal.record(type, lsa, neighborIP);
+    }
+  }
+
+  private boolean isNewer(LSA lsa, LSA existing, long nowNanos) {
+    if (lsa.lsaSeqNumber != existing.lsaSeqNumber) {
+      return lsa.lsaSeqNumber > existing.lsaSeqNumber;
+    }
+    // Same instance, a copy at max age is its purge
+    return lsa.isMaxAge(maxAge, nowNanos) && !existing.isMaxAge(maxAge, nowNanos);
+  }
+
+  private void installed(LSA lsa, long nowNanos) {
+    routingTable.invalidate(lsa.linkStateID);
+    lastChangeNanos = nowNanos;
+    if (!lsa.linkStateID.equals(rd.simulatedIPAddress)) {
+      expiry.schedule(lsa.linkStateID, expiryOf(lsa));
+    }
+  }
+
+  private long expiryOf(LSA lsa) {
+    return lsa.stampNanos + TimeUnit.SECONDS.toNanos(maxAge - lsa.age);
+  }
+
+  /**
+   * Purge the LSAs that reached max age and refresh our own LSA once it is old enough. Only the
+   * LSAs expiring since the previous sweep are looked at.
+   *
+   * @param nowNanos       System.nanoTime()
+   * @param refreshSeconds age at which our own LSA is originated again, below the max age
+   * @return LSAs to flood: a max age copy of every purged LSA, then our refreshed LSA
+   */
+  public List<LSA> sweep(long nowNanos, int refreshSeconds) {
+    List<LSA> flood = new ArrayList<>();
+    for (String id : expiry.due(nowNanos)) {
+      LSA lsa = _store.get(id);
+      if (lsa == null) {
+        continue;
+      }
+      if (!lsa.isMaxAge(maxAge, nowNanos)) {
+        // Refreshed since, or the expiry falls later in the same second: check again later
+        expiry.schedule(id, expiryOf(lsa));
+        continue;
+      }
+      if (_store.remove(id, lsa)) {
+        previous.remove(id);
+        purged.increment();
+        LSA purge = lsa.withAge(maxAge, nowNanos);
+        journal(LsaJournal.PURGED, purge, null);
+        flood.add(purge);
+      }
+    }
+    if (!flood.isEmpty()) {
+      // Routers disappear from the graph, that is a job for a full SPF
+      routingTable.invalidate();
+      lastChangeNanos = nowNanos;
     }
+
+    if (_store.get(rd.simulatedIPAddress).currentAge(nowNanos) >= refreshSeconds) {
+      // Same links with a new sequence number and age 0, the routes do not change
+      LSA refreshed = _store.compute(rd.simulatedIPAddress,
+          (id, current) -> replacing(current, current.next(current.links)));
+      journal(LsaJournal.INSTALLED, refreshed, null);
+      flood.add(refreshed);
+    }
+    return flood;
+  }
+
+  /**
+   * @return header of every LSA in the database, for a database description
+   */
+  public List<LSA> headers() {
+    List<LSA> headers = new ArrayList<>(_store.size());
+    for (LSA lsa : _store.values()) {
+      headers.add(lsa.header());
+    }
+    return headers;
+  }
+
+  /**
+   * Compare a neighbor's database description with this database
+   *
+   * @param headers of the LSAs in the neighbor's database
+   * @return the headers of the LSAs the neighbor has and this database lacks or holds an older
+   *     copy of
+   */
+  public List<LSA> missing(Collection<LSA> headers) {
+    long now = System.nanoTime();
+    List<LSA> missing = new ArrayList<>();
+    for (LSA header : headers) {
+      // Being purged, the flood of the purge takes care of it
+      if (header.isMaxAge(maxAge, now)) {
+        continue;
+      }
+      LSA existing = _store.get(header.linkStateID);
+      if (existing == null || header.lsaSeqNumber > existing.lsaSeqNumber) {
+        missing.add(header);
+      }
+    }
+    return missing;
+  }
+
+  /**
+   * @return seconds after which an LSA that was not refreshed is purged
+   */
+  public int getMaxAge() {
+    return maxAge;
+  }
+
+  /**
+   * @return number of LSAs purged because they reached max age, here or at another router
+   */
+  public long purged() {
+    return purged.sum();
   }
    
+  /**
+   * Add a link to the LSA of this router
+   *
+   * @param ld          link to add
+   * @param newSequence true to bump the sequence number so neighbors accept the change
+   */
+  public void addLocalLink(LinkDescription ld, boolean newSequence) {
+    LSA added = _store.compute(rd.simulatedIPAddress, (id, lsa) -> {
+      List<LinkDescription> links = new ArrayList<>(lsa.links.size() + 1);
+      for (LinkDescription current : lsa.links) {
+        // Restored links to routers are dropped, the router links them again as it attaches
+        if (!provisional || current.isPrefix() || current.linkID.equals(id)) {
+          links.add(current);
+        }
+      }
+      links.add(ld);
+      // The restored LSA may share its sequence number with the one we flooded on quit
+      boolean bump = newSequence || provisional;
+      return replacing(lsa, new LSA(id, bump ? lsa.lsaSeqNumber + 1 : lsa.lsaSeqNumber, links));
+    });
+    provisional = false;
+    journal(LsaJournal.INSTALLED, added, null);
+    routingTable.invalidate(rd.simulatedIPAddress);
+    localChange();
+  }
+
+  /**
+   * Replace the links of this router's LSA and bump its sequence number. Advertised prefixes
+   * are kept.
+   *
+   * @param links new links of this router to other routers
+   * @return the updated LSA of this router
+   */
+  public LSA updateLocalLinks(List<LinkDescription> links) {
+    LSA lsa = _store.compute(rd.simulatedIPAddress, (id, current) -> {
+      List<LinkDescription> updated = new ArrayList<>(links);
+      for (LinkDescription ld : current.links) {
+        if (ld.isPrefix()) {
+          updated.add(ld);
+        }
+      }
+      return replacing(current, current.next(updated));
+    });
+    provisional = false;
+    journal(LsaJournal.INSTALLED, lsa, null);
+    routingTable.invalidate(rd.simulatedIPAddress);
+    localChange();
+    return lsa;
+  }
+
+  private void localChange() {
+    long now = System.nanoTime();
+    lastLocalChangeNanos = now;
+    lastChangeNanos = now;
+    changedLocally = true;
+  }
+
+  /**
+   * Time from the last change of this router's own links to the last LSA accepted since. Once
+   * the network settled, it is how long the change took to converge as seen from here.
+   *
+   * @return nanoseconds, -1 if the links of this router never changed
+   */
+  public long convergenceNanos() {
+    if (!changedLocally) {
+      return -1;
+    }
+    return Math.max(0, lastChangeNanos - lastLocalChangeNanos);
+  }
+
+  /**
+   * @return number of LSAs in the database, this router's own included
+   */
+  public int size() {
+    return _store.size();
+  }
+
   public String toString() {
     StringBuilder sb = new StringBuilder();
     for (LSA lsa: _store.values()) {
-      sb.append(lsa.linkStateID).append("(" + lsa.lsaSeqNumber + ")").append(":\t");
+      sb.append(lsa.linkStateID).append("(" + lsa.lsaSeqNumber + ", age ")
+          .append(lsa.currentAge(System.nanoTime())).append("s)").append(":\t");
       for (LinkDescription ld : lsa.links) {
-        sb.append(ld.linkID).append(",").append(ld.portNum).append("\t");
+        sb.append(ld).append("\t");
       }
       sb.append("\n");
     }
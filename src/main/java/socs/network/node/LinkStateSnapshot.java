@@ -0,0 +1,109 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import socs.network.message.IPAddresses;
+import socs.network.message.LSA;
+
+/**
+ * Copy of a link state database on disk, so that a restarted router routes with the topology
+ * it knew instead of an empty database. The file is a header (magic, version, wall clock time
+ * of the write, simulated IP of the router, LSA count) followed by every LSA in wire format.
+ * It is written to a temporary file first and moved over the previous snapshot, so a crash
+ * while writing leaves the previous one intact.
+ */
+final class LinkStateSnapshot {
+  private static final int MAGIC = 0x4C534442;
+  private static final short VERSION = 1;
+  private static final int HEADER_SIZE = 4 + 2 + 8 + 4 + 4;
+
+  private LinkStateSnapshot() {
+  }
+
+  /**
+   * @param path     of the snapshot, replaced if it exists
+   * @param routerIP simulated IP of the router the database belongs to
+   * @param lsas     whole LSAs, written with their current age
+   */
+  static void write(Path path, String routerIP, Collection<LSA> lsas) throws IOException {
+    // The database may change while it is written, the count is that of the LSAs copied
+    List<LSA> copy = new ArrayList<>(lsas);
+    int size = HEADER_SIZE;
+    for (LSA lsa : copy) {
+      size += lsa.encodedSize();
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putLong(System.currentTimeMillis());
+    buffer.putInt(IPAddresses.pack(routerIP));
+    buffer.putInt(copy.size());
+    for (LSA lsa : copy) {
+      lsa.encode(buffer);
+    }
+    buffer.flip();
+
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+    }
+    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @param path     of the snapshot
+   * @param routerIP simulated IP of the router loading it, it must be the one that wrote it
+   * @return the LSAs of the snapshot, aged by the time since it was written
+   * @throws IOException if the file cannot be read, is not a snapshot or belongs to another
+   *                     router
+   */
+  static List<LSA> read(Path path, String routerIP) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException(path + " is not a link state snapshot");
+      }
+      short version = buffer.getShort();
+      if (version != VERSION) {
+        throw new IOException("Unsupported snapshot version " + version);
+      }
+      long writtenMillis = buffer.getLong();
+      String owner = IPAddresses.unpack(buffer.getInt());
+      if (!owner.equals(routerIP)) {
+        throw new IOException("Snapshot belongs to router " + owner);
+      }
+      int count = buffer.getInt();
+      long elapsed = TimeUnit.MILLISECONDS.toSeconds(
+          Math.max(0, System.currentTimeMillis() - writtenMillis));
+      long now = System.nanoTime();
+      List<LSA> lsas = new ArrayList<>(Math.min(count, buffer.remaining() / 13));
+      for (int i = 0; i < count; i++) {
+        LSA lsa = LSA.decode(buffer);
+        lsas.add(lsa.withAge((int) Math.min(LSA.MAX_ENCODED_AGE, lsa.age + elapsed), now));
+      }
+      return lsas;
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Truncated or corrupt snapshot " + path, e);
+    }
+  }
+}
@@ -0,0 +1,308 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import socs.network.message.IPAddresses;
+import socs.network.message.LSA;
+
+/**
+ * Append-only journal of the LSAs a link state database accepted, for post-mortems and for
+ * replaying real churn, see {@link socs.network.sim.JournalReplay}.
+ * <p/>
+ * {@link #record} only queues the event, a writer thread appends the queued events in batches,
+ * so the receive path never waits for the disk; events arriving while the queue is full are
+ * dropped and counted. The journal is a directory of numbered segments, a new one is started
+ * once the current one reaches the segment size and the oldest are deleted beyond the segment
+ * count. A segment is a header (magic, version, simulated IP of the router) followed by
+ * records: length, wall clock time, neighbor the LSA came from, event type and the LSA in wire
+ * format.
+ */
+public class LsaJournal implements AutoCloseable {
+  // the LSA was installed in the database
+  public static final byte INSTALLED = 0;
+  // the LSA reached max age, here or at another router, and was removed from the database
+  public static final byte PURGED = 1;
+
+  static final long DEFAULT_SEGMENT_BYTES = 16L << 20;
+  static final int DEFAULT_SEGMENTS = 8;
+
+  private static final int MAGIC = 0x4C534A31;
+  private static final short VERSION = 1;
+  private static final int SEGMENT_HEADER_SIZE = 4 + 2 + 4;
+  // record length, time, neighbor and type
+  private static final int RECORD_HEADER_SIZE = 4 + 8 + 4 + 1;
+  private static final String SUFFIX = ".lsj";
+  // events waiting for the writer
+  private static final int QUEUE_CAPACITY = 1 << 16;
+  // longest an event waits in the queue while the router is idle
+  private static final long FLUSH_INTERVAL_MS = 100;
+
+  private final Path directory;
+  private final String routerIP;
+  private final long segmentBytes;
+  private final int segments;
+  private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread writer;
+  private volatile boolean closed;
+
+  // owned by the writer thread
+  private FileChannel channel;
+  private long segmentNumber;
+  private long segmentSize;
+
+  /**
+   * Open a journal, continuing after the last segment already in the directory
+   *
+   * @param directory    of the segments, created if needed
+   * @param routerIP     simulated IP of the router whose database is journaled
+   * @param segmentBytes size after which a new segment is started
+   * @param segments     number of segments kept, the oldest are deleted
+   */
+  public LsaJournal(Path directory, String routerIP, long segmentBytes, int segments)
+      throws IOException {
+    if (segmentBytes < SEGMENT_HEADER_SIZE || segments < 1) {
+      throw new IllegalArgumentException("Segments must hold a header and at least one be kept");
+    }
+    this.directory = directory;
+    this.routerIP = routerIP;
+    this.segmentBytes = segmentBytes;
+    this.segments = segments;
+    Files.createDirectories(directory);
+    List<Path> existing = segments(directory);
+    segmentNumber = existing.isEmpty() ? 0 : number(existing.get(existing.size() - 1));
+    rotate();
+    writer = new Thread(this::run, "journal-" + routerIP);
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Queue an event, never blocks
+   *
+   * @param type       INSTALLED or PURGED
+   * @param lsa        whole LSA, with its age when the event happened
+   * @param neighborIP simulated IP of the neighbor the LSA came from, null if it originated or
+   *                   aged out here
+   */
+  public void record(byte type, LSA lsa, String neighborIP) {
+    if (closed || !queue.offer(new Entry(System.currentTimeMillis(), neighborIP, type, lsa))) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * @return events lost because the writer fell behind or failed
+   */
+  public long dropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Write the queued events and close the current segment
+   */
+  @Override
+  public void close() {
+    // Not interrupted, an interrupt during a write would close the segment under the writer
+    closed = true;
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    List<Entry> batch = new ArrayList<>();
+    try {
+      while (!closed || !queue.isEmpty()) {
+        Entry first = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch);
+        append(batch);
+        batch.clear();
+      }
+    } catch (IOException | InterruptedException e) {
+      System.err.println("Journal " + directory + " failed: " + e.getMessage());
+      closed = true;
+      dropped.addAndGet(batch.size() + queue.size());
+      queue.clear();
+    } finally {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        System.err.println("Failed to close journal segment: " + e.getMessage());
+      }
+    }
+  }
+
+  private void append(List<Entry> batch) throws IOException {
+    int size = 0;
+    for (Entry entry : batch) {
+      size += RECORD_HEADER_SIZE + entry.lsa.encodedSize();
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    for (Entry entry : batch) {
+      long filled = segmentSize + buffer.position();
+      if (filled >= segmentBytes && filled > SEGMENT_HEADER_SIZE) {
+        write(buffer);
+        rotate();
+      }
+      buffer.putInt(RECORD_HEADER_SIZE - 4 + entry.lsa.encodedSize());
+      buffer.putLong(entry.timeMillis);
+      buffer.putInt(entry.neighborIP == null ? 0 : IPAddresses.pack(entry.neighborIP));
+      buffer.put(entry.type);
+      entry.lsa.encode(buffer);
+    }
+    write(buffer);
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    segmentSize += buffer.remaining();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Start the next segment and delete the ones beyond the count kept
+   */
+  private void rotate() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+    segmentNumber++;
+    channel = FileChannel.open(directory.resolve(String.format("%012d%s", segmentNumber, SUFFIX)),
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+    header.putInt(MAGIC);
+    header.putShort(VERSION);
+    header.putInt(IPAddresses.pack(routerIP));
+    header.flip();
+    while (header.hasRemaining()) {
+      channel.write(header);
+    }
+    segmentSize = SEGMENT_HEADER_SIZE;
+
+    List<Path> existing = segments(directory);
+    for (int i = 0; i < existing.size() - segments; i++) {
+      Files.deleteIfExists(existing.get(i));
+    }
+  }
+
+  /**
+   * @return segments of the journal in the directory, oldest first
+   */
+  public static List<Path> segments(Path directory) throws IOException {
+    List<Path> segments = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path path : stream) {
+        segments.add(path);
+      }
+    }
+    // Fixed width numbers, the names sort in segment order
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private static long number(Path segment) {
+    String name = segment.getFileName().toString();
+    return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+  }
+
+  /**
+   * @param segment one of {@link #segments}
+   * @return simulated IP of the router whose database was journaled in the segment
+   * @throws IOException if the segment cannot be read or is not a journal segment
+   */
+  public static String owner(Path segment) throws IOException {
+    return IPAddresses.unpack(map(segment).getInt());
+  }
+
+  /**
+   * @return the segment mapped and positioned after the magic and version
+   */
+  private static MappedByteBuffer map(Path segment) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.remaining() < SEGMENT_HEADER_SIZE || buffer.getInt() != MAGIC
+        || buffer.getShort() != VERSION) {
+      throw new IOException(segment + " is not a journal segment");
+    }
+    return buffer;
+  }
+
+  /**
+   * Read the events of a segment in order. A record cut short, by a crash while it was
+   * written, ends the segment.
+   *
+   * @param segment  one of {@link #segments}
+   * @param consumer of every event
+   * @throws IOException if the segment cannot be read or is not a journal segment
+   */
+  public static void read(Path segment, Consumer<Entry> consumer) throws IOException {
+    MappedByteBuffer buffer = map(segment);
+    // Owner
+    buffer.getInt();
+    while (buffer.remaining() >= 4) {
+      int length = buffer.getInt();
+      if (length < RECORD_HEADER_SIZE - 4 || length > buffer.remaining()) {
+        break;
+      }
+      ByteBuffer record = buffer.slice(buffer.position(), length);
+      buffer.position(buffer.position() + length);
+      try {
+        long time = record.getLong();
+        int neighbor = record.getInt();
+        byte type = record.get();
+        LSA lsa = LSA.decode(record);
+        consumer.accept(new Entry(time, neighbor == 0 ? null : IPAddresses.unpack(neighbor),
+            type, lsa));
+      } catch (BufferUnderflowException | IllegalArgumentException e) {
+        throw new IOException("Corrupt record in " + segment, e);
+      }
+    }
+  }
+
+  /**
+   * One event of the journal
+   */
+  public static final class Entry {
+    // System.currentTimeMillis() when the event happened
+    public final long timeMillis;
+    // neighbor the LSA came from, null if it originated or aged out at the router
+    public final String neighborIP;
+    public final byte type;
+    public final LSA lsa;
+
+    Entry(long timeMillis, String neighborIP, byte type, LSA lsa) {
+      this.timeMillis = timeMillis;
+      this.neighborIP = neighborIP;
+      this.type = type;
+      this.lsa = lsa;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import socs.network.message.SOSPFPacket;
+import socs.network.util.SerialExecutor;
+
+/**
+ * Transport inside a single JVM, for simulations with many routers. Ports are only keys in a
+ * shared table and connections are pairs of in-memory channels. Packets still go through the
+ * binary codec, so byte counts and decoding match the socket transport.
+ */
+public class MemoryTransport implements Transport {
+
+  private final ConcurrentHashMap<Short, PacketHandler> listeners = new ConcurrentHashMap<>();
+  private final ExecutorService workers;
+  private final ScheduledExecutorService timers;
+  private final AtomicLong packetsSent = new AtomicLong();
+  private final AtomicLong bytesSent = new AtomicLong();
+
+  /**
+   * @param workerThreads number of threads running packet handlers, shared by every router
+   */
+  public MemoryTransport(int workerThreads) {
+    this(ExecutionMode.PLATFORM, workerThreads);
+  }
+
+  /**
+   * @param mode          of the threads running packet handlers
+   * @param workerThreads number of platform threads running packet handlers
+   */
+  public MemoryTransport(ExecutionMode mode, int workerThreads) {
+    workers = mode.newWorkers("sospf-memory-worker", workerThreads);
+    timers = Executors.newSingleThreadScheduledExecutor(
+        PacketReactor.namedThreads("sospf-memory-timer"));
+  }
+
+  @Override
+  public void listen(short port, PacketHandler handler) throws IOException {
+    if (listeners.putIfAbsent(port, handler) != null) {
+      throw new BindException("Port " + port + " already in use");
+    }
+  }
+
+  @Override
+  public NeighborChannel connect(String processIP, short processPort, PacketHandler handler)
+      throws IOException {
+    PacketHandler remote = listeners.get(processPort);
+    if (remote == null) {
+      throw new ConnectException("Connection refused: " + processIP + ":" + processPort);
+    }
+    MemoryChannel local = new MemoryChannel(handler);
+    MemoryChannel accepted = new MemoryChannel(remote);
+    local.peer = accepted;
+    accepted.peer = local;
+    return local;
+  }
+
+  @Override
+  public ExecutorService workers() {
+    return workers;
+  }
+
+  @Override
+  public ScheduledExecutorService timers() {
+    return timers;
+  }
+
+  @Override
+  public long packetsSent() {
+    return packetsSent.get();
+  }
+
+  @Override
+  public long bytesSent() {
+    return bytesSent.get();
+  }
+
+  @Override
+  public void close() {
+    workers.shutdown();
+    timers.shutdown();
+  }
+
+  /**
+   * One end of an in-memory connection. Sending runs the peer's handler on the shared workers,
+   * through a serial executor so that the packets of a connection stay ordered.
+   */
+  private class MemoryChannel extends NeighborChannel {
+    private final PacketHandler handler;
+    private final SerialExecutor inbound = new SerialExecutor(workers);
+    private MemoryChannel peer;
+    private volatile boolean closed;
+
+    MemoryChannel(PacketHandler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void send(SOSPFPacket packet) throws IOException {
+      if (closed) {
+        throw new IOException("Channel closed");
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(packet.encodedSize());
+      packet.encode(buffer);
+      buffer.flip();
+      packetsSent.incrementAndGet();
+      // Same framing overhead as on a socket
+      bytesSent.addAndGet(4 + buffer.remaining());
+      MemoryChannel receiver = peer;
+      receiver.inbound.execute(() -> receiver.deliver(buffer));
+    }
+
+    private void deliver(ByteBuffer buffer) {
+      // Packets sent before the connection closed are still delivered
+      try {
+        handler.onPacket(this, SOSPFPacket.decode(buffer));
+      } catch (IOException e) {
+        System.err.println("Dropping malformed packet: " + e.getMessage());
+      } catch (RuntimeException e) {
+        System.err.println("Packet handler failed: " + e.getMessage());
+        e.printStackTrace();
+      }
+    }
+
+    @Override
+    public void shutdown(long timeoutMillis) {
+      // Everything sent so far is queued ahead of this marker
+      CountDownLatch drained = new CountDownLatch(1);
+      peer.inbound.execute(drained::countDown);
+      try {
+        drained.await(timeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      close();
+    }
+
+    @Override
+    public boolean isClosed() {
+      return closed;
+    }
+
+    @Override
+    public void close() {
+      // Like a socket, the remote end sees the connection go away too
+      closed = true;
+      peer.closed = true;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package socs.network.node;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import socs.network.message.SOSPFPacket;
+
+/**
+ * Long-lived, bidirectional connection to a neighbor, created by a {@link Transport}. The same
+ * channel carries the HELLO handshake and every later LSA update; packets arriving on it are
+ * handed to its {@link PacketHandler} in order.
+ */
+public abstract class NeighborChannel implements Closeable {
+
+  /**
+   * Queue one packet, safe to call from several threads. The call does not wait for the remote
+   * end to read it.
+   *
+   * @param packet to send
+   * @throws IOException if the channel is closed or broken
+   */
+  public abstract void send(SOSPFPacket packet) throws IOException;
+
+  /**
+   * Deliver the packets already sent, then close the channel
+   *
+   * @param timeoutMillis upper bound on the time spent waiting
+   */
+  public abstract void shutdown(long timeoutMillis);
+
+  public abstract boolean isClosed();
+
+  @Override
+  public abstract void close();
+}
@@ -0,0 +1,16 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFPacket;
+
+/**
+ * Receives the packets decoded by the {@link PacketReactor}. Calls for one channel are made in
+ * arrival order and never concurrently.
+ */
+public interface PacketHandler {
+
+  /**
+   * @param channel the packet arrived on, can be used to answer
+   * @param packet  decoded packet
+   */
+  void onPacket(NeighborChannel channel, SOSPFPacket packet);
+}
@@ -0,0 +1,233 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import socs.network.util.SerialExecutor;
+
+/**
+ * Socket transport: a single selector thread that owns the listening ports and every neighbor
+ * connection. Complete frames are handed to a fixed pool of worker threads, so the number of
+ * threads does not depend on how many neighbors there are or how fast packets arrive. Several
+ * routers of the same process can share one reactor by listening on different ports.
+ */
+public class PacketReactor implements Transport {
+
+  private final Selector selector;
+  private final ExecutorService workers;
+  // single thread running the delayed and periodic tasks of the router
+  private final ScheduledExecutorService timers;
+  // work that must run on the selector thread (registrations, interest changes)
+  private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+  private final Thread selectorThread;
+  private volatile boolean running = true;
+  private final AtomicLong packetsSent = new AtomicLong();
+  private final AtomicLong bytesSent = new AtomicLong();
+
+  /**
+   * @param workerThreads number of threads running packet handlers
+   * @throws IOException if the selector cannot be opened
+   */
+  public PacketReactor(int workerThreads) throws IOException {
+    this(ExecutionMode.PLATFORM, workerThreads);
+  }
+
+  /**
+   * @param mode          of the threads running packet handlers
+   * @param workerThreads number of platform threads running packet handlers
+   * @throws IOException if the selector cannot be opened
+   */
+  public PacketReactor(ExecutionMode mode, int workerThreads) throws IOException {
+    selector = Selector.open();
+    workers = mode.newWorkers("sospf-worker", workerThreads);
+    timers = Executors.newSingleThreadScheduledExecutor(namedThreads("sospf-timer"));
+    selectorThread = new Thread(this::run, "sospf-reactor");
+    selectorThread.setDaemon(true);
+    selectorThread.start();
+  }
+
+  /**
+   * Accept connections on the given port, every accepted connection delivers to handler
+   *
+   * @param port    to bind to
+   * @param handler receiving the packets of accepted connections
+   * @throws IOException if the port cannot be bound
+   */
+  @Override
+  public void listen(short port, PacketHandler handler) throws IOException {
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(port));
+    server.configureBlocking(false);
+    submit(() -> {
+      try {
+        server.register(selector, SelectionKey.OP_ACCEPT, handler);
+      } catch (IOException e) {
+        System.err.println("Server exception: " + e.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Open a new channel to the router listening on the given process address. Blocks until the
+   * TCP connection is established.
+   *
+   * @param processIP   of the remote router
+   * @param processPort of the remote router
+   * @param handler     receiving the packets sent back on this connection
+   * @return connected channel
+   * @throws IOException if the connection cannot be established
+   */
+  @Override
+  public NeighborChannel connect(String processIP, short processPort, PacketHandler handler)
+      throws IOException {
+    SocketChannel socket = SocketChannel.open(new InetSocketAddress(processIP, processPort));
+    return register(socket, handler);
+  }
+
+  @Override
+  public ExecutorService workers() {
+    return workers;
+  }
+
+  @Override
+  public ScheduledExecutorService timers() {
+    return timers;
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    selector.wakeup();
+    workers.shutdown();
+    timers.shutdown();
+  }
+
+  @Override
+  public long packetsSent() {
+    return packetsSent.get();
+  }
+
+  @Override
+  public long bytesSent() {
+    return bytesSent.get();
+  }
+
+  void countSent(int frameBytes) {
+    packetsSent.incrementAndGet();
+    bytesSent.addAndGet(frameBytes);
+  }
+
+  void requestWrite(SocketNeighborChannel channel) {
+    submit(() -> {
+      SelectionKey key = channel.key();
+      if (key != null && key.isValid()) {
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+      }
+    });
+  }
+
+  private SocketNeighborChannel register(SocketChannel socket, PacketHandler handler)
+      throws IOException {
+    socket.configureBlocking(false);
+    socket.socket().setTcpNoDelay(true);
+    SocketNeighborChannel channel = new SocketNeighborChannel(this, socket, handler,
+        new SerialExecutor(workers));
+    submit(() -> {
+      try {
+        channel.setKey(socket.register(selector, SelectionKey.OP_READ, channel));
+      } catch (IOException e) {
+        channel.close();
+      }
+    });
+    return channel;
+  }
+
+  private void submit(Runnable task) {
+    pending.add(task);
+    selector.wakeup();
+  }
+
+  private void run() {
+    try {
+      while (running) {
+        selector.select();
+
+        Runnable task;
+        while ((task = pending.poll()) != null) {
+          task.run();
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept(key);
+          } else {
+            handleIO(key);
+          }
+        }
+      }
+      selector.close();
+    } catch (IOException | ClosedSelectorException e) {
+      System.err.println("Reactor exception: " + e.getMessage());
+    }
+  }
+
+  private void accept(SelectionKey key) {
+    try {
+      SocketChannel socket = ((ServerSocketChannel) key.channel()).accept();
+      if (socket == null) {
+        return;
+      }
+      register(socket, (PacketHandler) key.attachment());
+    } catch (IOException e) {
+      System.err.println("Server exception: " + e.getMessage());
+    }
+  }
+
+  private void handleIO(SelectionKey key) {
+    SocketNeighborChannel channel = (SocketNeighborChannel) key.attachment();
+    try {
+      if (key.isReadable() && !channel.onReadable()) {
+        channel.close();
+        return;
+      }
+      if (key.isValid() && key.isWritable() && channel.onWritable()) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      }
+    } catch (IOException e) {
+      // Channels are closed on purpose on disconnect/reconnect, only report unexpected failures
+      if (!channel.isClosed()) {
+        System.err.println("Client exception: " + e.getMessage());
+      }
+      channel.close();
+    }
+  }
+
+  static ThreadFactory namedThreads(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,293 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import socs.network.message.LSA;
+import socs.network.message.SOSPFPacket;
+
+/**
+ * Makes flooding reliable. Every LSA sent to a neighbor in an update stays on the neighbor's
+ * retransmission list until the neighbor acknowledges it, and is sent again each retransmit
+ * interval, so an update lost to a failed connection is repaired instead of forgotten. Sending
+ * never waits for the acknowledgement.
+ * <p/>
+ * The interval is only a floor: a busy neighbor acknowledges late, and retransmitting to it on a
+ * fixed period would only add to its backlog. An LSA waits for twice the smoothed acknowledgement
+ * delay of its neighbor if that is longer, doubling with each attempt like TCP's timeout.
+ * <p/>
+ * Acknowledgements of received LSAs are delayed a little so that a single LSACK covers all the
+ * LSAs a neighbor sent in that time. A neighbor sending us an LSA we were about to retransmit to
+ * it acknowledges our copy implicitly.
+ */
+class RetransmissionScheduler {
+
+  /**
+   * Sends LSAs or LSA headers to one neighbor
+   */
+  interface Sender {
+    /**
+     * @param type LSAUPDATE or LSACK
+     * @return true if the packet was written
+     */
+    boolean send(Link link, short type, List<LSA> lsas);
+  }
+
+  private final ScheduledExecutorService timers;
+  private final long retransmitNanos;
+  private final long retransmitMillis;
+  private final long ackDelayMillis;
+  private final int maxAge;
+  private final Supplier<Iterable<Link>> neighbors;
+  private final Sender sender;
+
+  // links with acknowledgements waiting for the end of the delay
+  private final Map<Link, Boolean> ackPending = new ConcurrentHashMap<>();
+  private boolean ackFlushScheduled;
+  private ScheduledFuture<?> task;
+
+  // longest wait is the timeout doubled this many times
+  private static final int MAX_BACKOFF = 4;
+
+  private final AtomicLong retransmitted = new AtomicLong();
+  private final AtomicLong acksSent = new AtomicLong();
+  private final AtomicLong acksReceived = new AtomicLong();
+
+  /**
+   * @param timers           scheduler running retransmissions and delayed acknowledgements
+   * @param retransmitMillis time an LSA waits for its acknowledgement before being sent again
+   * @param ackDelayMillis   time acknowledgements are collected before being sent, 0 to send
+   *                         them right away
+   * @param maxAge           of LSAs, a copy at max age is a purge and is acknowledged as such
+   * @param neighbors        current links
+   * @param sender           writing updates and acknowledgements
+   */
+  RetransmissionScheduler(ScheduledExecutorService timers, long retransmitMillis,
+      long ackDelayMillis, int maxAge, Supplier<Iterable<Link>> neighbors, Sender sender) {
+    if (retransmitMillis <= 0 || ackDelayMillis < 0 || ackDelayMillis >= retransmitMillis) {
+      throw new IllegalArgumentException(
+          "Retransmit interval must be positive and longer than the ack delay");
+    }
+    this.timers = timers;
+    this.retransmitMillis = retransmitMillis;
+    this.retransmitNanos = TimeUnit.MILLISECONDS.toNanos(retransmitMillis);
+    this.ackDelayMillis = ackDelayMillis;
+    this.maxAge = maxAge;
+    this.neighbors = neighbors;
+    this.sender = sender;
+  }
+
+  /**
+   * An LSA on a retransmission list and when it was last sent
+   */
+  static final class Retransmission {
+    final LSA lsa;
+    volatile long sentNanos;
+    // times the LSA was sent again, an acknowledgement after a retransmission is not timed
+    volatile int attempts;
+
+    Retransmission(LSA lsa, long sentNanos) {
+      this.lsa = lsa;
+      this.sentNanos = sentNanos;
+    }
+  }
+
+  synchronized void start() {
+    if (task == null) {
+      task = timers.scheduleAtFixedRate(this::retransmit, retransmitMillis, retransmitMillis,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  synchronized void stop() {
+    if (task != null) {
+      task.cancel(false);
+      task = null;
+    }
+  }
+
+  /**
+   * Put LSAs on a neighbor's retransmission list, called before they are sent so that a failed
+   * send is retried too. An LSA replaces the older copy of the same originator.
+   */
+  void sending(Link link, Collection<LSA> lsas) {
+    long now = System.nanoTime();
+    for (LSA lsa : lsas) {
+      link.retransmissions.merge(lsa.linkStateID, new Retransmission(lsa, now),
+          (current, added) -> isNewer(current.lsa, added.lsa) ? current : added);
+    }
+  }
+
+  /**
+   * Take the acknowledged LSAs off a neighbor's retransmission list
+   *
+   * @param headers acknowledged by the neighbor
+   */
+  void acknowledged(Link link, Collection<LSA> headers) {
+    acksReceived.addAndGet(headers.size());
+    long now = System.nanoTime();
+    for (LSA header : headers) {
+      link.known.merge(header.linkStateID, header.lsaSeqNumber, Math::max);
+      Retransmission acked = removeAcknowledged(link, header);
+      if (acked != null && acked.attempts == 0) {
+        long sample = now - acked.sentNanos;
+        long smoothed = link.ackDelayNanos;
+        link.ackDelayNanos = smoothed == 0 ? sample : smoothed + (sample - smoothed) / 8;
+      }
+    }
+  }
+
+  /**
+   * @return the entry taken off the list, null if there was none or it is newer than the header
+   */
+  private Retransmission removeAcknowledged(Link link, LSA header) {
+    // Most received LSAs are not on the list, a read avoids locking the bin
+    Retransmission current = link.retransmissions.get(header.linkStateID);
+    if (current == null || isNewer(current.lsa, header)) {
+      return null;
+    }
+    Retransmission[] removed = new Retransmission[1];
+    link.retransmissions.computeIfPresent(header.linkStateID, (id, pending) -> {
+      if (isNewer(pending.lsa, header)) {
+        return pending;
+      }
+      removed[0] = pending;
+      return null;
+    });
+    return removed[0];
+  }
+
+  /**
+   * Acknowledge an LSA received from a neighbor, after the ack delay
+   */
+  void received(Link link, LSA lsa) {
+    // The neighbor has this copy, it does not need ours unless ours is newer
+    link.known.merge(lsa.linkStateID, lsa.lsaSeqNumber, Math::max);
+    removeAcknowledged(link, lsa);
+
+    boolean flushNow;
+    synchronized (link.pendingAcks) {
+      link.pendingAcks.add(lsa.header());
+    }
+    synchronized (this) {
+      ackPending.put(link, Boolean.TRUE);
+      flushNow = ackDelayMillis == 0;
+      if (!flushNow && !ackFlushScheduled) {
+        ackFlushScheduled = true;
+        timers.schedule(this::flushAcks, ackDelayMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+    if (flushNow) {
+      flushAcks();
+    }
+  }
+
+  /**
+   * Send every delayed acknowledgement now, one LSACK per neighbor
+   */
+  void flushAcks() {
+    synchronized (this) {
+      ackFlushScheduled = false;
+    }
+    for (Link link : new ArrayList<>(ackPending.keySet())) {
+      ackPending.remove(link);
+      List<LSA> acks;
+      synchronized (link.pendingAcks) {
+        if (link.pendingAcks.isEmpty()) {
+          continue;
+        }
+        acks = new ArrayList<>(link.pendingAcks);
+        link.pendingAcks.clear();
+      }
+      // A lost acknowledgement only costs a retransmission, which is acknowledged again
+      if (sender.send(link, SOSPFPacket.LSACK, acks)) {
+        acksSent.addAndGet(acks.size());
+      }
+    }
+  }
+
+  /**
+   * Send again every LSA that waited a whole interval for its acknowledgement, one update per
+   * neighbor. Runs on the timer thread, so it must not throw.
+   */
+  void retransmit() {
+    long now = System.nanoTime();
+    for (Link link : neighbors.get()) {
+      if (link.router2.status != RouterStatus.TWO_WAY || link.retransmissions.isEmpty()) {
+        continue;
+      }
+      long timeout = Math.max(retransmitNanos, 2 * link.ackDelayNanos);
+      List<LSA> due = new ArrayList<>();
+      for (Retransmission pending : link.retransmissions.values()) {
+        if (now - pending.sentNanos >= timeout << Math.min(pending.attempts, MAX_BACKOFF)) {
+          pending.sentNanos = now;
+          pending.attempts++;
+          due.add(pending.lsa);
+        }
+      }
+      if (due.isEmpty()) {
+        continue;
+      }
+      try {
+        if (sender.send(link, SOSPFPacket.LSAUPDATE, due)) {
+          retransmitted.addAndGet(due.size());
+        }
+      } catch (RuntimeException e) {
+        System.err.println("Failed to retransmit to " + link.router2.simulatedIPAddress + ": "
+            + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * @return true if a is a newer instance than b, a max age copy being newer than the same
+   *     instance before it
+   */
+  private boolean isNewer(LSA a, LSA b) {
+    if (a.lsaSeqNumber != b.lsaSeqNumber) {
+      return a.lsaSeqNumber > b.lsaSeqNumber;
+    }
+    long now = System.nanoTime();
+    return a.isMaxAge(maxAge, now) && !b.isMaxAge(maxAge, now);
+  }
+
+  /**
+   * @return number of LSAs sent again because no acknowledgement came
+   */
+  long retransmitted() {
+    return retransmitted.get();
+  }
+
+  /**
+   * @return number of LSAs we acknowledged
+   */
+  long acksSent() {
+    return acksSent.get();
+  }
+
+  /**
+   * @return number of LSAs neighbors acknowledged
+   */
+  long acksReceived() {
+    return acksReceived.get();
+  }
+
+  /**
+   * @return LSAs sent to the current neighbors and not acknowledged yet
+   */
+  int unacknowledged() {
+    int count = 0;
+    for (Link link : neighbors.get()) {
+      count += link.retransmissions.size();
+    }
+    return count;
+  }
+}
@@ -3,16 +3,28 @@ package socs.network.node;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.sound.midi.Soundbank;
 
+import socs.network.message.IPAddresses;
 import socs.network.message.LSA;
 import socs.network.message.LinkDescription;
 import socs.network.message.SOSPFPacket;
@@ -20,67 +32,518 @@ import socs.network.util.Configuration;
 
 public class Router {
 
+  // how long to wait for the other side of a HELLO handshake
+  private static final int HANDSHAKE_TIMEOUT_MS = 5000;
+  // how long quit waits for each neighbor to drain the final LSA
+  private static final int QUIT_FLUSH_TIMEOUT_MS = 1000;
+  // threads running packet handlers, independent of the number of neighbors
+  private static final int WORKER_THREADS = 4;
+  // how long LSAs are collected before being flooded, unless set in the configuration
+  private static final long DEFAULT_FLOOD_WINDOW_MS = 50;
+  // keepalive HELLO period and silence after which a neighbor is dead, unless configured
+  private static final long DEFAULT_HELLO_INTERVAL_MS = 2000;
+  private static final long DEFAULT_DEAD_INTERVAL_MS = 8000;
+  // time an LSA waits for its acknowledgement before being sent again, unless configured
+  private static final long DEFAULT_RETRANSMIT_INTERVAL_MS = 5000;
+  // time acknowledgements are collected to go out in one LSACK, unless configured
+  private static final long DEFAULT_ACK_DELAY_MS = 500;
+  // how often LSA ages are checked
+  private static final long AGING_INTERVAL_MS = 1000;
+  // how often the database is written to the snapshot file, unless configured
+  private static final int DEFAULT_SNAPSHOT_INTERVAL_SEC = 60;
+  // length prefix of every frame, part of the bytes on the wire
+  private static final int FRAME_HEADER_SIZE = 4;
+  // defaults of the send command
+  private static final int DEFAULT_SEND_RATE = 100;
+  private static final int DEFAULT_PAYLOAD_BYTES = 64;
+
   protected LinkStateDatabase lsd;
   RouterDescription rd = new RouterDescription();
-  ServerThread serverSocket;
-  // assuming that all routers are with 4 ports
-  LinkDB ports = new LinkDB(4);
+  Transport transport;
+  // false when the transport is shared with other routers of the same process
+  private boolean ownsTransport;
+  FloodScheduler flooder;
+  RouterStats stats;
+  KeepaliveScheduler keepalives;
+  RetransmissionScheduler retransmitter;
+  // age at which our LSA is originated again, below the max age
+  private int lsaRefreshSeconds;
+  private ScheduledFuture<?> agingTask;
+  // file the database is restored from and written to, null if not configured
+  private Path snapshotPath;
+  private ScheduledFuture<?> snapshotTask;
+  // LSAs accepted by the database, null if not configured
+  private LsaJournal journal;
+  // commands of the terminal, scripts and the control socket run one at a time
+  final ReentrantLock commandLock = new ReentrantLock();
+  // batches of commands from other processes, null if not configured
+  private ControlServer controlServer;
+  private final ClientHandler handler = new ClientHandler();
+  // one link per port, socs.network.router.ports of them
+  LinkDB ports;
+  // destination simulated IP => flow of the send command waiting for its echoes
+  private final ConcurrentHashMap<String, TrafficGenerator> flows = new ConcurrentHashMap<>();
   private String _commands = null;
   private boolean started;
+  // no progress output, for simulations running many routers in one process
+  private boolean quiet;
 
   public Router(Configuration config) {
+    // Create the event loop owning the server socket and all neighbor connections
+    try {
+      ExecutionMode mode = config.hasPath("socs.network.router.executionMode")
+          ? ExecutionMode.parse(config.getString("socs.network.router.executionMode"))
+          : ExecutionMode.PLATFORM;
+      setUp(config, new PacketReactor(mode, WORKER_THREADS), true);
+    } catch (IllegalArgumentException | IOException e) {
+      e.printStackTrace();
+      System.exit(-1);
+    }
+  }
+
+  /**
+   * Router using a transport shared with other routers of the same process. The transport is
+   * left open when the router quits.
+   *
+   * @param config    of the router
+   * @param transport to listen and connect on
+   * @throws IOException if the router's port cannot be bound
+   */
+  public Router(Configuration config, Transport transport) throws IOException {
+    setUp(config, transport, false);
+  }
+
+  private void setUp(Configuration config, Transport transport, boolean ownsTransport)
+      throws IOException {
     started = false;
     rd.simulatedIPAddress = config.getString("socs.network.router.ip");
     rd.processPortNumber = Short.parseShort(config.getString("socs.network.router.port"));
-    lsd = new LinkStateDatabase(rd);
-    // Create serverSocket
+    quiet = config.hasPath("socs.network.router.quiet")
+        && config.getBoolean("socs.network.router.quiet");
+    int maxAge = config.hasPath("socs.network.router.lsaMaxAgeSec")
+        ? config.getInt("socs.network.router.lsaMaxAgeSec") : LSA.MAX_AGE;
+    lsaRefreshSeconds = config.hasPath("socs.network.router.lsaRefreshSec")
+        ? config.getInt("socs.network.router.lsaRefreshSec") : maxAge / 2;
+    if (lsaRefreshSeconds < 1 || lsaRefreshSeconds >= maxAge) {
+      throw new IllegalArgumentException("LSA refresh interval must be shorter than the max age");
+    }
+    lsd = new LinkStateDatabase(rd, maxAge);
+    lsd.setDeltaLSAs(config.hasPath("socs.network.router.deltaLSAs")
+        && config.getBoolean("socs.network.router.deltaLSAs"));
+    if (config.hasPath("socs.network.router.journal")) {
+      long segmentBytes = config.hasPath("socs.network.router.journalSegmentMB")
+          ? config.getInt("socs.network.router.journalSegmentMB") * (1L << 20)
+          : LsaJournal.DEFAULT_SEGMENT_BYTES;
+      int segments = config.hasPath("socs.network.router.journalSegments")
+          ? config.getInt("socs.network.router.journalSegments") : LsaJournal.DEFAULT_SEGMENTS;
+      journal = new LsaJournal(Paths.get(config.getString("socs.network.router.journal")),
+          rd.simulatedIPAddress, segmentBytes, segments);
+      lsd.setJournal(journal);
+    }
+    if (config.hasPath("socs.network.router.snapshot")) {
+      snapshotPath = Paths.get(config.getString("socs.network.router.snapshot"));
+      restoreSnapshot();
+    }
+    ports = new LinkDB(config.hasPath("socs.network.router.ports")
+        ? config.getInt("socs.network.router.ports") : LinkDB.DEFAULT_PORTS);
+    if (config.hasPath("socs.network.router.prefixes")) {
+      // e.g. "10.1.0.0/16, 10.2.0.0/24", advertised with the first LSA
+      for (String prefix : config.getString("socs.network.router.prefixes").split(",")) {
+        if (!prefix.trim().isEmpty()) {
+          lsd.advertisePrefix(LinkDescription.parsePrefix(prefix.trim(),
+              LinkDescription.DEFAULT_COST));
+        }
+      }
+    }
+    this.transport = transport;
+    this.ownsTransport = ownsTransport;
+    transport.listen(rd.processPortNumber, handler);
+    long floodWindow = config.hasPath("socs.network.router.floodWindowMs")
+        ? config.getInt("socs.network.router.floodWindowMs") : DEFAULT_FLOOD_WINDOW_MS;
+    flooder = new FloodScheduler(transport.timers(), floodWindow, () -> ports,
+        this::sendLSAToNeighbor);
+    long retransmitInterval = config.hasPath("socs.network.router.retransmitIntervalMs")
+        ? config.getInt("socs.network.router.retransmitIntervalMs")
+        : DEFAULT_RETRANSMIT_INTERVAL_MS;
+    long ackDelay = config.hasPath("socs.network.router.ackDelayMs")
+        ? config.getInt("socs.network.router.ackDelayMs") : DEFAULT_ACK_DELAY_MS;
+    retransmitter = new RetransmissionScheduler(transport.timers(), retransmitInterval, ackDelay,
+        maxAge, () -> ports, this::sendToNeighbor);
+    stats = new RouterStats(rd.simulatedIPAddress, lsd, flooder, retransmitter);
+    stats.register();
+    long helloInterval = config.hasPath("socs.network.router.helloIntervalMs")
+        ? config.getInt("socs.network.router.helloIntervalMs") : DEFAULT_HELLO_INTERVAL_MS;
+    long deadInterval = config.hasPath("socs.network.router.deadIntervalMs")
+        ? config.getInt("socs.network.router.deadIntervalMs") : DEFAULT_DEAD_INTERVAL_MS;
+    keepalives = new KeepaliveScheduler(transport.timers(), helloInterval, deadInterval,
+        () -> ports, this::sendKeepalive, this::processDeadNeighbor);
+    keepalives.start();
+    retransmitter.start();
+    agingTask = transport.timers().scheduleAtFixedRate(this::ageLinkStateDatabase,
+        AGING_INTERVAL_MS, AGING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    if (snapshotPath != null) {
+      int snapshotInterval = config.hasPath("socs.network.router.snapshotIntervalSec")
+          ? config.getInt("socs.network.router.snapshotIntervalSec")
+          : DEFAULT_SNAPSHOT_INTERVAL_SEC;
+      snapshotTask = transport.timers().scheduleAtFixedRate(this::saveSnapshot,
+          snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+    }
+    if (config.hasPath("socs.network.router.controlPort")) {
+      controlServer = new ControlServer(this, config.getInt("socs.network.router.controlPort"));
+      if (!quiet) {
+        System.out.println("control socket on 127.0.0.1:" + controlServer.getPort());
+      }
+    }
+  }
+
+  public String getSimulatedIP() {
+    return rd.simulatedIPAddress;
+  }
+
+  public short getProcessPort() {
+    return rd.processPortNumber;
+  }
+
+  public RouterStats getStats() {
+    return stats;
+  }
+
+  public LinkStateDatabase getLinkStateDatabase() {
+    return lsd;
+  }
+
+  /**
+   * @return port of the control socket, -1 if not configured
+   */
+  int getControlPort() {
+    return controlServer == null ? -1 : controlServer.getPort();
+  }
+
+  /**
+   * Attach a link without starting the handshake, see the attach command
+   *
+   * @return false if the link could not be added
+   */
+  public boolean attach(String processIP, short processPort, String simulatedIP, int cost) {
+    return processAttach(processIP, processPort, simulatedIP, cost);
+  }
+
+  /**
+   * Run the HELLO handshake with every attached neighbor and flood our LSA, see the start
+   * command
+   */
+  public void start() {
+    processStart();
+  }
+
+  /**
+   * @return the shortest paths to the destination, see the detect command
+   */
+  public String detect(String destinationIP) {
+    return lsd.getShortestPath(destinationIP);
+  }
+
+  /**
+   * Send DATA packets to a destination and wait for their echoes, see the send command
+   *
+   * @param destinationIP simulated IP of the destination
+   * @param packets       number of packets
+   * @param rate          packets per second, 0 for as fast as possible
+   * @param payloadBytes  size of each packet's payload
+   * @return throughput, latency and drops of the flow
+   * @throws IllegalStateException if a flow to the destination is already running
+   */
+  public TrafficGenerator.Report send(String destinationIP, int packets, int rate,
+      int payloadBytes) throws InterruptedException {
+    TrafficGenerator flow = new TrafficGenerator(rd.simulatedIPAddress, destinationIP, packets,
+        rate, payloadBytes, this::forward);
+    if (flows.putIfAbsent(destinationIP, flow) != null) {
+      throw new IllegalStateException("Already sending to " + destinationIP);
+    }
     try {
-      serverSocket = new ServerThread(rd.processPortNumber);
-      serverSocket.start();
-    } catch (NumberFormatException e) {
-      e.printStackTrace();
-      System.exit(-1);
+      return flow.run();
+    } finally {
+      flows.remove(destinationIP);
     }
   }
 
   /**
-   * Send LSA to neighbor represented in link, LSA is pregenerated as to avoid
-   * race conditions
+   * Advertise a prefix delivered by this router and flood the change, see the advertise command
+   *
+   * @param prefix in CIDR notation, e.g. 10.1.0.0/16
+   * @param cost   of reaching the prefix from this router
+   */
+  public void advertise(String prefix, int cost) {
+    lsd.advertisePrefix(LinkDescription.parsePrefix(prefix, cost));
+    sendLSAToNeighbors();
+  }
+
+  /**
+   * Remove the link on the given port and flood the change, see the disconnect command
+   */
+  public void disconnect(short portNumber) {
+    processDisconnect(portNumber);
+  }
+
+  /**
+   * Flood an empty LSA and close every link. Unlike the quit command the process keeps
+   * running.
+   */
+  public void quit() {
+    processQuit();
+  }
+
+  /**
+   * Send LSAs to neighbor represented in link, in a single update
    *
    * @param link representing neighbor to send to
-   * @param lsa  current state of Router's connections
-   */
-  private void sendLSAToNeighbor(Link link, LSA lsa) {
-    SOSPFPacket lsaUpdate = new SOSPFPacket();
-    lsaUpdate.srcProcessIP = rd.simulatedIPAddress;
-    lsaUpdate.srcProcessPort = rd.processPortNumber;
-    lsaUpdate.srcIP = rd.simulatedIPAddress;
-    lsaUpdate.dstIP = link.router2.simulatedIPAddress;
-    lsaUpdate.sospfType = 1;
-    lsaUpdate.routerID = rd.simulatedIPAddress;
-    lsaUpdate.neighborID = link.router2.simulatedIPAddress;
-    // Add all LSAs from the DB to the packet Vector
-    lsaUpdate.lsa = lsa;
-
-    // System.out.println("Sending LSA to " + link.router2.processIPAddress + " with process port " + link.router2.processPortNumber);
-
-    try (Socket socket = new Socket(link.router2.processIPAddress, link.router2.processPortNumber);){
-      ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-      out.writeObject(lsaUpdate);
-      out.flush();
-      out.close();
-      socket.close();
-    } catch (IOException e) {
+   * @param lsas to flood, collected by the {@link FloodScheduler}
+   * @return true if the update was written
+   */
+  private boolean sendLSAToNeighbor(Link link, List<LSA> lsas) {
+    List<LSA> currentLSAs = new ArrayList<>(lsas.size());
+    for (LSA lsa : lsas) {
+      // The database may have moved on since the LSA was queued, e.g. our own LSA after a new
+      // link, and a stale copy would tell the neighbor an older story
+      LSA current = lsd.getLSA(lsa.linkStateID);
+      currentLSAs.add(current != null ? current : lsa);
+    }
+
+    // Kept until acknowledged, a failed send is retried with the next retransmissions, which
+    // carry whole LSAs in case the neighbor missed the base of a delta
+    retransmitter.sending(link, currentLSAs);
+    List<LSA> wire = currentLSAs;
+    int deltas = 0;
+    if (lsd.isDeltaLSAs()) {
+      wire = new ArrayList<>(currentLSAs.size());
+      for (LSA lsa : currentLSAs) {
+        LSA delta = lsd.deltaOf(lsa, link.known.get(lsa.linkStateID));
+        if (delta.isDelta()) {
+          deltas++;
+        }
+        wire.add(delta);
+      }
+    }
+    if (!sendToNeighbor(link, SOSPFPacket.LSAUPDATE, wire)) {
       System.err.println("Failed to send LSA update to " + link.router2.simulatedIPAddress);
-      e.printStackTrace();
+      return false;
     }
+    // Counted once written, the retransmissions of a failed send carry whole LSAs
+    stats.deltasSent(deltas);
+    return true;
+  }
+
+  /**
+   * Send LSAs or LSA headers to a neighbor, in as many packets as their count field requires
+   *
+   * @param link representing neighbor to send to
+   * @param type LSAUPDATE, DBD, LSREQ or LSACK
+   * @param lsas to send, may be empty
+   * @return true if every packet was written
+   */
+  private boolean sendToNeighbor(Link link, short type, List<LSA> lsas) {
+    int from = 0;
+    do {
+      SOSPFPacket packet = new SOSPFPacket();
+      packet.srcProcessIP = rd.simulatedIPAddress;
+      packet.srcProcessPort = rd.processPortNumber;
+      packet.srcIP = rd.simulatedIPAddress;
+      packet.dstIP = link.router2.simulatedIPAddress;
+      packet.sospfType = type;
+      packet.routerID = rd.simulatedIPAddress;
+      packet.neighborID = link.router2.simulatedIPAddress;
+      int to = Math.min(lsas.size(), from + SOSPFPacket.MAX_LSAS);
+      packet.lsaArray = new LinkedList<>(lsas.subList(from, to));
+      if (!sendToNeighbor(link, packet)) {
+        return false;
+      }
+      from = to;
+    } while (from < lsas.size());
+    return true;
+  }
+
+  /**
+   * Send a DATA packet to the next hop towards its destination, along the shortest path
+   *
+   * @param packet to forward, its forwarding fields are overwritten
+   * @return false if it was dropped
+   */
+  private boolean forward(SOSPFPacket packet) {
+    ForwardingTable fib = lsd.getForwardingTable();
+    int route = fib.lookup(IPAddresses.pack(packet.dstIP));
+    // A packet for us is never forwarded, not even back to us
+    String hop = route == ForwardingTable.NO_ROUTE ? null : fib.hop(route);
+    Optional<Link> link = hop == null ? Optional.empty() : ports.findLinkByIP(hop);
+    if (!link.isPresent() || link.get().router2.status != RouterStatus.TWO_WAY) {
+      stats.dataDropped();
+      return false;
+    }
+    packet.srcProcessIP = rd.simulatedIPAddress;
+    packet.srcProcessPort = rd.processPortNumber;
+    packet.routerID = rd.simulatedIPAddress;
+    packet.neighborID = hop;
+    if (!sendToNeighbor(link.get(), packet)) {
+      stats.dataDropped();
+      return false;
+    }
+    stats.dataForwarded();
+    return true;
+  }
+
+  /**
+   * Send the headers of our whole database to a neighbor that just reached TWO_WAY. It requests
+   * what it lacks and we do the same with its description, so both databases are in sync after
+   * one round trip instead of waiting for the other routers to flood.
+   */
+  private void sendDatabaseDescription(Link link) {
+    if (!sendToNeighbor(link, SOSPFPacket.DBD, lsd.headers())) {
+      System.err.println("Failed to send database description to "
+          + link.router2.simulatedIPAddress);
+    }
+  }
+
+  /**
+   * Send a packet over the persistent channel of a link, reconnecting once if the channel is
+   * missing or broken
+   *
+   * @param link   representing neighbor to send to
+   * @param packet to send
+   * @return true if the packet was written
+   */
+  private boolean sendToNeighbor(Link link, SOSPFPacket packet) {
+    NeighborChannel channel = link.channel;
+    if (channel != null && !channel.isClosed()) {
+      try {
+        send(channel, packet);
+        return true;
+      } catch (IOException e) {
+        channel.close();
+      }
+    }
+
+    link.channelLock.lock();
+    try {
+      // Another thread may have already reconnected while we were waiting
+      channel = link.channel;
+      if (channel == null || channel.isClosed()) {
+        channel = transport.connect(link.router2.processIPAddress,
+            link.router2.processPortNumber, handler);
+        link.channel = channel;
+      }
+      send(channel, packet);
+      return true;
+    } catch (IOException e) {
+      if (channel != null) {
+        channel.close();
+      }
+      return false;
+    } finally {
+      link.channelLock.unlock();
+    }
+  }
+
+  /**
+   * Flood the purge of every LSA that reached max age and our LSA when it is refreshed. Runs on
+   * the timer thread, where an exception would stop the periodic task.
+   */
+  private void ageLinkStateDatabase() {
+    try {
+      for (LSA lsa : lsd.sweep(System.nanoTime(), lsaRefreshSeconds)) {
+        flooder.offer(lsa, null);
+      }
+    } catch (RuntimeException e) {
+      System.err.println("LSA aging failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Load the database written by a previous run of this router, so that routes are known before
+   * the neighbors are back; DBD exchanges then only fetch what changed meanwhile
+   */
+  private void restoreSnapshot() {
+    try {
+      int loaded = lsd.load(snapshotPath);
+      if (loaded > 0 && !quiet) {
+        System.out.printf("restored %d LSAs from %s%n", loaded, snapshotPath);
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to restore snapshot: " + e.getMessage());
+    }
+  }
+
+  private void saveSnapshot() {
+    try {
+      lsd.save(snapshotPath);
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Failed to write snapshot: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Send a HELLO to a neighbor, it only refreshes the neighbor's dead timer unless the neighbor
+   * dropped the connection
+   */
+  private void sendKeepalive(Link link) {
+    NeighborChannel channel = link.channel;
+    if (channel == null || channel.isClosed()) {
+      // The neighbor may have declared us dead and removed the link, go through the handshake
+      // again so that both sides reach TWO_WAY
+      link.router2.status = RouterStatus.INIT;
+    }
+    SOSPFPacket hello = SOSPFPacket.createHello(rd.processPortNumber, rd.simulatedIPAddress,
+        link.router2.simulatedIPAddress, rd.simulatedIPAddress);
+    hello.linkCost = link.cost;
+    sendToNeighbor(link, hello);
+  }
+
+  /**
+   * Remove the link to a neighbor that stopped sending, then flood our LSA without it
+   */
+  private void processDeadNeighbor(Link link) {
+    Optional<Link> current = ports.findLink(link.router2.processPortNumber);
+    // The link may have been removed or replaced since the check
+    if (!current.isPresent() || current.get() != link) {
+      return;
+    }
+    ports.removeLink(link.router2.processPortNumber);
+    stats.neighborDead();
+    if (!quiet) {
+      System.out.printf("%s is dead, link removed%n", link.router2.simulatedIPAddress);
+    }
+
+    LinkedList<LinkDescription> links = new LinkedList<>();
+    for (Link l : ports) {
+      links.add(new LinkDescription(l.router2.simulatedIPAddress, l.router2.processPortNumber,
+          l.cost));
+    }
+    updateLSA(links);
+    sendLSAToNeighbors();
+  }
+
+  /**
+   * Write a packet on a channel and count it for the neighbor it is addressed to
+   */
+  private void send(NeighborChannel channel, SOSPFPacket packet) throws IOException {
+    channel.send(packet);
+    // DBD, LSREQ and LSACK only carry headers
+    boolean update = packet.sospfType == SOSPFPacket.LSAUPDATE && packet.lsaArray != null;
+    // DATA is addressed to the end of its path, not to the neighbor
+    String neighborIP = packet.sospfType == SOSPFPacket.DATA ? packet.neighborID : packet.dstIP;
+    stats.packetSent(neighborIP, FRAME_HEADER_SIZE + packet.encodedSize(),
+        update ? packet.lsaArray.size() : 0);
   }
 
   private void printSetState(String id, RouterStatus status) {
+    if (quiet) {
+      return;
+    }
     System.out.printf("set %s STATE to %s%n", id, status.toString());
   }
 
   private void printRecHello(String id) {
+    if (quiet) {
+      return;
+    }
     System.out.printf("received HELLO from %s;%n", id);
   }
 
@@ -91,48 +554,109 @@ public class Router {
       System.out.print(">> ");
       String command = br.readLine();
       while (true) {
-        if (command.startsWith("detect ")) {
-          String[] cmdLine = command.split(" ");
-          processDetect(cmdLine[1]);
-        } else if (command.startsWith("disconnect ")) {
-          String[] cmdLine = command.split(" ");
-          processDisconnect(Short.parseShort(cmdLine[1]));
-        } else if (command.startsWith("quit")) {
-          processQuit();
-          break;
-        } else if (command.startsWith("attach ")) {
-          String[] cmdLine = command.split(" ");
-          processAttach(cmdLine[1], Short.parseShort(cmdLine[2]),
-              cmdLine[3]);
-        } else if (command.equals("start")) {
-          processStart();
-        } else if (command.startsWith("connect ")) {
-          String[] cmdLine = command.split(" ");
-          processConnect(cmdLine[1], Short.parseShort(cmdLine[2]),
-              cmdLine[3]);
-        } else if (command.equals("neighbors")) {
-          // output neighbors
-          processNeighbors();
-        } else if (command.equals("dd")) {
-          System.out.println(lsd.toString());
-        } else {
-          // invalid command
-          System.out.println("Invalid command, please select one of: ");
-          System.out.println(getCommands());
-          // NOTE: i dont think we break here, we'll just keep prompting, at least for
-          // testing purposes i think it works better
-          // break;
+        // Scripts and control socket batches may be running
+        commandLock.lock();
+        try {
+          if (command.startsWith("detect ")) {
+            String[] cmdLine = command.split(" ");
+            processDetect(cmdLine[1]);
+          } else if (command.startsWith("disconnect ")) {
+            String[] cmdLine = command.split(" ");
+            processDisconnect(Short.parseShort(cmdLine[1]));
+          } else if (command.startsWith("quit")) {
+            processQuit();
+            break;
+          } else if (command.startsWith("attach ")) {
+            String[] cmdLine = command.split(" ");
+            if (cmdLine.length < 4) {
+              System.out.println("Usage: attach [Process IP] [Process Port] [IP Address] [Cost]");
+            } else {
+              processAttach(cmdLine[1], Short.parseShort(cmdLine[2]),
+                  cmdLine[3], parseCost(cmdLine));
+            }
+          } else if (command.equals("start")) {
+            processStart();
+          } else if (command.startsWith("connect ")) {
+            String[] cmdLine = command.split(" ");
+            if (cmdLine.length < 4) {
+              System.out.println("Usage: connect [Process IP] [Process Port] [IP Address] [Cost]");
+            } else {
+              processConnect(cmdLine[1], Short.parseShort(cmdLine[2]),
+                  cmdLine[3], parseCost(cmdLine));
+            }
+          } else if (command.startsWith("advertise ")) {
+            String[] cmdLine = command.split(" ");
+            processAdvertise(cmdLine);
+          } else if (command.startsWith("send ")) {
+            String[] cmdLine = command.split(" ");
+            processSend(cmdLine);
+          } else if (command.equals("neighbors")) {
+            // output neighbors
+            processNeighbors();
+          } else if (command.equals("stats")) {
+            System.out.print(stats);
+          } else if (command.equals("stats dump")) {
+            System.out.print(stats.dump());
+          } else if (command.equals("dd")) {
+            System.out.println(lsd.toString());
+          } else {
+            // invalid command
+            System.out.println("Invalid command, please select one of: ");
+            System.out.println(getCommands());
+            // NOTE: i dont think we break here, we'll just keep prompting, at least for
+            // testing purposes i think it works better
+            // break;
+          }
+        } catch (IllegalArgumentException e) {
+          // A bad port, cost or number only fails this command, also covers NumberFormatException
+          System.out.println(e.getMessage());
+        } finally {
+          commandLock.unlock();
         }
         System.out.print(">> ");
         command = br.readLine();
       }
       isReader.close();
       br.close();
+      // Shouldn't send anything to anybody as it doesn't have any more neighbors.
+      System.exit(0);
     } catch (Exception e) {
       e.printStackTrace();
     }
   }
 
+  /**
+   * Run the commands of a script as a {@link CommandBatch} and print one line of JSON per
+   * command
+   *
+   * @param script one command per line
+   * @return true if the script quit the router
+   */
+  public boolean runScript(Path script) throws IOException {
+    CommandBatch batch = new CommandBatch(this, true);
+    for (CommandBatch.Result result : batch.run(Files.readAllLines(script,
+        StandardCharsets.UTF_8))) {
+      System.out.println(result.toJson());
+    }
+    return batch.quit();
+  }
+
+  /**
+   * @param cmdLine attach or connect command split on spaces
+   * @return the optional link cost following the simulated IP, the default cost if absent
+   */
+  static int parseCost(String[] cmdLine) {
+    if (cmdLine.length < 5) {
+      return LinkDescription.DEFAULT_COST;
+    }
+    int cost = Integer.parseInt(cmdLine[4]);
+    if (cost < 1 || cost > LinkDescription.MAX_COST) {
+      throw new IllegalArgumentException("Link cost must be between 1 and "
+          + LinkDescription.MAX_COST);
+    }
+    return cost;
+  }
+
   /**
    * output the shortest path to the given destination ip
    * <p/>
@@ -145,29 +669,80 @@ public class Router {
     System.out.println(shortestPath);
   }
 
+  /**
+   * Advertise a prefix, see {@link #advertise}
+   *
+   * @param cmdLine advertise command split on spaces
+   */
+  private void processAdvertise(String[] cmdLine) {
+    if (cmdLine.length < 2) {
+      System.out.println("Usage: advertise [Prefix] [Cost]");
+      return;
+    }
+    advertise(cmdLine[1], cmdLine.length > 2 ? Integer.parseInt(cmdLine[2])
+        : LinkDescription.DEFAULT_COST);
+  }
+
+  /**
+   * send DATA packets to the given destination at a fixed rate and print the throughput, round
+   * trip latency and drops once the echoes are back
+   * <p/>
+   * format: send [IP Address] [Packets] [Rate (optional)] [Payload bytes (optional)]
+   */
+  private void processSend(String[] cmdLine) throws InterruptedException {
+    if (cmdLine.length < 3) {
+      System.out.println("Usage: send [IP Address] [Packets] [Rate] [Payload bytes]");
+      return;
+    }
+    int packets = Integer.parseInt(cmdLine[2]);
+    int rate = cmdLine.length > 3 ? Integer.parseInt(cmdLine[3]) : DEFAULT_SEND_RATE;
+    int payloadBytes = cmdLine.length > 4 ? Integer.parseInt(cmdLine[4])
+        : DEFAULT_PAYLOAD_BYTES;
+    if (lsd.getNextHop(cmdLine[1]) == null) {
+      System.out.println("No path found to destination router.");
+      return;
+    }
+    try {
+      System.out.print(send(cmdLine[1], packets, rate, payloadBytes));
+    } catch (IllegalStateException e) {
+      // A flow to the destination is already running
+      System.out.println(e.getMessage());
+    }
+  }
+
   /**
    * disconnect with the router identified by the given destination ip address
    * Notice: this command should trigger the synchronization of database
    *
-   * @param portNumber the port number which the link attaches at (0-3, index of
-   *                   port in Array)
+   * @param portNumber the port number which the link attaches at (from 0, as listed by
+   *                   neighbors)
    */
   private void processDisconnect(short portNumber) {
-    Link linkToRemove = ports.getLinkByIndex(portNumber);
-
-    if (linkToRemove == null) {
+    if (ports.getLinkByIndex(portNumber) == null) {
       System.out.println("Port not currently populated");
       return;
     }
+    disconnectAll(Collections.singletonList(portNumber));
+  }
+
+  /**
+   * Remove the links on the given ports, withdrawn from our LSA in a single update
+   *
+   * @param portNumbers populated ports
+   */
+  void disconnectAll(List<Short> portNumbers) {
+    Set<String> removed = new HashSet<>();
+    for (short portNumber : portNumbers) {
+      removed.add(ports.getLinkByIndex(portNumber).router2.simulatedIPAddress);
+    }
     // Update new LSA with updated links
     LinkedList<LinkDescription> links = new LinkedList<>();
     for (Link link : ports) {
-      if (link.router2.simulatedIPAddress.equals(linkToRemove.router2.simulatedIPAddress)) {
+      if (removed.contains(link.router2.simulatedIPAddress)) {
         continue;
       }
-      LinkDescription linkDescription = new LinkDescription();
-      linkDescription.linkID = link.router2.simulatedIPAddress;
-      linkDescription.portNum = link.router2.processPortNumber;
+      LinkDescription linkDescription = new LinkDescription(link.router2.simulatedIPAddress,
+          link.router2.processPortNumber, link.cost);
       links.add(linkDescription);
     }
 
@@ -175,28 +750,57 @@ public class Router {
     lsd.syncLinkStateDatabase(lsa);
 
     sendLSAToNeighbors();
-    
-    ports.removeLinkByIndex(portNumber);
+    // The neighbors we disconnect from must get the update before their links go away
+    flooder.flush();
+
+    for (short portNumber : portNumbers) {
+      ports.removeLinkByIndex(portNumber);
+    }
   }
 
   /**
    * disconnect with all neighbors and quit the program
    */
   private void processQuit() {
-    
+    if (controlServer != null) {
+      controlServer.close();
+    }
+    // Written before our links are withdrawn, a restart routes with the links we had
+    if (snapshotPath != null) {
+      snapshotTask.cancel(false);
+      saveSnapshot();
+    }
+
     LSA lsa = updateLSA(new LinkedList<>());
     lsd.syncLinkStateDatabase(lsa);
 
     sendLSAToNeighbors();
+    flooder.flush();
 
-    int numPorts = ports.getCurrentSize();
-    for (int i = 0; i < numPorts; i++) {
-      ports.removeLinkByIndex(i);
+    // Let the neighbors read the final LSA before the connections go away
+    for (Link link : ports) {
+      NeighborChannel channel = link.channel;
+      if (channel != null) {
+        channel.shutdown(QUIT_FLUSH_TIMEOUT_MS);
+      }
     }
 
+    ports.removeAll();
 
-    // Shouldn't send anything to anybody as it doesn't have any more neighbors.
-    System.exit(0);
+    keepalives.stop();
+    retransmitter.stop();
+    agingTask.cancel(false);
+    if (journal != null) {
+      lsd.setJournal(null);
+      journal.close();
+      if (journal.dropped() > 0) {
+        System.err.println("Journal dropped " + journal.dropped() + " events");
+      }
+    }
+    stats.unregister();
+    if (ownsTransport) {
+      transport.close();
+    }
   }
 
   /**
@@ -206,28 +810,43 @@ public class Router {
    * and process Port;
    * <p/>
    * NOTE: this command should not trigger link database synchronization
+   *
+   * @param cost of the link, used by both ends
    */
-  private void processAttach(String processIP, short processPort,
-      String simulatedIP) {
+  private boolean processAttach(String processIP, short processPort,
+      String simulatedIP, int cost) {
+    String error = addNeighbor(processIP, processPort, simulatedIP, cost);
+    if (error != null) {
+      System.out.println(error);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Attach without printing, see {@link #processAttach}
+   *
+   * @return null if the link was added, otherwise why it was not
+   */
+  String addNeighbor(String processIP, short processPort, String simulatedIP, int cost) {
     // TODO: establish link without sync
     if (!requestHandler()) {
-      System.out.println("Router full");
-      return;
+      return "Router full";
     }
 
-    if (!attachToRouter(processIP, processPort, simulatedIP)) {
-      System.out.println("Error adding link to router");
-      // TODO: figure out if we need to do something if router is full (think we
-      // print)
+    if (!attachToRouter(processIP, processPort, simulatedIP, cost)) {
+      // The router is full or already has this neighbor, the LSA must not advertise the link
+      return "Error adding link to router";
     }
 
     // Add link to LSA
-    lsd._store.get(rd.simulatedIPAddress).links.add(new LinkDescription(simulatedIP, processPort));
-
+    lsd.addLocalLink(new LinkDescription(simulatedIP, processPort, cost), false);
+    return null;
   }
 
-  private boolean attachToRouter(String processIP, short processPort, String simulatedIP) {
-    return ports.addLink(processIP, processPort, simulatedIP, rd);
+  private boolean attachToRouter(String processIP, short processPort, String simulatedIP,
+      int cost) {
+    return ports.addLink(processIP, processPort, simulatedIP, rd, cost);
   }
 
   /**
@@ -283,45 +902,83 @@ public class Router {
   }
 
   /**
-   * Send newly generated LSA to all current neighbors
+   * Flood newly generated LSA to all current neighbors at the end of the flood window
    */
   private void sendLSAToNeighbors() {
-    LSA lsa = lsd._store.get(rd.simulatedIPAddress);
-    for (Link link : ports) {
-      sendLSAToNeighbor(link, lsa);
-    }
+    flooder.offer(lsd.getLSA(rd.simulatedIPAddress), null);
   }
 
   private LSA updateLSA(LinkedList<LinkDescription> links) {
-    LSA lsa = lsd._store.get(rd.simulatedIPAddress);
-    lsa.lsaSeqNumber++;
-
-    lsa.links.clear();
-    lsa.links.addAll(links);
-    return lsa;
+    return lsd.updateLocalLinks(links);
   }
 
   /**
-   * Sends HELLOs to all current neighbors and joins threads to ensure completion
-   * of handshakes
+   * Sends HELLOs to all current neighbors and waits for the handshakes to complete. The connects
+   * run on the transport's workers, in parallel, so an unreachable neighbor does not hold up the
+   * others. The rest of each handshake is driven by {@link ClientHandler} as the answers come in.
    */
   private void sendHellosToNeighbors() {
-    LinkedList<Thread> threads = new LinkedList<>();
+    LinkedList<Link> links = new LinkedList<>();
+    LinkedList<Future<Boolean>> connects = new LinkedList<>();
     for (Link link : ports) {
-      InitHandler initHandler = new InitHandler(link);
-      initHandler.start();
-      threads.add(initHandler);
+      // Neighbors that already completed the handshake keep their channel
+      if (link.router2.status == RouterStatus.TWO_WAY) {
+        continue;
+      }
+      links.add(link);
+      connects.add(transport.workers().submit(() -> sendFirstHello(link)));
     }
 
-    for (Thread thread : threads) {
+    LinkedList<Link> pending = new LinkedList<>();
+    for (Link link : links) {
       try {
-        thread.join();
+        if (connects.removeFirst().get()) {
+          pending.add(link);
+        }
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        System.err.println("Failed handshake with " + link.router2.simulatedIPAddress + ": "
+            + e.getCause());
+      }
+    }
+
+    for (Link link : pending) {
+      try {
+        if (!link.twoWay.await(HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+          System.err.println("Timed out waiting for HELLO from " + link.router2.simulatedIPAddress);
+        }
       } catch (InterruptedException e) {
         throw new RuntimeException(e);
       }
     }
   }
 
+  /**
+   * Open the persistent channel of a link and send the HELLO starting its handshake. Blocks
+   * while connecting.
+   *
+   * @return true if the HELLO was written
+   */
+  private boolean sendFirstHello(Link link) {
+    SOSPFPacket hello = SOSPFPacket.createHello(rd.processPortNumber, rd.simulatedIPAddress,
+        link.router2.simulatedIPAddress, rd.simulatedIPAddress);
+    hello.linkCost = link.cost;
+    try {
+      // The connection is kept open, it is reused for every later update to this neighbor
+      NeighborChannel channel = transport.connect(link.router2.processIPAddress,
+          link.router2.processPortNumber, handler);
+      adoptChannel(link, channel);
+      link.helloSentNanos = System.nanoTime();
+      send(channel, hello);
+      return true;
+    } catch (IOException e) {
+      System.err.println("Failed handshake with " + link.router2.simulatedIPAddress + ": "
+          + e.getMessage());
+      return false;
+    }
+  }
+
   /**
    * attach the link to the remote router, which is identified by the given
    * simulated ip;
@@ -329,13 +986,15 @@ public class Router {
    * and process Port;
    * <p/>
    * This command does trigger the link database synchronization
+   *
+   * @param cost of the link, used by both ends
    */
   private void processConnect(String processIP, short processPort,
-      String simulatedIP) {
+      String simulatedIP, int cost) {
     
-    processAttach(processIP, processPort, simulatedIP);    
-
-    processStart();
+    if (processAttach(processIP, processPort, simulatedIP, cost)) {
+      processStart();
+    }
   }
 
   /**
@@ -351,11 +1010,15 @@ public class Router {
     }
 
     String[] commands = new String[] {
-        "`attach [Process IP] [Process Port] [IP Address]`",
-        "`connect [Process IP] [Process Port] [IP Address]`",
+        "`attach [Process IP] [Process Port] [IP Address] [Cost (optional, default 1)]`",
+        "`connect [Process IP] [Process Port] [IP Address] [Cost (optional, default 1)]`",
         "`disconnect [Port Number]`",
         "`detect [IP Address]`",
+        "`advertise [Prefix, e.g. 10.1.0.0/16] [Cost (optional, default 1)]`",
+        "`send [IP Address] [Packets] [Rate (optional, default 100/s)] "
+            + "[Payload bytes (optional, default 64)]`",
         "`neighbors`",
+        "`stats [dump (optional, key=value lines)]`",
         "`quit`",
     };
     StringBuilder sb = new StringBuilder();
@@ -366,211 +1029,309 @@ public class Router {
     return _commands;
   }
 
-  private class ServerThread extends Thread {
-    private final short port;
-
-    public ServerThread(short port) {
-      this.port = port;
-    }
+  /**
+   * Handles the packets of every neighbor connection, called by the reactor's workers
+   */
+  private class ClientHandler implements PacketHandler {
 
     @Override
-    public void run() {
-      try (ServerSocket serverSocket = new ServerSocket(port)) {
-        // System.out.println("Server listening on port " + port);
-
-        while (!serverSocket.isClosed()) {
-          Socket socket = serverSocket.accept();
-          // System.out.println("Creating thread from socket :" + socket.getPort());
-          new ClientHandler(socket).start();
+    public void onPacket(NeighborChannel channel, SOSPFPacket packet) {
+      String neighborIP = packet.sospfType == SOSPFPacket.DATA ? packet.routerID : packet.srcIP;
+      stats.packetReceived(neighborIP, FRAME_HEADER_SIZE + packet.encodedSize());
+      // Any packet shows the neighbor is alive, not only HELLOs
+      Optional<Link> from = ports.findLink(packet.srcProcessPort);
+      if (from.isPresent()) {
+        from.get().lastHeardNanos = System.nanoTime();
+      }
+      try {
+        if (packet.sospfType == SOSPFPacket.HELLO) {
+          if (processHello(channel, packet)) {
+            // Print out the prompt for the next command
+            if (!quiet) {
+              System.out.println(">>");
+            }
+            // Send LSA to neighbors
+            sendLSAToNeighbors();
+            Optional<Link> link = ports.findLink(packet.srcProcessPort);
+            if (link.isPresent()) {
+              sendDatabaseDescription(link.get());
+            }
+          }
+        } else if (packet.sospfType == SOSPFPacket.LSAUPDATE) {
+          // System.out.println("Received LSA update");
+          processLSAUpdate(packet);
+        } else if (packet.sospfType == SOSPFPacket.DBD) {
+          processDatabaseDescription(packet);
+        } else if (packet.sospfType == SOSPFPacket.LSREQ) {
+          processLinkStateRequest(packet);
+        } else if (packet.sospfType == SOSPFPacket.LSACK) {
+          processLinkStateAck(packet);
+        } else if (packet.sospfType == SOSPFPacket.DATA) {
+          processData(packet);
         }
       } catch (IOException ex) {
-        System.err.println("Server exception: " + ex.getMessage());
-        ex.printStackTrace();
-        System.exit(0);
+        System.err.println("Client exception: " + ex.getMessage());
+        channel.close();
       }
     }
 
-  }
+    /**
+     * Advance the handshake with the sender of a HELLO. An unknown neighbor is added in INIT and
+     * answered, a neighbor in INIT moves to TWO_WAY and is answered so that its side can do the
+     * same. HELLOs from neighbors already in TWO_WAY are ignored, unless they come on a new
+     * connection: the neighbor replaced the channel our answer went out on and is still waiting
+     * for it.
+     *
+     * @return true if the link moved to TWO_WAY
+     */
+    private boolean processHello(NeighborChannel channel, SOSPFPacket packet) throws IOException {
+      Optional<Link> existing = ports.findLink(packet.srcProcessPort);
+      if (existing.isPresent() && existing.get().router2.status == RouterStatus.TWO_WAY) {
+        if (existing.get().channel != channel && !channel.isClosed()) {
+          adoptChannel(existing.get(), channel);
+          SOSPFPacket hello = SOSPFPacket.createHello(rd.processPortNumber,
+              rd.simulatedIPAddress, packet.neighborID, rd.simulatedIPAddress);
+          hello.linkCost = existing.get().cost;
+          send(channel, hello);
+        }
+        return false;
+      }
 
-  private class ClientHandler extends Thread {
-    private final Socket socket;
+      printRecHello(packet.neighborID);
 
-    public ClientHandler(Socket socket) {
-      this.socket = socket;
-    }
+      SOSPFPacket hello = SOSPFPacket.createHello(rd.processPortNumber, rd.simulatedIPAddress,
+          packet.neighborID, rd.simulatedIPAddress);
+      // The side that attached the link chose its cost, we advertise the same one
+      hello.linkCost = packet.linkCost;
 
-    @Override
-    public void run() {
-      try {
-        ObjectInputStream inFromClient = new ObjectInputStream(socket.getInputStream());
-        ObjectOutputStream outToClient = new ObjectOutputStream(socket.getOutputStream());
-        SOSPFPacket packet = (SOSPFPacket) inFromClient.readObject();
-
-      
-        if (packet.sospfType == 0) {
-          processHello(packet, inFromClient, outToClient);
-          // Print out the prompt for the next command
-          System.out.println(">>");
-        } else if (packet.sospfType == 1) {
-          // System.out.println("Received LSA update");
-          processLSAUpdate(packet);
+      if (!existing.isPresent()) {
+        if (!ports.addLink(packet.srcIP, packet.srcProcessPort, packet.neighborID, rd,
+            packet.linkCost)) {
+          return false;
         }
-        inFromClient.close();
-        outToClient.close();
-        socket.close();
 
-        if (packet.sospfType == 0) {
-          // Send LSA to neighbors
-          sendLSAToNeighbors();
-        }
+        // Add link to LSA and update sequence number in lsd
+        lsd.addLocalLink(new LinkDescription(packet.neighborID, packet.srcProcessPort,
+            packet.linkCost), true);
 
-      } catch (IOException | ClassNotFoundException ex) {
-        System.err.println("Client exception: " + ex.getMessage());
-        ex.printStackTrace();
-        System.exit(0);
-      } finally {
-        try {
-          socket.close();
-        } catch (IOException e) {
-          System.err.println("Failed to close socket: " + e.getMessage());
-        }
+        printSetState(packet.neighborID, RouterStatus.INIT);
+        // System.out.println(Thread.currentThread().getName());
+
+        Link link = ports.findLink(packet.srcProcessPort).get();
+        adoptChannel(link, channel);
+        link.helloSentNanos = System.nanoTime();
+        send(channel, hello);
+        return false;
       }
-    }
 
-    private void processHello(SOSPFPacket packet, ObjectInputStream in, ObjectOutputStream out)
-        throws IOException, ClassNotFoundException {
-      printRecHello(packet.neighborID);
+      if (!ports.setLinkToTwoWay(packet.srcProcessPort)) {
+        System.out.println("Error");
+        System.exit(1);
+      }
+      printSetState(packet.neighborID, RouterStatus.TWO_WAY);
+      if (existing.get().helloSentNanos != 0) {
+        stats.handshakeCompleted(System.nanoTime() - existing.get().helloSentNanos);
+      }
 
+      if (channel.isClosed()) {
+        // The link was reconnected while the answer was on its way, answer on the new channel
+        sendToNeighbor(existing.get(), hello);
+      } else {
+        adoptChannel(existing.get(), channel);
+        send(channel, hello);
+      }
+      return true;
+    }
+
+    /**
+     * Request the LSAs of a neighbor's database description that we lack or hold an older copy
+     * of
+     */
+    private void processDatabaseDescription(SOSPFPacket packet) {
       Optional<Link> link = ports.findLink(packet.srcProcessPort);
-      if (link.isPresent()) {
+      if (!link.isPresent() || packet.lsaArray == null) {
         return;
       }
+      for (LSA header : packet.lsaArray) {
+        link.get().known.merge(header.linkStateID, header.lsaSeqNumber, Math::max);
+      }
+      List<LSA> missing = lsd.missing(packet.lsaArray);
+      if (!missing.isEmpty() && !sendToNeighbor(link.get(), SOSPFPacket.LSREQ, missing)) {
+        System.err.println("Failed to request LSAs from " + packet.srcIP);
+      }
+    }
 
-      if (!ports.addLink(packet.srcIP, packet.srcProcessPort, packet.neighborID, rd)) {
+    /**
+     * Answer a link state request with our current copy of every requested LSA, in an update
+     * sent to the requesting neighbor only
+     */
+    private void processLinkStateRequest(SOSPFPacket packet) {
+      Optional<Link> link = ports.findLink(packet.srcProcessPort);
+      if (!link.isPresent() || packet.lsaArray == null) {
         return;
       }
+      List<LSA> lsas = new ArrayList<>(packet.lsaArray.size());
+      for (LSA header : packet.lsaArray) {
+        // Purged since the description was sent
+        LSA lsa = lsd.getLSA(header.linkStateID);
+        if (lsa != null) {
+          lsas.add(lsa);
+        }
+      }
+      if (lsas.isEmpty()) {
+        return;
+      }
+      retransmitter.sending(link.get(), lsas);
+      if (!sendToNeighbor(link.get(), SOSPFPacket.LSAUPDATE, lsas)) {
+        System.err.println("Failed to answer LSA request from " + packet.srcIP);
+      }
+    }
 
-      // Add link to LSA
-      lsd._store.get(rd.simulatedIPAddress).links.add(new LinkDescription(packet.neighborID, packet.srcProcessPort));
-      // Update sequence number in lsd
-      lsd._store.get(rd.simulatedIPAddress).lsaSeqNumber++;
-
-      printSetState(packet.neighborID, RouterStatus.INIT);
-      // System.out.println(Thread.currentThread().getName());
-
-      SOSPFPacket hello = SOSPFPacket.createHello(rd.processPortNumber, rd.simulatedIPAddress,
-          packet.neighborID, rd.simulatedIPAddress);
-
-      out.writeObject(hello);
-      out.flush();
-
-      try {
-        SOSPFPacket handshake = (SOSPFPacket) in.readObject();
-        printRecHello(handshake.neighborID);    
-      } catch (IOException e) {
-        System.err.println("Failed to receive handshake");
-        e.printStackTrace();
+    /**
+     * Echo a DATA packet addressed to us back to its source, hand an echo to the flow waiting
+     * for it, and forward anything else one hop further
+     */
+    private void processData(SOSPFPacket packet) {
+      if (!rd.simulatedIPAddress.equals(packet.dstIP)
+          && !lsd.getForwardingTable().isLocal(packet.dstIP)) {
+        if (--packet.ttl <= 0) {
+          stats.dataDropped();
+          return;
+        }
+        forward(packet);
+        return;
       }
 
-      if (!ports.setLinkToTwoWay(packet.srcProcessPort)) {
-        System.out.println("Error");
-        System.exit(1);
+      stats.dataDelivered();
+      if (packet.echo) {
+        TrafficGenerator flow = flows.get(packet.srcIP);
+        if (flow != null) {
+          flow.echoed(packet);
+        }
+        return;
       }
-      printSetState(packet.neighborID, RouterStatus.TWO_WAY);
+      // Answered on behalf of the address it was sent to, which may be in one of our prefixes
+      SOSPFPacket echo = SOSPFPacket.createData(packet.dstIP, packet.srcIP,
+          packet.sequence, packet.payload);
+      echo.echo = true;
+      echo.sentNanos = packet.sentNanos;
+      forward(echo);
+    }
 
+    /**
+     * Take the LSAs a neighbor acknowledged off its retransmission list
+     */
+    private void processLinkStateAck(SOSPFPacket packet) {
+      Optional<Link> link = ports.findLink(packet.srcProcessPort);
+      if (link.isPresent() && packet.lsaArray != null) {
+        retransmitter.acknowledged(link.get(), packet.lsaArray);
+      }
     }
 
     private void processLSAUpdate(SOSPFPacket packet) throws IOException {
       // System.out.println("Received LSA update");
       // If the LSA is from the same router, ignore it
-      if (rd.simulatedIPAddress.equals(packet.srcIP)) {
+      if (rd.simulatedIPAddress.equals(packet.srcIP) || packet.lsaArray == null) {
         return;
       }
 
-      boolean shouldForward = lsd.syncLinkStateDatabase(packet.lsa);
+      Optional<Link> from = ports.findLink(packet.srcProcessPort);
+      boolean updatedLocalTopology = false;
+      // headers of the deltas whose base we lack, requested whole
+      List<LSA> stale = new ArrayList<>();
+      for (LSA received : packet.lsaArray) {
+        LSA lsa = received;
+        if (received.isDelta()) {
+          lsa = lsd.expand(received);
+          if (lsa == null) {
+            // Not acknowledged, so the sender keeps retransmitting the whole LSA until our
+            // request is answered
+            stats.deltaRequested();
+            stale.add(received.header());
+            continue;
+          }
+          stats.deltaApplied();
+        }
+        // Duplicates and older copies are acknowledged too, the sender only needs to know that
+        // it can stop retransmitting
+        if (from.isPresent()) {
+          retransmitter.received(from.get(), received);
+        }
+        boolean accepted = lsd.syncLinkStateDatabase(lsa, packet.srcIP);
+        stats.lsaReceived(packet.srcIP, accepted);
+        if (accepted) {
+          // Forward to the other neighbors with the next batch
+          flooder.offer(lsa, packet.srcIP);
+        }
+        updatedLocalTopology |= checkStillNeighbor(lsa, packet.srcIP);
+      }
+      if (!stale.isEmpty() && from.isPresent()
+          && !sendToNeighbor(from.get(), SOSPFPacket.LSREQ, stale)) {
+        System.err.println("Failed to request LSAs from " + packet.srcIP);
+      }
+
+      if (updatedLocalTopology) {
+        sendLSAToNeighbors();
+      }
+    }
 
-      // Check that node doesn't remove us from its neighbors
+    /**
+     * Check that the originator of an LSA, if it is our neighbor, doesn't remove us from its
+     * neighbors. Only LSAs the neighbor sent itself over an established link count: a copy
+     * relayed by another router may predate the link.
+     *
+     * @param senderIP simulated IP of the router the update came from
+     * @return true if the link to the originator was removed
+     */
+    private boolean checkStillNeighbor(LSA lsa, String senderIP) {
       boolean updatedLocalTopology = false;
-      for (Link link : ports) {
-        if (packet.lsa.linkStateID.equals(link.router2.simulatedIPAddress)) {
-          Optional<LinkDescription> first = packet.lsa.links.stream()
-              .filter(x -> x.linkID.equals(rd.simulatedIPAddress))
+      if (!lsa.linkStateID.equals(senderIP)) {
+        return false;
+      }
+      Optional<Link> neighbor = ports.findLinkByIP(lsa.linkStateID);
+      if (neighbor.isPresent()) {
+        Link link = neighbor.get();
+        if (link.router2.status == RouterStatus.TWO_WAY) {
+          Optional<LinkDescription> first = lsa.links.stream()
+              .filter(x -> !x.isPrefix() && x.linkID.equals(rd.simulatedIPAddress))
               .findFirst();
           if (!first.isPresent()) {
-            // System.out.println("Removing link from " + packet.lsa.linkStateID);
+            // System.out.println("Removing link from " + lsa.linkStateID);
             updatedLocalTopology = ports.removeLink(link.router2.processPortNumber);
 
             // Update LSA with updated links
             LinkedList<LinkDescription> links = new LinkedList<>();
             for (Link l : ports) {
-              if (l.router2.simulatedIPAddress.equals(packet.lsa.linkStateID)) {
+              if (l.router2.simulatedIPAddress.equals(lsa.linkStateID)) {
                 continue;
               }
               LinkDescription linkDescription = new LinkDescription(l.router2.simulatedIPAddress,
-                  l.router2.processPortNumber);
+                  l.router2.processPortNumber, l.cost);
               links.add(linkDescription);
             }
-            LSA lsa = updateLSA(links);
-            lsd.syncLinkStateDatabase(lsa);
-          }
-        }
-      }
-
-      if (shouldForward) {
-        // Forward to neighbors
-        for (Link link : ports) {
-          // Don't send to the neighbor that sent the LSA
-          if (link.router2.simulatedIPAddress.equals(packet.srcIP)) {
-            continue;
+            LSA updated = updateLSA(links);
+            lsd.syncLinkStateDatabase(updated);
           }
-          sendLSAToNeighbor(link, packet.lsa);
         }
       }
-
-      if (updatedLocalTopology) {
-        sendLSAToNeighbors();
-      }
+      return updatedLocalTopology;
     }
   }
 
-  private class InitHandler extends Thread {
-    private final Link link;
-
-    private InitHandler(Link link) {
-      this.link = link;
+  /**
+   * Make the given channel the persistent channel of the link, closing the one it replaces
+   */
+  private void adoptChannel(Link link, NeighborChannel channel) {
+    NeighborChannel previous;
+    link.channelLock.lock();
+    try {
+      previous = link.channel;
+      link.channel = channel;
+    } finally {
+      link.channelLock.unlock();
     }
-
-    @Override
-    public void run() {
-      try (Socket socket = new Socket("localhost", link.router2.processPortNumber)) {
-
-        SOSPFPacket hello = SOSPFPacket.createHello(rd.processPortNumber, rd.simulatedIPAddress,
-            link.router2.simulatedIPAddress, rd.simulatedIPAddress);
-        ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-        ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
-
-        out.writeObject(hello);
-        out.flush();
-
-        SOSPFPacket response = (SOSPFPacket) in.readObject();
-        printRecHello(response.neighborID);
-
-        if (!ports.setLinkToTwoWay(response.srcProcessPort)) {
-          return;
-        }
-        printSetState(response.neighborID, RouterStatus.TWO_WAY);
-
-        out.writeObject(hello);
-        out.flush();
-
-        out.close();
-        in.close();
-        socket.close();
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      } catch (ClassNotFoundException e) {
-        System.err.println("Wrong response from server");
-      }
+    if (previous != null && previous != channel) {
+      previous.close();
     }
   }
 
@@ -0,0 +1,73 @@
+package socs.network.node;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns simulated IPs to dense integer ids, 0 for the first router seen, 1 for the next and so
+ * on. Ids are never reused or forgotten, so arrays indexed by id stay valid as the database
+ * changes and the SPF never has to hash a string. Strings are only turned into ids where they
+ * come in, from packets and commands, and back into strings where they go out.
+ * <p/>
+ * Lookups do not block. Interning a new router takes a lock, which only happens the first time
+ * an LSA mentions it.
+ */
+class RouterIdTable {
+
+  private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+  // id => simulated IP, the first size entries are set
+  private volatile String[] names = new String[16];
+  private volatile int size;
+
+  /**
+   * @param simulatedIP of a router
+   * @return id of the router, assigned if it had none
+   */
+  int intern(String simulatedIP) {
+    Integer id = ids.get(simulatedIP);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      id = ids.get(simulatedIP);
+      if (id != null) {
+        return id;
+      }
+      int next = size;
+      String[] current = names;
+      if (next == current.length) {
+        current = Arrays.copyOf(current, next * 2);
+      }
+      current[next] = simulatedIP;
+      // The name is published before the id, whoever finds the id can resolve it
+      names = current;
+      size = next + 1;
+      ids.put(simulatedIP, next);
+      return next;
+    }
+  }
+
+  /**
+   * @param simulatedIP of a router
+   * @return id of the router, -1 if it was never interned
+   */
+  int idOf(String simulatedIP) {
+    Integer id = ids.get(simulatedIP);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * @param id of a router
+   * @return simulated IP of the router
+   */
+  String name(int id) {
+    return names[id];
+  }
+
+  /**
+   * @return number of ids handed out, every id is below it
+   */
+  int size() {
+    return size;
+  }
+}
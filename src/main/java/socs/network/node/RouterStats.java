@@ -0,0 +1,417 @@
+package socs.network.node;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of one router: LSAs and bytes exchanged with each neighbor, SPF runs, HELLO handshake
+ * latency and how long the database kept changing after a local topology change. Printed by the
+ * stats command and published over JMX as socs.network:type=Router,name=[Simulated IP].
+ */
+public class RouterStats implements RouterStatsMBean {
+
+  private final String simulatedIP;
+  private final LinkStateDatabase lsd;
+  private final FloodScheduler flooder;
+  private final RetransmissionScheduler retransmitter;
+
+  // neighbor simulated IP => counters, kept after the neighbor goes away
+  private final ConcurrentHashMap<String, NeighborCounters> neighbors = new ConcurrentHashMap<>();
+  // from our first HELLO to a link to TWO_WAY
+  private final LatencyHistogram helloLatency = new LatencyHistogram();
+  // links removed because the neighbor went silent
+  private final LongAdder deadNeighbors = new LongAdder();
+  // DATA packets sent to a next hop, ours included, addressed to us, and dropped for lack of a
+  // route, an expired ttl or a failed send
+  private final LongAdder dataForwarded = new LongAdder();
+  private final LongAdder dataDelivered = new LongAdder();
+  private final LongAdder dataDropped = new LongAdder();
+  // LSAs sent as deltas, deltas received and applied, and deltas received without their base
+  private final LongAdder deltasSent = new LongAdder();
+  private final LongAdder deltasApplied = new LongAdder();
+  private final LongAdder deltasRequested = new LongAdder();
+  private ObjectName registeredName;
+
+  RouterStats(String simulatedIP, LinkStateDatabase lsd, FloodScheduler flooder,
+      RetransmissionScheduler retransmitter) {
+    this.simulatedIP = simulatedIP;
+    this.lsd = lsd;
+    this.flooder = flooder;
+    this.retransmitter = retransmitter;
+  }
+
+  static final class NeighborCounters {
+    final LongAdder packetsSent = new LongAdder();
+    final LongAdder packetsReceived = new LongAdder();
+    final LongAdder bytesSent = new LongAdder();
+    final LongAdder bytesReceived = new LongAdder();
+    final LongAdder lsasSent = new LongAdder();
+    final LongAdder lsasReceived = new LongAdder();
+    // newer than the copy in our database
+    final LongAdder lsasAccepted = new LongAdder();
+    // duplicates and older copies
+    final LongAdder lsasDiscarded = new LongAdder();
+  }
+
+  NeighborCounters neighbor(String neighborIP) {
+    return neighbors.computeIfAbsent(neighborIP, ip -> new NeighborCounters());
+  }
+
+  /**
+   * @param neighborIP simulated IP of the receiver
+   * @param bytes      on the wire, framing included
+   * @param lsas       carried by the packet
+   */
+  void packetSent(String neighborIP, int bytes, int lsas) {
+    NeighborCounters counters = neighbor(neighborIP);
+    counters.packetsSent.increment();
+    counters.bytesSent.add(bytes);
+    counters.lsasSent.add(lsas);
+  }
+
+  /**
+   * @param neighborIP simulated IP of the sender
+   * @param bytes      on the wire, framing included
+   */
+  void packetReceived(String neighborIP, int bytes) {
+    NeighborCounters counters = neighbor(neighborIP);
+    counters.packetsReceived.increment();
+    counters.bytesReceived.add(bytes);
+  }
+
+  /**
+   * @param neighborIP simulated IP of the sender
+   * @param accepted   true if the LSA replaced an older copy in the database
+   */
+  void lsaReceived(String neighborIP, boolean accepted) {
+    NeighborCounters counters = neighbor(neighborIP);
+    counters.lsasReceived.increment();
+    (accepted ? counters.lsasAccepted : counters.lsasDiscarded).increment();
+  }
+
+  /**
+   * @param nanos from our first HELLO on a link to the link reaching TWO_WAY
+   */
+  void handshakeCompleted(long nanos) {
+    helloLatency.record(nanos);
+  }
+
+  void neighborDead() {
+    deadNeighbors.increment();
+  }
+
+  void dataForwarded() {
+    dataForwarded.increment();
+  }
+
+  void dataDelivered() {
+    dataDelivered.increment();
+  }
+
+  void dataDropped() {
+    dataDropped.increment();
+  }
+
+  void deltasSent(int count) {
+    deltasSent.add(count);
+  }
+
+  void deltaApplied() {
+    deltasApplied.increment();
+  }
+
+  void deltaRequested() {
+    deltasRequested.increment();
+  }
+
+  /**
+   * Publish the counters on the platform MBean server. Failures are reported but not fatal, the
+   * stats command still works.
+   */
+  void register() {
+    try {
+      ObjectName name = new ObjectName("socs.network:type=Router,name=" + simulatedIP);
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.registerMBean(this, name);
+      registeredName = name;
+    } catch (JMException e) {
+      System.err.println("Could not publish router stats over JMX: " + e.getMessage());
+    }
+  }
+
+  void unregister() {
+    if (registeredName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+    } catch (JMException e) {
+      System.err.println("Could not unpublish router stats: " + e.getMessage());
+    }
+    registeredName = null;
+  }
+
+  private long sum(Function<NeighborCounters, LongAdder> counter) {
+    long total = 0;
+    for (NeighborCounters counters : neighbors.values()) {
+      total += counter.apply(counters).sum();
+    }
+    return total;
+  }
+
+  @Override
+  public long getLsasSent() {
+    return sum(c -> c.lsasSent);
+  }
+
+  @Override
+  public long getLsasReceived() {
+    return sum(c -> c.lsasReceived);
+  }
+
+  @Override
+  public long getLsasAccepted() {
+    return sum(c -> c.lsasAccepted);
+  }
+
+  @Override
+  public long getLsasDiscarded() {
+    return sum(c -> c.lsasDiscarded);
+  }
+
+  @Override
+  public long getLsasPurged() {
+    return lsd.purged();
+  }
+
+  @Override
+  public long getBytesSent() {
+    return sum(c -> c.bytesSent);
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return sum(c -> c.bytesReceived);
+  }
+
+  @Override
+  public long getFloodPackets() {
+    return flooder.packetsSent();
+  }
+
+  @Override
+  public long getFloodCoalesced() {
+    return flooder.coalesced();
+  }
+
+  @Override
+  public long getLsasRetransmitted() {
+    return retransmitter.retransmitted();
+  }
+
+  @Override
+  public long getAcksSent() {
+    return retransmitter.acksSent();
+  }
+
+  @Override
+  public long getAcksReceived() {
+    return retransmitter.acksReceived();
+  }
+
+  @Override
+  public int getLsasUnacknowledged() {
+    return retransmitter.unacknowledged();
+  }
+
+  @Override
+  public long getSpfFullRuns() {
+    return lsd.getRoutingTable().computations();
+  }
+
+  @Override
+  public long getSpfIncrementalRuns() {
+    return lsd.getRoutingTable().incrementalComputations();
+  }
+
+  @Override
+  public long getSpfMeanMicros() {
+    return lsd.getRoutingTable().latency().meanMicros();
+  }
+
+  @Override
+  public long getSpfP99Micros() {
+    return lsd.getRoutingTable().latency().percentileMicros(0.99);
+  }
+
+  @Override
+  public long getSpfMaxMicros() {
+    return lsd.getRoutingTable().latency().maxMicros();
+  }
+
+  @Override
+  public long getHelloHandshakes() {
+    return helloLatency.count();
+  }
+
+  @Override
+  public long getHelloMeanMicros() {
+    return helloLatency.meanMicros();
+  }
+
+  @Override
+  public long getHelloMaxMicros() {
+    return helloLatency.maxMicros();
+  }
+
+  @Override
+  public long getDeadNeighbors() {
+    return deadNeighbors.sum();
+  }
+
+  @Override
+  public long getDataForwarded() {
+    return dataForwarded.sum();
+  }
+
+  @Override
+  public long getDataDelivered() {
+    return dataDelivered.sum();
+  }
+
+  @Override
+  public long getDataDropped() {
+    return dataDropped.sum();
+  }
+
+  @Override
+  public long getDeltasSent() {
+    return deltasSent.sum();
+  }
+
+  @Override
+  public long getDeltasApplied() {
+    return deltasApplied.sum();
+  }
+
+  @Override
+  public long getDeltasRequested() {
+    return deltasRequested.sum();
+  }
+
+  @Override
+  public long getConvergenceMillis() {
+    long nanos = lsd.convergenceNanos();
+    return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  @Override
+  public int getLsdbSize() {
+    return lsd.size();
+  }
+
+  @Override
+  public String dump() {
+    StringBuilder sb = new StringBuilder();
+    line(sb, "router", simulatedIP);
+    line(sb, "lsas.sent", getLsasSent());
+    line(sb, "lsas.received", getLsasReceived());
+    line(sb, "lsas.accepted", getLsasAccepted());
+    line(sb, "lsas.discarded", getLsasDiscarded());
+    line(sb, "lsas.purged", getLsasPurged());
+    line(sb, "bytes.sent", getBytesSent());
+    line(sb, "bytes.received", getBytesReceived());
+    line(sb, "flood.offered", flooder.offered());
+    line(sb, "flood.coalesced", getFloodCoalesced());
+    line(sb, "flood.packets", getFloodPackets());
+    line(sb, "flood.retransmitted", getLsasRetransmitted());
+    line(sb, "acks.sent", getAcksSent());
+    line(sb, "acks.received", getAcksReceived());
+    line(sb, "acks.waiting", getLsasUnacknowledged());
+    line(sb, "spf.full", getSpfFullRuns());
+    line(sb, "spf.incremental", getSpfIncrementalRuns());
+    line(sb, "spf.meanMicros", getSpfMeanMicros());
+    line(sb, "spf.p50Micros", lsd.getRoutingTable().latency().percentileMicros(0.5));
+    line(sb, "spf.p99Micros", getSpfP99Micros());
+    line(sb, "spf.maxMicros", getSpfMaxMicros());
+    line(sb, "hello.handshakes", getHelloHandshakes());
+    line(sb, "hello.meanMicros", getHelloMeanMicros());
+    line(sb, "hello.maxMicros", getHelloMaxMicros());
+    line(sb, "hello.deadNeighbors", getDeadNeighbors());
+    line(sb, "data.forwarded", getDataForwarded());
+    line(sb, "data.delivered", getDataDelivered());
+    line(sb, "data.dropped", getDataDropped());
+    line(sb, "delta.sent", getDeltasSent());
+    line(sb, "delta.applied", getDeltasApplied());
+    line(sb, "delta.requested", getDeltasRequested());
+    line(sb, "convergence.millis", getConvergenceMillis());
+    line(sb, "lsdb.size", getLsdbSize());
+    for (Map.Entry<String, NeighborCounters> entry : new TreeMap<>(neighbors).entrySet()) {
+      String prefix = "neighbor." + entry.getKey() + ".";
+      NeighborCounters c = entry.getValue();
+      line(sb, prefix + "packets.sent", c.packetsSent.sum());
+      line(sb, prefix + "packets.received", c.packetsReceived.sum());
+      line(sb, prefix + "bytes.sent", c.bytesSent.sum());
+      line(sb, prefix + "bytes.received", c.bytesReceived.sum());
+      line(sb, prefix + "lsas.sent", c.lsasSent.sum());
+      line(sb, prefix + "lsas.received", c.lsasReceived.sum());
+      line(sb, prefix + "lsas.accepted", c.lsasAccepted.sum());
+      line(sb, prefix + "lsas.discarded", c.lsasDiscarded.sum());
+    }
+    return sb.toString();
+  }
+
+  private static void line(StringBuilder sb, String key, Object value) {
+    sb.append(key).append('=').append(value).append(System.lineSeparator());
+  }
+
+  /**
+   * @return the counters laid out for the stats command
+   */
+  @Override
+  public String toString() {
+    String nl = System.lineSeparator();
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("LSAs: sent %d, received %d, accepted %d, discarded %d, purged %d%n",
+        getLsasSent(), getLsasReceived(), getLsasAccepted(), getLsasDiscarded(),
+        getLsasPurged()));
+    sb.append(String.format("bytes: sent %d, received %d%n", getBytesSent(), getBytesReceived()));
+    sb.append(String.format("flooding: %d LSAs queued, %d coalesced, %d packets%n",
+        flooder.offered(), getFloodCoalesced(), getFloodPackets()));
+    sb.append(String.format("reliability: %d LSAs retransmitted, %d acks sent, %d received, "
+        + "%d LSAs waiting%n", getLsasRetransmitted(), getAcksSent(), getAcksReceived(),
+        getLsasUnacknowledged()));
+    sb.append(String.format("SPF: %d full, %d incremental, %s%n", getSpfFullRuns(),
+        getSpfIncrementalRuns(), lsd.getRoutingTable().latency()));
+    sb.append("HELLO handshakes: ").append(helloLatency).append(nl);
+    sb.append("dead neighbors: ").append(getDeadNeighbors()).append(nl);
+    sb.append(String.format("data: %d forwarded, %d delivered, %d dropped%n",
+        getDataForwarded(), getDataDelivered(), getDataDropped()));
+    sb.append(String.format("deltas: %d sent, %d applied, %d requested whole%n",
+        getDeltasSent(), getDeltasApplied(), getDeltasRequested()));
+    long convergence = getConvergenceMillis();
+    sb.append("last local change converged after: ")
+        .append(convergence < 0 ? "-" : convergence + " ms").append(nl);
+    sb.append("LSDB size: ").append(getLsdbSize()).append(nl);
+    sb.append(String.format("%-16s %8s %8s %10s %10s %8s %8s %8s %8s%n", "neighbor",
+        "pkt out", "pkt in", "bytes out", "bytes in", "LSA out", "LSA in", "accepted",
+        "dropped"));
+    for (Map.Entry<String, NeighborCounters> entry : new TreeMap<>(neighbors).entrySet()) {
+      NeighborCounters c = entry.getValue();
+      sb.append(String.format("%-16s %8d %8d %10d %10d %8d %8d %8d %8d%n", entry.getKey(),
+          c.packetsSent.sum(), c.packetsReceived.sum(), c.bytesSent.sum(),
+          c.bytesReceived.sum(), c.lsasSent.sum(), c.lsasReceived.sum(),
+          c.lsasAccepted.sum(), c.lsasDiscarded.sum()));
+    }
+    return sb.toString();
+  }
+}
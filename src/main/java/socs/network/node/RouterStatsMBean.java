@@ -0,0 +1,91 @@
+package socs.network.node;
+
+/**
+ * Counters of a router published over JMX, see {@link RouterStats}
+ */
+public interface RouterStatsMBean {
+
+  long getLsasSent();
+
+  long getLsasReceived();
+
+  long getLsasAccepted();
+
+  long getLsasDiscarded();
+
+  /**
+   * @return LSAs removed from the database because they reached max age
+   */
+  long getLsasPurged();
+
+  long getBytesSent();
+
+  long getBytesReceived();
+
+  long getFloodPackets();
+
+  long getFloodCoalesced();
+
+  /**
+   * @return LSAs sent again because the neighbor did not acknowledge them in time
+   */
+  long getLsasRetransmitted();
+
+  long getAcksSent();
+
+  long getAcksReceived();
+
+  /**
+   * @return LSAs sent to the current neighbors and waiting for their acknowledgement
+   */
+  int getLsasUnacknowledged();
+
+  long getSpfFullRuns();
+
+  long getSpfIncrementalRuns();
+
+  long getSpfMeanMicros();
+
+  long getSpfP99Micros();
+
+  long getSpfMaxMicros();
+
+  long getHelloHandshakes();
+
+  long getHelloMeanMicros();
+
+  long getHelloMaxMicros();
+
+  long getDeadNeighbors();
+
+  long getDataForwarded();
+
+  long getDataDelivered();
+
+  /**
+   * @return DATA packets dropped here: no route, ttl expired or the next hop unreachable
+   */
+  long getDataDropped();
+
+  long getDeltasSent();
+
+  long getDeltasApplied();
+
+  /**
+   * @return deltas received for a base we did not have, whose whole LSA was requested instead
+   */
+  long getDeltasRequested();
+
+  /**
+   * @return milliseconds from the last local topology change to the last LSDB update, -1 if the
+   *     links of the router never changed
+   */
+  long getConvergenceMillis();
+
+  int getLsdbSize();
+
+  /**
+   * @return one key=value line per counter, neighbors included
+   */
+  String dump();
+}
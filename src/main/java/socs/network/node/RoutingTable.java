@@ -0,0 +1,265 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import socs.network.message.LinkDescription;
+
+/**
+ * Shortest path tree from this router to every destination. The tree is computed on the first
+ * lookup after the link state database changes and reused until the next change, so lookups in
+ * between only walk the cached predecessor array.
+ * <p/>
+ * In incremental mode, changes to the links of routers already in the tree are applied with
+ * {@link ShortestPathTree#incremental}; a full SPF is only run when routers appear, when too many
+ * changes piled up or when a change affects too much of the tree.
+ */
+class RoutingTable {
+  // more pending changes than this are cheaper to handle with a full SPF
+  private static final int MAX_INCREMENTAL_CHANGES = 8;
+  // share of the routers a single change may affect before falling back to a full SPF
+  private static final double MAX_AFFECTED_FRACTION = 0.25;
+
+  private final String source;
+  private final Supplier<AdjacencyIndex> graphSupplier;
+  private final Function<String, long[]> linksSupplier;
+  private final Function<String, List<LinkDescription>> prefixSupplier;
+
+  // bumped on every LSDB change, the cached tree is valid only for the version it was built from
+  private final AtomicLong version = new AtomicLong();
+  private final AtomicLong computations = new AtomicLong();
+  private final AtomicLong incrementalComputations = new AtomicLong();
+  // time spent updating the tree, full and incremental
+  private final LatencyHistogram latency = new LatencyHistogram();
+  // originators whose links changed since the cached tree was built
+  private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+  private volatile boolean fullRequired = true;
+  private volatile boolean incremental = true;
+  private volatile Cached cached;
+  // built from the cached tree on the first forwarding lookup after it changed
+  private volatile Forwarding forwarding;
+
+  /**
+   * @param source        simulated IP of this router
+   * @param graphSupplier snapshot of the current topology, called for a full SPF
+   * @param linksSupplier current links of an originator resolved to router ids, see
+   *                      {@link AdjacencyIndex#resolve}, null if it has no LSA
+   * @param prefixSupplier  prefixes advertised by an originator, empty if it has none
+   */
+  RoutingTable(String source, Supplier<AdjacencyIndex> graphSupplier,
+      Function<String, long[]> linksSupplier,
+      Function<String, List<LinkDescription>> prefixSupplier) {
+    this.source = source;
+    this.graphSupplier = graphSupplier;
+    this.linksSupplier = linksSupplier;
+    this.prefixSupplier = prefixSupplier;
+  }
+
+  /**
+   * Mark the table stale, the next lookup runs a full SPF
+   */
+  void invalidate() {
+    fullRequired = true;
+    version.incrementAndGet();
+  }
+
+  /**
+   * Mark the table stale after the LSA of one router changed
+   *
+   * @param originator simulated IP of the router whose LSA changed
+   */
+  void invalidate(String originator) {
+    pending.add(originator);
+    version.incrementAndGet();
+  }
+
+  /**
+   * @param incremental true to apply single-LSA changes with incremental SPF
+   */
+  void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  /**
+   * @param destinationIP simulated IP of the destination
+   * @return routers on the shortest path, both ends included, or null if the destination is
+   *     known but unreachable
+   * @throws IllegalArgumentException if no LSA mentions the destination
+   */
+  List<String> lookup(String destinationIP) {
+    ShortestPathTree current = tree();
+    int destination = current.graph.idOf(destinationIP);
+    if (destination < 0) {
+      throw new IllegalArgumentException("Unknown destination " + destinationIP);
+    }
+    return current.pathTo(destination);
+  }
+
+  /**
+   * @param destinationIP simulated IP of the destination
+   * @param limit         largest number of paths to return
+   * @return every equal-cost shortest path (up to limit), empty if the destination is known but
+   *     unreachable
+   * @throws IllegalArgumentException if no LSA mentions the destination
+   */
+  List<List<String>> lookupAll(String destinationIP, int limit) {
+    ShortestPathTree current = tree();
+    int destination = current.graph.idOf(destinationIP);
+    if (destination < 0) {
+      throw new IllegalArgumentException("Unknown destination " + destinationIP);
+    }
+    return current.equalCostPathsTo(destination, limit);
+  }
+
+  /**
+   * @param destinationIP simulated IP of the destination
+   * @return simulated IPs of the neighbors starting an equal-cost shortest path to the
+   *     destination, empty if it is unknown, unreachable or this router
+   */
+  List<String> nextHops(String destinationIP) {
+    ShortestPathTree current = tree();
+    int destination = current.graph.idOf(destinationIP);
+    List<String> hops = new ArrayList<>();
+    if (destination >= 0) {
+      for (int hop : current.nextHops(destination)) {
+        hops.add(current.graph.name(hop));
+      }
+    }
+    return hops;
+  }
+
+  /**
+   * @return the forwarding table for the current LSDB content, rebuilt only when the tree
+   *     changed
+   */
+  ForwardingTable forwardingTable() {
+    ShortestPathTree current = tree();
+    Forwarding built = forwarding;
+    if (built != null && built.tree == current) {
+      return built.table;
+    }
+    synchronized (this) {
+      built = forwarding;
+      if (built != null && built.tree == current) {
+        return built.table;
+      }
+      ForwardingTable table = ForwardingTable.build(current, prefixSupplier);
+      forwarding = new Forwarding(current, table);
+      return table;
+    }
+  }
+
+  /**
+   * @return the shortest path tree for the current LSDB content
+   */
+  ShortestPathTree tree() {
+    Cached current = cached;
+    if (current != null && current.version == version.get()) {
+      return current.tree;
+    }
+    synchronized (this) {
+      // Another lookup may have recomputed it while we were waiting
+      long v = version.get();
+      current = cached;
+      if (current != null && current.version == v) {
+        return current.tree;
+      }
+
+      long begin = System.nanoTime();
+      ShortestPathTree tree = null;
+      if (incremental && current != null && !fullRequired) {
+        tree = applyPending(current.tree);
+      }
+      if (tree == null) {
+        fullRequired = false;
+        pending.clear();
+        AdjacencyIndex graph = graphSupplier.get();
+        tree = ShortestPathTree.compute(graph, graph.idOf(source));
+        computations.incrementAndGet();
+      } else {
+        incrementalComputations.incrementAndGet();
+      }
+      latency.record(System.nanoTime() - begin);
+      cached = new Cached(tree, v);
+      return tree;
+    }
+  }
+
+  /**
+   * @return number of times the tree was computed with a full SPF
+   */
+  long computations() {
+    return computations.get();
+  }
+
+  /**
+   * @return number of times the tree was updated incrementally
+   */
+  long incrementalComputations() {
+    return incrementalComputations.get();
+  }
+
+  /**
+   * @return how long tree updates took
+   */
+  LatencyHistogram latency() {
+    return latency;
+  }
+
+  /**
+   * Apply the pending changes one originator at a time. Each change derives a new graph, the
+   * cached tree may still be read by other lookups and its graph must not change under them.
+   *
+   * @return the updated tree, or null if a full SPF is needed
+   */
+  private ShortestPathTree applyPending(ShortestPathTree tree) {
+    int maxAffected = Math.max(1, (int) (tree.graph.size() * MAX_AFFECTED_FRACTION));
+    int applied = 0;
+    String originator;
+    while ((originator = pending.poll()) != null) {
+      if (fullRequired || ++applied > MAX_INCREMENTAL_CHANGES) {
+        return null;
+      }
+      int id = tree.graph.idOf(originator);
+      if (id < 0 || !tree.graph.hasLSA(id)) {
+        return null;
+      }
+      long[] links = linksSupplier.apply(originator);
+      long[] packed = links == null ? null : tree.graph.linksOf(links);
+      if (packed == null) {
+        return null;
+      }
+      tree = ShortestPathTree.incremental(tree, tree.graph.withLinks(id, packed), id,
+          maxAffected);
+      if (tree == null) {
+        return null;
+      }
+    }
+    return tree;
+  }
+
+  private static final class Forwarding {
+    final ShortestPathTree tree;
+    final ForwardingTable table;
+
+    Forwarding(ShortestPathTree tree, ForwardingTable table) {
+      this.tree = tree;
+      this.table = table;
+    }
+  }
+
+  private static final class Cached {
+    final ShortestPathTree tree;
+    final long version;
+
+    Cached(ShortestPathTree tree, long version) {
+      this.tree = tree;
+      this.version = version;
+    }
+  }
+}
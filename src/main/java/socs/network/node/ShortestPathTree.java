@@ -0,0 +1,309 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Result of one SPF run: distance and predecessor of every router reachable from the source.
+ * Paths are only materialized when asked for.
+ * <p/>
+ * Only one predecessor is kept per router. Equal-cost alternatives are recovered on demand from
+ * the incoming links: u is a predecessor of v whenever distance[u] + cost(u, v) == distance[v].
+ */
+class ShortestPathTree {
+  static final int UNREACHABLE = Integer.MAX_VALUE;
+
+  final AdjacencyIndex graph;
+  final int source;
+  final int[] distance;
+  // previous router on one shortest path from source, -1 for the source and unreachable routers
+  final int[] predecessor;
+  // first router after the source on the predecessor path of every router, built on first use
+  private volatile int[] firstHops;
+
+  private ShortestPathTree(AdjacencyIndex graph, int source, int[] distance, int[] predecessor) {
+    this.graph = graph;
+    this.source = source;
+    this.distance = distance;
+    this.predecessor = predecessor;
+  }
+
+  /**
+   * Dijkstra's algorithm over the index, O((V + E) log V)
+   *
+   * @param graph  to run on
+   * @param source id of the router the tree is rooted at
+   * @return the shortest path tree
+   */
+  static ShortestPathTree compute(AdjacencyIndex graph, int source) {
+    int n = graph.size();
+    int[] distance = new int[n];
+    int[] predecessor = new int[n];
+    Arrays.fill(distance, UNREACHABLE);
+    Arrays.fill(predecessor, -1);
+
+    IndexedMinHeap heap = new IndexedMinHeap(n);
+    distance[source] = 0;
+    heap.push(source, 0);
+    relax(graph, heap, distance, predecessor);
+    return new ShortestPathTree(graph, source, distance, predecessor);
+  }
+
+  /**
+   * Incremental SPF after the links of a single router changed. Only the routers whose shortest
+   * path went through a removed or more expensive link are recomputed, improvements brought by
+   * new or cheaper links are propagated from where they start.
+   *
+   * @param previous    tree computed before the change, left untouched
+   * @param graph       previous graph with the new links of the originator, see
+   *                    {@link AdjacencyIndex#withLinks}
+   * @param originator  id of the router whose links changed
+   * @param maxAffected largest number of routers to recompute before giving up
+   * @return the updated tree, or null if more than maxAffected routers lost their path and a
+   *     full SPF is cheaper
+   */
+  static ShortestPathTree incremental(ShortestPathTree previous, AdjacencyIndex graph,
+      int originator, int maxAffected) {
+    int n = graph.size();
+    long[] oldLinks = previous.graph.out[originator];
+    int[] distance = previous.distance.clone();
+    int[] predecessor = previous.predecessor.clone();
+    long[] newLinks = graph.out[originator];
+
+    // Routers that reached the originator's removed or costlier links through the tree lose
+    // their path, together with everything below them
+    boolean[] affected = new boolean[n];
+    int[] queue = new int[n];
+    int tail = 0;
+    for (long link : oldLinks) {
+      int to = AdjacencyIndex.target(link);
+      if (predecessor[to] != originator || affected[to]) {
+        continue;
+      }
+      int newCost = AdjacencyIndex.costTo(newLinks, to);
+      if (newCost < 0 || newCost > AdjacencyIndex.costTo(oldLinks, to)) {
+        if (tail == maxAffected) {
+          return null;
+        }
+        affected[to] = true;
+        queue[tail++] = to;
+      }
+    }
+    for (int head = 0; head < tail; head++) {
+      int current = queue[head];
+      for (long link : graph.out[current]) {
+        int child = AdjacencyIndex.target(link);
+        if (predecessor[child] == current && !affected[child]) {
+          if (tail == maxAffected) {
+            return null;
+          }
+          affected[child] = true;
+          queue[tail++] = child;
+        }
+      }
+    }
+
+    IndexedMinHeap heap = new IndexedMinHeap(n);
+    for (int i = 0; i < tail; i++) {
+      distance[queue[i]] = UNREACHABLE;
+      predecessor[queue[i]] = -1;
+    }
+    // Reattach the affected routers to the best unaffected neighbor
+    for (int i = 0; i < tail; i++) {
+      int current = queue[i];
+      for (long link : graph.in[current]) {
+        int from = AdjacencyIndex.target(link);
+        if (!affected[from] && distance[from] != UNREACHABLE) {
+          int alt = distance[from] + AdjacencyIndex.cost(link);
+          if (alt < distance[current]) {
+            distance[current] = alt;
+            predecessor[current] = from;
+          }
+        }
+      }
+      if (distance[current] != UNREACHABLE) {
+        heap.push(current, distance[current]);
+      }
+    }
+    // New or cheaper links of the originator may shorten paths
+    if (distance[originator] != UNREACHABLE) {
+      for (long link : newLinks) {
+        int to = AdjacencyIndex.target(link);
+        int alt = distance[originator] + AdjacencyIndex.cost(link);
+        if (alt < distance[to]) {
+          distance[to] = alt;
+          predecessor[to] = originator;
+          heap.push(to, alt);
+        }
+      }
+    }
+
+    relax(graph, heap, distance, predecessor);
+    return new ShortestPathTree(graph, previous.source, distance, predecessor);
+  }
+
+  /**
+   * Dijkstra's main loop, runs until the heap is empty
+   */
+  private static void relax(AdjacencyIndex graph, IndexedMinHeap heap, int[] distance,
+      int[] predecessor) {
+    while (!heap.isEmpty()) {
+      int current = heap.pop();
+      for (long link : graph.out[current]) {
+        int neighbor = AdjacencyIndex.target(link);
+        int alt = distance[current] + AdjacencyIndex.cost(link);
+        if (alt < distance[neighbor]) {
+          distance[neighbor] = alt;
+          predecessor[neighbor] = current;
+          heap.push(neighbor, alt);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param id of the destination router
+   * @return routers on one shortest path from the source to id, both included, or null if the
+   *     destination cannot be reached
+   */
+  List<String> pathTo(int id) {
+    if (distance[id] == UNREACHABLE) {
+      return null;
+    }
+    LinkedList<String> path = new LinkedList<>();
+    for (int hop = id; hop != -1; hop = predecessor[hop]) {
+      path.addFirst(graph.name(hop));
+    }
+    return path;
+  }
+
+  /**
+   * @param id    of the destination router
+   * @param limit largest number of paths to return
+   * @return every shortest path from the source to id (up to limit), empty if the destination
+   *     cannot be reached
+   */
+  List<List<String>> equalCostPathsTo(int id, int limit) {
+    List<List<String>> paths = new ArrayList<>();
+    if (distance[id] != UNREACHABLE) {
+      collectPaths(id, new LinkedList<>(), paths, limit);
+    }
+    return paths;
+  }
+
+  /**
+   * @param id of the destination router
+   * @return ids of the neighbors of the source that start a shortest path to id, empty if the
+   *     destination is the source itself or cannot be reached
+   */
+  int[] nextHops(int id) {
+    if (distance[id] == UNREACHABLE || id == source) {
+      return new int[0];
+    }
+    // Walk the equal-cost predecessors back towards the source
+    boolean[] seen = new boolean[graph.size()];
+    int[] queue = new int[graph.size()];
+    int[] hops = new int[graph.size()];
+    int tail = 0;
+    int count = 0;
+    queue[tail++] = id;
+    seen[id] = true;
+    for (int head = 0; head < tail; head++) {
+      int current = queue[head];
+      boolean isHop = false;
+      for (long link : graph.in[current]) {
+        int from = AdjacencyIndex.target(link);
+        if (!isPredecessor(from, current, link)) {
+          continue;
+        }
+        if (from == source) {
+          // Parallel links from the source would otherwise list the same hop twice
+          if (!isHop) {
+            isHop = true;
+            hops[count++] = current;
+          }
+        } else if (!seen[from]) {
+          seen[from] = true;
+          queue[tail++] = from;
+        }
+      }
+    }
+    return Arrays.copyOf(hops, count);
+  }
+
+  /**
+   * Next hop used for forwarding, one per destination so that packets to a destination all
+   * take the same path. The whole table is built once per tree, in O(V), then every lookup is an
+   * array access.
+   *
+   * @param id of the destination router
+   * @return id of the neighbor of the source on the predecessor path to id, -1 if the
+   *     destination is the source itself or cannot be reached
+   */
+  int firstHop(int id) {
+    int[] hops = firstHops;
+    if (hops == null) {
+      hops = buildFirstHops();
+      firstHops = hops;
+    }
+    return hops[id];
+  }
+
+  private int[] buildFirstHops() {
+    int n = predecessor.length;
+    int[] hops = new int[n];
+    boolean[] done = new boolean[n];
+    // routers on the way up to one whose hop is known, they all share it
+    int[] stack = new int[n];
+    for (int id = 0; id < n; id++) {
+      int depth = 0;
+      int current = id;
+      while (!done[current] && current != source && predecessor[current] != -1
+          && predecessor[current] != source) {
+        stack[depth++] = current;
+        current = predecessor[current];
+      }
+      int hop;
+      if (done[current]) {
+        hop = hops[current];
+      } else if (current == source || predecessor[current] == -1) {
+        hop = -1;
+      } else {
+        hop = current;
+      }
+      done[current] = true;
+      hops[current] = hop;
+      while (depth > 0) {
+        int below = stack[--depth];
+        done[below] = true;
+        hops[below] = hop;
+      }
+    }
+    return hops;
+  }
+
+  private void collectPaths(int hop, LinkedList<String> suffix, List<List<String>> paths,
+      int limit) {
+    suffix.addFirst(graph.name(hop));
+    if (hop == source) {
+      paths.add(new ArrayList<>(suffix));
+    } else {
+      for (long link : graph.in[hop]) {
+        if (paths.size() >= limit) {
+          break;
+        }
+        if (isPredecessor(AdjacencyIndex.target(link), hop, link)) {
+          collectPaths(AdjacencyIndex.target(link), suffix, paths, limit);
+        }
+      }
+    }
+    suffix.removeFirst();
+  }
+
+  private boolean isPredecessor(int from, int to, long link) {
+    return distance[from] != UNREACHABLE
+        && distance[from] + AdjacencyIndex.cost(link) == distance[to];
+  }
+}
@@ -0,0 +1,217 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import socs.network.message.SOSPFPacket;
+
+/**
+ * Neighbor connection over a TCP socket. Every packet is written as a single frame: a 4-byte
+ * length followed by the packet in the binary format of {@link SOSPFPacket#encode}, so the same
+ * socket can carry the HELLO handshake and every later LSA update.
+ * <p/>
+ * The channel is non-blocking and owned by a {@link PacketReactor}: reads are done by the reactor
+ * thread, writes are attempted directly by the sender and handed over to the reactor when the
+ * socket buffer is full.
+ */
+class SocketNeighborChannel extends NeighborChannel {
+
+  // upper bound on a single frame, protects against reading garbage as a length
+  static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+  private final PacketReactor reactor;
+  private final SocketChannel socket;
+  private final PacketHandler handler;
+  // keeps the packets of this channel ordered while handlers run on the shared pool
+  private final Executor inbound;
+
+  private final Queue<ByteBuffer> pendingWrites = new ArrayDeque<>();
+  private ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+  private SelectionKey key;
+  private volatile boolean closed;
+  private final CountDownLatch closedLatch = new CountDownLatch(1);
+
+  SocketNeighborChannel(PacketReactor reactor, SocketChannel socket, PacketHandler handler,
+      Executor inbound) {
+    this.reactor = reactor;
+    this.socket = socket;
+    this.handler = handler;
+    this.inbound = inbound;
+  }
+
+  @Override
+  public void send(SOSPFPacket packet) throws IOException {
+    int length = packet.encodedSize();
+    ByteBuffer frame = ByteBuffer.allocate(4 + length);
+    frame.putInt(length);
+    packet.encode(frame);
+    frame.flip();
+    reactor.countSent(frame.remaining());
+
+    synchronized (pendingWrites) {
+      if (closed) {
+        throw new IOException("Channel closed");
+      }
+      if (pendingWrites.isEmpty()) {
+        try {
+          socket.write(frame);
+        } catch (IOException e) {
+          close();
+          throw e;
+        }
+        if (!frame.hasRemaining()) {
+          return;
+        }
+      }
+      pendingWrites.add(frame);
+    }
+    reactor.requestWrite(this);
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Flush queued frames, signal end of stream and wait for the remote end to close its side.
+   * Closing a socket that still has unread data makes TCP reset the connection, which can throw
+   * away frames the neighbor has not read yet.
+   */
+  @Override
+  public void shutdown(long timeoutMillis) {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    try {
+      synchronized (pendingWrites) {
+        while (!pendingWrites.isEmpty() && !closed) {
+          long remaining = deadline - System.currentTimeMillis();
+          if (remaining <= 0) {
+            break;
+          }
+          pendingWrites.wait(remaining);
+        }
+      }
+      if (!closed) {
+        socket.shutdownOutput();
+        closedLatch.await(Math.max(0, deadline - System.currentTimeMillis()),
+            TimeUnit.MILLISECONDS);
+      }
+    } catch (IOException e) {
+      // The connection is already gone, nothing left to flush
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    close();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    closedLatch.countDown();
+    synchronized (pendingWrites) {
+      pendingWrites.notifyAll();
+    }
+    if (key != null) {
+      key.cancel();
+    }
+    try {
+      socket.close();
+    } catch (IOException e) {
+      System.err.println("Failed to close socket: " + e.getMessage());
+    }
+  }
+
+  SocketChannel socket() {
+    return socket;
+  }
+
+  void setKey(SelectionKey key) {
+    this.key = key;
+  }
+
+  SelectionKey key() {
+    return key;
+  }
+
+  /**
+   * Called by the reactor when the socket is readable. Splits the stream into frames and hands
+   * each complete one to the handler.
+   *
+   * @return false if the remote end closed the connection
+   */
+  boolean onReadable() throws IOException {
+    int read = socket.read(readBuffer);
+    if (read < 0) {
+      return false;
+    }
+
+    readBuffer.flip();
+    while (readBuffer.remaining() >= 4) {
+      int length = readBuffer.getInt(readBuffer.position());
+      if (length < 0 || length > MAX_FRAME_SIZE) {
+        throw new IOException("Invalid frame length " + length);
+      }
+      if (readBuffer.remaining() < 4 + length) {
+        break;
+      }
+      readBuffer.getInt();
+      ByteBuffer payload = readBuffer.slice();
+      payload.limit(length);
+      readBuffer.position(readBuffer.position() + length);
+      try {
+        SOSPFPacket packet = SOSPFPacket.decode(payload);
+        inbound.execute(() -> deliver(packet));
+      } catch (IOException e) {
+        // The frame length is intact, so skipping this packet keeps the stream usable
+        System.err.println("Dropping malformed packet: " + e.getMessage());
+      }
+    }
+    readBuffer.compact();
+
+    // Make room for a frame larger than the buffer
+    if (!readBuffer.hasRemaining()) {
+      ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+      readBuffer.flip();
+      larger.put(readBuffer);
+      readBuffer = larger;
+    }
+    return true;
+  }
+
+  /**
+   * Called by the reactor when the socket can take more bytes
+   *
+   * @return true once every queued frame has been written
+   */
+  boolean onWritable() throws IOException {
+    synchronized (pendingWrites) {
+      ByteBuffer frame;
+      while ((frame = pendingWrites.peek()) != null) {
+        socket.write(frame);
+        if (frame.hasRemaining()) {
+          return false;
+        }
+        pendingWrites.poll();
+      }
+      pendingWrites.notifyAll();
+      return true;
+    }
+  }
+
+  private void deliver(SOSPFPacket packet) {
+    // Packets read before the connection closed are still delivered
+    try {
+      handler.onPacket(this, packet);
+    } catch (RuntimeException e) {
+      System.err.println("Packet handler failed: " + e.getMessage());
+      e.printStackTrace();
+    }
+  }
+}
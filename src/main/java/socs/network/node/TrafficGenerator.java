@@ -0,0 +1,150 @@
+package socs.network.node;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+import socs.network.message.SOSPFPacket;
+
+/**
+ * One flow of DATA packets from this router to a destination, sent at a fixed rate. The
+ * destination echoes every packet back, so latencies are round trips measured on our own clock
+ * and a packet missing its echo once the flow has drained is counted as dropped, whichever
+ * direction lost it.
+ */
+public class TrafficGenerator {
+  // how long echoes are waited for after the last packet went out
+  static final long DRAIN_TIMEOUT_MS = 2000;
+
+  private final String sourceIP;
+  private final String destinationIP;
+  private final int packets;
+  private final int rate;
+  private final int payloadBytes;
+  private final Predicate<SOSPFPacket> forwarder;
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+  // sequences echoed so far, duplicates are not counted twice
+  private final BitSet echoed = new BitSet();
+  private int received;
+
+  /**
+   * @param sourceIP      simulated IP of this router
+   * @param destinationIP simulated IP of the router echoing the packets
+   * @param packets       number of packets to send
+   * @param rate          packets per second, 0 to send as fast as the forwarding allows
+   * @param payloadBytes  size of each packet's payload
+   * @param forwarder     sends a packet to the next hop, false if it was dropped here
+   */
+  TrafficGenerator(String sourceIP, String destinationIP, int packets, int rate,
+      int payloadBytes, Predicate<SOSPFPacket> forwarder) {
+    if (packets < 1 || rate < 0) {
+      throw new IllegalArgumentException("Packet count must be positive and rate not negative");
+    }
+    if (payloadBytes < 0 || payloadBytes > SOSPFPacket.MAX_PAYLOAD) {
+      throw new IllegalArgumentException("Payload must be between 0 and "
+          + SOSPFPacket.MAX_PAYLOAD + " bytes");
+    }
+    this.sourceIP = sourceIP;
+    this.destinationIP = destinationIP;
+    this.packets = packets;
+    this.rate = rate;
+    this.payloadBytes = payloadBytes;
+    this.forwarder = forwarder;
+  }
+
+  /**
+   * Send every packet, paced to the rate, then wait for the echoes. Blocks the calling thread.
+   *
+   * @return what came back
+   */
+  Report run() throws InterruptedException {
+    byte[] payload = new byte[payloadBytes];
+    long intervalNanos = rate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / rate;
+    long begin = System.nanoTime();
+    int sent = 0;
+    for (int sequence = 0; sequence < packets; sequence++) {
+      long due = begin + sequence * intervalNanos;
+      long wait;
+      while ((wait = due - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      if (forwarder.test(SOSPFPacket.createData(sourceIP, destinationIP, sequence, payload))) {
+        sent++;
+      }
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MS);
+    synchronized (this) {
+      long wait;
+      while (received < sent && (wait = deadline - System.nanoTime()) > 0) {
+        TimeUnit.NANOSECONDS.timedWait(this, wait);
+      }
+      return new Report(packets, received, System.nanoTime() - begin, payloadBytes, latency);
+    }
+  }
+
+  /**
+   * @param echo of one of our packets, sent back by the destination
+   */
+  synchronized void echoed(SOSPFPacket echo) {
+    if (echo.sequence < 0 || echo.sequence >= packets || echoed.get(echo.sequence)) {
+      return;
+    }
+    echoed.set(echo.sequence);
+    latency.record(System.nanoTime() - echo.sentNanos);
+    received++;
+    notifyAll();
+  }
+
+  /**
+   * Outcome of a flow, as printed by the send command
+   */
+  public static final class Report {
+    public final int sent;
+    public final int received;
+    public final long elapsedNanos;
+    private final int payloadBytes;
+    private final LatencyHistogram latency;
+
+    Report(int sent, int received, long elapsedNanos, int payloadBytes,
+        LatencyHistogram latency) {
+      this.sent = sent;
+      this.received = received;
+      this.elapsedNanos = elapsedNanos;
+      this.payloadBytes = payloadBytes;
+      this.latency = latency;
+    }
+
+    public int dropped() {
+      return sent - received;
+    }
+
+    /**
+     * @return echoed packets per second over the whole flow, drain included
+     */
+    public double packetsPerSecond() {
+      return elapsedNanos == 0 ? 0 : received * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @param fraction between 0 and 1, e.g. 0.99
+     * @return round trip latency in microseconds, see {@link LatencyHistogram#percentileMicros}
+     */
+    public long latencyMicros(double fraction) {
+      return latency.percentileMicros(fraction);
+    }
+
+    @Override
+    public String toString() {
+      double seconds = elapsedNanos / 1e9;
+      return String.format("sent %d, received %d, dropped %d (%.1f%%) in %.2f s%n"
+              + "throughput: %.1f packets/s, %.1f kbit/s of payload%n"
+              + "round trip: p50 <=%dus, p90 <=%dus, p99 <=%dus, max %dus%n",
+          sent, received, dropped(), 100.0 * dropped() / sent, seconds, packetsPerSecond(),
+          packetsPerSecond() * payloadBytes * 8 / 1000, latency.percentileMicros(0.5),
+          latency.percentileMicros(0.9), latency.percentileMicros(0.99), latency.maxMicros());
+    }
+  }
+}
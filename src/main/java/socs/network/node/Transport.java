@@ -0,0 +1,60 @@
+package socs.network.node;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Carries packets between routers. {@link PacketReactor} uses TCP sockets,
+ * {@link MemoryTransport} hands packets over inside the JVM. A transport can be shared by several
+ * routers of the same process, each listening on its own port.
+ */
+public interface Transport extends Closeable {
+
+  /**
+   * Accept connections on the given port, every accepted connection delivers to handler
+   *
+   * @param port    to bind to
+   * @param handler receiving the packets of accepted connections
+   * @throws IOException if the port cannot be bound
+   */
+  void listen(short port, PacketHandler handler) throws IOException;
+
+  /**
+   * Open a new channel to the router listening on the given process address. Blocks until the
+   * connection is established.
+   *
+   * @param processIP   of the remote router
+   * @param processPort of the remote router
+   * @param handler     receiving the packets sent back on this connection
+   * @return connected channel
+   * @throws IOException if the connection cannot be established
+   */
+  NeighborChannel connect(String processIP, short processPort, PacketHandler handler)
+      throws IOException;
+
+  /**
+   * @return executor shared by the packet handlers, for short tasks that must not block the
+   *     caller
+   */
+  ExecutorService workers();
+
+  /**
+   * @return scheduler shared by the timers of the routers, tasks must be short and not block
+   */
+  ScheduledExecutorService timers();
+
+  /**
+   * @return number of packets sent over this transport
+   */
+  long packetsSent();
+
+  /**
+   * @return number of bytes sent over this transport, framing included
+   */
+  long bytesSent();
+
+  @Override
+  void close();
+}
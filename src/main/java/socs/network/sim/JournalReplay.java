@@ -0,0 +1,146 @@
+package socs.network.sim;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+
+import socs.network.message.LSA;
+import socs.network.node.LinkStateDatabase;
+import socs.network.node.LsaJournal;
+
+/**
+ * Replays the journal of a router, see {@link LsaJournal}, into a fresh link state database as
+ * fast as it can be read: to rebuild the database the router had at some point in time, or to
+ * measure route computation against the churn the router really saw.
+ */
+public class JournalReplay {
+
+  private final String routerIP;
+  private final LinkStateDatabase lsd;
+  private final long untilMillis;
+  private final boolean routes;
+
+  private long events;
+  private long accepted;
+  private long lastMillis;
+  // time spent computing the routes after each accepted event, when asked to
+  private long routeNanos;
+  private long maxRouteNanos;
+
+  /**
+   * @param routerIP    simulated IP of the router whose journal is replayed
+   * @param maxAge      of the LSAs, as configured on the router
+   * @param untilMillis events after this wall clock time are skipped
+   * @param routes      true to compute the routes after each accepted event
+   */
+  public JournalReplay(String routerIP, int maxAge, long untilMillis, boolean routes) {
+    this.routerIP = routerIP;
+    lsd = new LinkStateDatabase(routerIP, maxAge);
+    this.untilMillis = untilMillis;
+    this.routes = routes;
+  }
+
+  /**
+   * @param segments of the journal, oldest first
+   */
+  public void replay(List<Path> segments) throws IOException {
+    for (Path segment : segments) {
+      LsaJournal.read(segment, this::apply);
+    }
+  }
+
+  private void apply(LsaJournal.Entry entry) {
+    if (entry.timeMillis > untilMillis) {
+      return;
+    }
+    events++;
+    lastMillis = entry.timeMillis;
+    // Purges were recorded as copies at max age, they purge here too
+    boolean local = entry.lsa.linkStateID.equals(routerIP) && entry.type == LsaJournal.INSTALLED;
+    boolean installed = local ? lsd.restoreLocalLSA(entry.lsa)
+        : lsd.syncLinkStateDatabase(entry.lsa, entry.neighborIP);
+    if (!installed) {
+      return;
+    }
+    accepted++;
+    if (routes) {
+      long begin = System.nanoTime();
+      // Any lookup brings the shortest path tree and the forwarding table up to date
+      lsd.getNextHop(routerIP);
+      long elapsed = System.nanoTime() - begin;
+      routeNanos += elapsed;
+      maxRouteNanos = Math.max(maxRouteNanos, elapsed);
+    }
+  }
+
+  public LinkStateDatabase getLinkStateDatabase() {
+    return lsd;
+  }
+
+  public long events() {
+    return events;
+  }
+
+  public long accepted() {
+    return accepted;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.out.println("usage: program journal_directory [--until epoch_ms|ISO-8601] "
+          + "[--max-age seconds] [--routes true|false] [--dump true|false]");
+      System.exit(1);
+    }
+    long until = Long.MAX_VALUE;
+    int maxAge = LSA.MAX_AGE;
+    boolean routes = false;
+    boolean dump = false;
+    for (int i = 1; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--until":
+          until = args[i + 1].chars().allMatch(Character::isDigit)
+              ? Long.parseLong(args[i + 1]) : Instant.parse(args[i + 1]).toEpochMilli();
+          break;
+        case "--max-age":
+          maxAge = Integer.parseInt(args[i + 1]);
+          break;
+        case "--routes":
+          routes = Boolean.parseBoolean(args[i + 1]);
+          break;
+        case "--dump":
+          dump = Boolean.parseBoolean(args[i + 1]);
+          break;
+        default:
+          System.out.println("Unknown option " + args[i]);
+          System.exit(1);
+      }
+    }
+
+    List<Path> segments = LsaJournal.segments(Paths.get(args[0]));
+    if (segments.isEmpty()) {
+      System.out.println("No journal segments in " + args[0]);
+      System.exit(1);
+    }
+    String routerIP = LsaJournal.owner(segments.get(0));
+    JournalReplay replay = new JournalReplay(routerIP, maxAge, until, routes);
+    long begin = System.nanoTime();
+    replay.replay(segments);
+    long elapsed = System.nanoTime() - begin;
+
+    System.out.printf("router %s, %d segments, %d events, %d accepted, last at %s%n", routerIP,
+        segments.size(), replay.events, replay.accepted,
+        replay.events == 0 ? "-" : Instant.ofEpochMilli(replay.lastMillis));
+    System.out.printf("replayed in %d ms, %.0f events/s%n", elapsed / 1_000_000,
+        elapsed == 0 ? 0 : replay.events * 1e9 / elapsed);
+    if (routes && replay.accepted > 0) {
+      System.out.printf("routes: mean %d us, max %d us per accepted event%n",
+          replay.routeNanos / replay.accepted / 1000, replay.maxRouteNanos / 1000);
+    }
+    System.out.printf("database: %d LSAs%n", replay.lsd.size());
+    if (dump) {
+      System.out.print(replay.lsd);
+    }
+  }
+}
@@ -0,0 +1,335 @@
+package socs.network.sim;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import socs.network.message.LSA;
+import socs.network.node.ExecutionMode;
+import socs.network.node.MemoryTransport;
+import socs.network.node.PacketReactor;
+import socs.network.node.Router;
+import socs.network.node.Transport;
+import socs.network.util.Configuration;
+
+/**
+ * Runs every router of a {@link Topology} inside one JVM over a shared transport, starts them
+ * all at once and measures how long it takes for every link state database to hold the newest
+ * LSA of every router.
+ */
+public class Simulation {
+
+  // how often convergence is checked
+  private static final long POLL_INTERVAL_MS = 10;
+  // threads calling start, each one blocks until its handshakes complete
+  private static final int START_THREADS = 64;
+
+  private final Topology topology;
+  private final Transport transport;
+  private final long floodWindowMillis;
+  private final int ports;
+  private boolean deltaLSAs;
+  private long ackDelayMillis = -1;
+  private Path journalDirectory;
+  private final List<Router> routers = new ArrayList<>();
+  private int rejectedLinks;
+
+  /**
+   * @param topology          to simulate
+   * @param transport         shared by every router, left open by {@link #shutdown()}
+   * @param floodWindowMillis flood window of the routers, negative for the default
+   */
+  public Simulation(Topology topology, Transport transport, long floodWindowMillis) {
+    this(topology, transport, floodWindowMillis, -1);
+  }
+
+  /**
+   * @param topology          to simulate
+   * @param transport         shared by every router, left open by {@link #shutdown()}
+   * @param floodWindowMillis flood window of the routers, negative for the default
+   * @param ports             of every router, negative for the default
+   */
+  public Simulation(Topology topology, Transport transport, long floodWindowMillis, int ports) {
+    this.topology = topology;
+    this.transport = transport;
+    this.floodWindowMillis = floodWindowMillis;
+    this.ports = ports;
+  }
+
+  /**
+   * @param deltaLSAs true to have the routers built afterwards flood delta LSAs
+   */
+  public void setDeltaLSAs(boolean deltaLSAs) {
+    this.deltaLSAs = deltaLSAs;
+  }
+
+  /**
+   * @param ackDelayMillis ack delay of the routers built afterwards, negative for the default
+   */
+  public void setAckDelayMillis(long ackDelayMillis) {
+    this.ackDelayMillis = ackDelayMillis;
+  }
+
+  /**
+   * @param journalDirectory the routers built afterwards journal their databases in a
+   *                         subdirectory named after their simulated IP, null for none
+   */
+  public void setJournalDirectory(Path journalDirectory) {
+    this.journalDirectory = journalDirectory;
+  }
+
+  public static final class Result {
+    public final boolean converged;
+    public final long elapsedMillis;
+    public final long packets;
+    public final long bytes;
+    // routers still missing an LSA or holding an old one
+    public final int unconverged;
+
+    Result(boolean converged, long elapsedMillis, long packets, long bytes, int unconverged) {
+      this.converged = converged;
+      this.elapsedMillis = elapsedMillis;
+      this.packets = packets;
+      this.bytes = bytes;
+      this.unconverged = unconverged;
+    }
+  }
+
+  /**
+   * Create the routers and attach every link at its first router
+   *
+   * @throws IOException if a router cannot listen on its port
+   */
+  public void build() throws IOException {
+    for (Topology.RouterSpec spec : topology.routers()) {
+      Configuration config = new Configuration();
+      config.addEntry("socs.network.router.ip", spec.simulatedIP);
+      config.addEntry("socs.network.router.port", Short.toString(spec.processPort));
+      config.addEntry("socs.network.router.quiet", "true");
+      if (floodWindowMillis >= 0) {
+        config.addEntry("socs.network.router.floodWindowMs", Long.toString(floodWindowMillis));
+      }
+      if (ports > 0) {
+        config.addEntry("socs.network.router.ports", Integer.toString(ports));
+      }
+      if (deltaLSAs) {
+        config.addEntry("socs.network.router.deltaLSAs", "true");
+      }
+      if (ackDelayMillis >= 0) {
+        config.addEntry("socs.network.router.ackDelayMs", Long.toString(ackDelayMillis));
+      }
+      if (journalDirectory != null) {
+        config.addEntry("socs.network.router.journal",
+            journalDirectory.resolve(spec.simulatedIP).toString());
+      }
+      routers.add(new Router(config, transport));
+    }
+    for (Topology.LinkSpec link : topology.links()) {
+      Topology.RouterSpec to = topology.routers().get(link.to);
+      if (!routers.get(link.from).attach("127.0.0.1", to.processPort, to.simulatedIP,
+          link.cost)) {
+        rejectedLinks++;
+      }
+    }
+  }
+
+  /**
+   * @return links that could not be attached, e.g. because a router ran out of ports
+   */
+  public int rejectedLinks() {
+    return rejectedLinks;
+  }
+
+  public List<Router> routers() {
+    return routers;
+  }
+
+  /**
+   * Start every router and wait for the link state databases to converge
+   *
+   * @param timeoutMillis upper bound on the time spent waiting
+   * @return how long convergence took and what it cost
+   */
+  public Result run(long timeoutMillis) throws InterruptedException {
+    long packetsBefore = transport.packetsSent();
+    long bytesBefore = transport.bytesSent();
+    long begin = System.nanoTime();
+    long deadline = begin + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+    ExecutorService starters = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(START_THREADS, routers.size())));
+    CountDownLatch started = new CountDownLatch(routers.size());
+    for (Router router : routers) {
+      starters.execute(() -> {
+        try {
+          router.start();
+        } finally {
+          started.countDown();
+        }
+      });
+    }
+    starters.shutdown();
+
+    int unconverged = routers.size();
+    while (System.nanoTime() < deadline) {
+      // Handshakes still running can change LSAs that look converged
+      if (started.getCount() == 0) {
+        unconverged = countUnconverged();
+        if (unconverged == 0) {
+          break;
+        }
+      }
+      Thread.sleep(POLL_INTERVAL_MS);
+    }
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+    return new Result(unconverged == 0, elapsed, transport.packetsSent() - packetsBefore,
+        transport.bytesSent() - bytesBefore, unconverged);
+  }
+
+  /**
+   * @return number of routers whose database lacks the newest LSA of some router
+   */
+  int countUnconverged() {
+    int[] newest = new int[routers.size()];
+    for (int i = 0; i < routers.size(); i++) {
+      Router router = routers.get(i);
+      newest[i] = router.getLinkStateDatabase().getLSA(router.getSimulatedIP()).lsaSeqNumber;
+    }
+    int unconverged = 0;
+    for (Router router : routers) {
+      for (int i = 0; i < routers.size(); i++) {
+        LSA lsa = router.getLinkStateDatabase().getLSA(routers.get(i).getSimulatedIP());
+        if (lsa == null || lsa.lsaSeqNumber != newest[i]) {
+          unconverged++;
+          break;
+        }
+      }
+    }
+    return unconverged;
+  }
+
+  /**
+   * Quit every router
+   */
+  public void shutdown() {
+    for (Router router : routers) {
+      router.quit();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.out.println("usage: program topology_path [--transport memory|socket] "
+          + "[--timeout seconds] [--workers threads] [--threads platform|virtual] "
+          + "[--flood-window ms] [--ports count] [--traffic packets] [--rate packets/s] "
+          + "[--delta-lsas true|false] [--journal directory]");
+      System.exit(1);
+    }
+    String transportName = "memory";
+    long timeoutSeconds = 60;
+    int workers = Runtime.getRuntime().availableProcessors();
+    ExecutionMode mode = ExecutionMode.PLATFORM;
+    long floodWindow = -1;
+    int ports = -1;
+    int trafficPackets = 0;
+    int trafficRate = 1000;
+    boolean deltaLSAs = false;
+    Path journal = null;
+    for (int i = 1; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--transport":
+          transportName = args[i + 1];
+          break;
+        case "--timeout":
+          timeoutSeconds = Long.parseLong(args[i + 1]);
+          break;
+        case "--workers":
+          workers = Integer.parseInt(args[i + 1]);
+          break;
+        case "--threads":
+          mode = ExecutionMode.parse(args[i + 1]);
+          break;
+        case "--flood-window":
+          floodWindow = Long.parseLong(args[i + 1]);
+          break;
+        case "--ports":
+          ports = Integer.parseInt(args[i + 1]);
+          break;
+        case "--traffic":
+          trafficPackets = Integer.parseInt(args[i + 1]);
+          break;
+        case "--rate":
+          trafficRate = Integer.parseInt(args[i + 1]);
+          break;
+        case "--delta-lsas":
+          deltaLSAs = Boolean.parseBoolean(args[i + 1]);
+          break;
+        case "--journal":
+          journal = Paths.get(args[i + 1]);
+          break;
+        default:
+          System.out.println("Unknown option " + args[i]);
+          System.exit(1);
+      }
+    }
+
+    Topology topology = Topology.parse(Paths.get(args[0]));
+    Transport transport = transportName.equals("socket")
+        ? new PacketReactor(mode, workers) : new MemoryTransport(mode, workers);
+    Simulation simulation = new Simulation(topology, transport, floodWindow, ports);
+    simulation.setDeltaLSAs(deltaLSAs);
+    simulation.setJournalDirectory(journal);
+    simulation.build();
+    System.out.printf("routers: %d, links: %d, rejected links: %d, transport: %s, threads: %s%n",
+        topology.routers().size(), topology.links().size(), simulation.rejectedLinks(),
+        transportName, mode.name().toLowerCase(Locale.ROOT));
+
+    Result result = simulation.run(TimeUnit.SECONDS.toMillis(timeoutSeconds));
+    if (result.converged) {
+      System.out.printf("converged in %d ms%n", result.elapsedMillis);
+    } else {
+      System.out.printf("not converged after %d ms, %d routers behind%n", result.elapsedMillis,
+          result.unconverged);
+    }
+    System.out.printf("packets: %d, bytes: %d%n", result.packets, result.bytes);
+    long lsasSent = 0;
+    long lsasAccepted = 0;
+    long lsasDiscarded = 0;
+    long lsasRetransmitted = 0;
+    long deltasSent = 0;
+    long deltasRequested = 0;
+    for (Router router : simulation.routers()) {
+      lsasSent += router.getStats().getLsasSent();
+      lsasAccepted += router.getStats().getLsasAccepted();
+      lsasDiscarded += router.getStats().getLsasDiscarded();
+      lsasRetransmitted += router.getStats().getLsasRetransmitted();
+      deltasSent += router.getStats().getDeltasSent();
+      deltasRequested += router.getStats().getDeltasRequested();
+    }
+    System.out.printf("LSAs sent: %d, accepted: %d, discarded: %d, retransmitted: %d%n",
+        lsasSent, lsasAccepted, lsasDiscarded, lsasRetransmitted);
+    if (deltaLSAs) {
+      System.out.printf("deltas sent: %d, requested whole: %d%n", deltasSent, deltasRequested);
+    }
+
+    if (result.converged && trafficPackets > 0 && simulation.routers().size() > 1) {
+      // From the first router to the last one, across the topology for the generated shapes
+      Router source = simulation.routers().get(0);
+      Router destination = simulation.routers().get(simulation.routers().size() - 1);
+      System.out.printf("traffic %s -> %s: %s", source.getSimulatedIP(),
+          destination.getSimulatedIP(), source.send(destination.getSimulatedIP(), trafficPackets,
+              trafficRate, 64));
+    }
+
+    simulation.shutdown();
+    transport.close();
+    System.exit(result.converged ? 0 : 2);
+  }
+}
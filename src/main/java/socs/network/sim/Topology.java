@@ -0,0 +1,281 @@
+package socs.network.sim;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import socs.network.message.LinkDescription;
+
+/**
+ * Routers and links of a simulated network. Read from a description file, one directive per
+ * line, '#' starts a comment:
+ * <pre>
+ * router [Simulated IP] [Process Port]
+ * link [Simulated IP] [Simulated IP] [Cost (optional, default 1)]
+ * generate [ring|grid|random|scale_free] [Number of routers] [Seed (optional)]
+ * </pre>
+ * Each link is attached by its first router. Generated routers are named 10.x.y.z from 10.0.0.1
+ * and listen on consecutive ports from {@link #FIRST_GENERATED_PORT}.
+ */
+public class Topology {
+
+  public enum Shape {
+    RING, GRID, RANDOM, SCALE_FREE
+  }
+
+  public static final int FIRST_GENERATED_PORT = 1024;
+  // ports are signed shorts everywhere in the router
+  public static final int MAX_GENERATED_ROUTERS = Short.MAX_VALUE - FIRST_GENERATED_PORT + 1;
+
+  public static final class RouterSpec {
+    public final String simulatedIP;
+    public final short processPort;
+
+    RouterSpec(String simulatedIP, short processPort) {
+      this.simulatedIP = simulatedIP;
+      this.processPort = processPort;
+    }
+  }
+
+  public static final class LinkSpec {
+    // indexes in routers
+    public final int from;
+    public final int to;
+    public final int cost;
+
+    LinkSpec(int from, int to, int cost) {
+      this.from = from;
+      this.to = to;
+      this.cost = cost;
+    }
+  }
+
+  private final List<RouterSpec> routers = new ArrayList<>();
+  private final List<LinkSpec> links = new ArrayList<>();
+  private final Map<String, Integer> indexes = new HashMap<>();
+  // unordered pairs of routers already linked, packed as (smaller index << 32) | larger index
+  private final Set<Long> linked = new HashSet<>();
+
+  public List<RouterSpec> routers() {
+    return Collections.unmodifiableList(routers);
+  }
+
+  public List<LinkSpec> links() {
+    return Collections.unmodifiableList(links);
+  }
+
+  /**
+   * @param file topology description
+   * @return the topology described by the file
+   * @throws IOException              if the file cannot be read
+   * @throws IllegalArgumentException if a line is malformed
+   */
+  public static Topology parse(Path file) throws IOException {
+    Topology topology = new Topology();
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      int number = 0;
+      while ((line = reader.readLine()) != null) {
+        number++;
+        int comment = line.indexOf('#');
+        if (comment >= 0) {
+          line = line.substring(0, comment);
+        }
+        String[] words = line.trim().split("\\s+");
+        if (words[0].isEmpty()) {
+          continue;
+        }
+        try {
+          topology.apply(words);
+        } catch (RuntimeException e) {
+          throw new IllegalArgumentException(file + ":" + number + ": " + e.getMessage(), e);
+        }
+      }
+    }
+    return topology;
+  }
+
+  private void apply(String[] words) {
+    switch (words[0]) {
+      case "router":
+        expectArguments(words, 2, 2);
+        addRouter(words[1], Short.parseShort(words[2]));
+        break;
+      case "link":
+        expectArguments(words, 2, 3);
+        addLink(indexOf(words[1]), indexOf(words[2]),
+            words.length > 3 ? Integer.parseInt(words[3]) : LinkDescription.DEFAULT_COST);
+        break;
+      case "generate":
+        expectArguments(words, 2, 3);
+        generateInto(this, Shape.valueOf(words[1].toUpperCase()), Integer.parseInt(words[2]),
+            words.length > 3 ? Long.parseLong(words[3]) : 0);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown directive " + words[0]);
+    }
+  }
+
+  private static void expectArguments(String[] words, int min, int max) {
+    int count = words.length - 1;
+    if (count < min || count > max) {
+      throw new IllegalArgumentException(words[0] + " takes " + min
+          + (min == max ? "" : " to " + max) + " arguments");
+    }
+  }
+
+  private int indexOf(String simulatedIP) {
+    Integer index = indexes.get(simulatedIP);
+    if (index == null) {
+      throw new IllegalArgumentException("Unknown router " + simulatedIP);
+    }
+    return index;
+  }
+
+  /**
+   * @return index of the new router
+   */
+  int addRouter(String simulatedIP, short processPort) {
+    if (indexes.containsKey(simulatedIP)) {
+      throw new IllegalArgumentException("Duplicate router " + simulatedIP);
+    }
+    indexes.put(simulatedIP, routers.size());
+    routers.add(new RouterSpec(simulatedIP, processPort));
+    return routers.size() - 1;
+  }
+
+  /**
+   * @return false if the routers are the same or already linked
+   */
+  boolean addLink(int from, int to, int cost) {
+    if (from == to) {
+      return false;
+    }
+    long pair = (long) Math.min(from, to) << 32 | Math.max(from, to);
+    if (!linked.add(pair)) {
+      return false;
+    }
+    if (cost < 1 || cost > LinkDescription.MAX_COST) {
+      throw new IllegalArgumentException("Link cost must be between 1 and "
+          + LinkDescription.MAX_COST);
+    }
+    links.add(new LinkSpec(from, to, cost));
+    return true;
+  }
+
+  /**
+   * @param i index of a generated router
+   * @return simulated IP of the router, 10.0.0.1 for index 0
+   */
+  public static String generatedIP(int i) {
+    int n = i + 1;
+    return "10." + ((n >>> 16) & 0xFF) + "." + ((n >>> 8) & 0xFF) + "." + (n & 0xFF);
+  }
+
+  /**
+   * @param shape of the topology
+   * @param size  number of routers
+   * @param seed  for the random shapes
+   * @return generated topology, link costs between 1 and 10
+   */
+  public static Topology generate(Shape shape, int size, long seed) {
+    Topology topology = new Topology();
+    generateInto(topology, shape, size, seed);
+    return topology;
+  }
+
+  private static void generateInto(Topology topology, Shape shape, int size, long seed) {
+    if (size < 1 || topology.routers.size() + size > MAX_GENERATED_ROUTERS) {
+      throw new IllegalArgumentException("Cannot generate " + size + " routers");
+    }
+    int first = topology.routers.size();
+    for (int i = 0; i < size; i++) {
+      int index = first + i;
+      topology.addRouter(generatedIP(index), (short) (FIRST_GENERATED_PORT + index));
+    }
+
+    for (LinkSpec link : generateLinks(shape, size, seed)) {
+      topology.addLink(first + link.from, first + link.to, link.cost);
+    }
+  }
+
+  /**
+   * Links of a generated topology, without the routers: unlike {@link #generate} the size is
+   * not limited by the ports, for benchmarks working on LSAs directly
+   *
+   * @param shape of the topology
+   * @param size  number of routers
+   * @param seed  for the random shapes
+   * @return links between router indexes below size, link costs between 1 and 10
+   */
+  public static List<LinkSpec> generateLinks(Shape shape, int size, long seed) {
+    List<LinkSpec> links = new ArrayList<>();
+    Set<Long> linked = new HashSet<>();
+    Random random = new Random(seed);
+    switch (shape) {
+      case RING:
+        for (int i = 0; i < size; i++) {
+          link(links, linked, i, (i + 1) % size);
+        }
+        break;
+      case GRID:
+        int side = (int) Math.ceil(Math.sqrt(size));
+        for (int i = 0; i < size; i++) {
+          if ((i + 1) % side != 0 && i + 1 < size) {
+            link(links, linked, i, i + 1);
+          }
+          if (i + side < size) {
+            link(links, linked, i, i + side);
+          }
+        }
+        break;
+      case RANDOM:
+        // A ring keeps it connected, plus random chords for an average degree of 4
+        for (int i = 0; i < size; i++) {
+          link(links, linked, i, (i + 1) % size);
+          link(links, linked, i, random.nextInt(size));
+        }
+        break;
+      case SCALE_FREE:
+        // Barabasi-Albert, every new router attaches to 2 routers picked by degree
+        List<Integer> ends = new ArrayList<>();
+        for (int i = 1; i < size; i++) {
+          int count = Math.min(2, i);
+          for (int l = 0; l < count; l++) {
+            int target = ends.isEmpty() ? 0 : ends.get(random.nextInt(ends.size()));
+            if (link(links, linked, i, target)) {
+              ends.add(i);
+              ends.add(target);
+            }
+          }
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown shape " + shape);
+    }
+    return links;
+  }
+
+  /**
+   * @return false if the routers are the same or already linked
+   */
+  private static boolean link(List<LinkSpec> links, Set<Long> linked, int a, int b) {
+    if (a == b || !linked.add((long) Math.min(a, b) << 32 | Math.max(a, b))) {
+      return false;
+    }
+    // Same cost in both directions, derived from the pair so it does not depend on the order
+    int hash = (Math.min(a, b) * 31 + Math.max(a, b)) & 0x7FFFFFFF;
+    links.add(new LinkSpec(a, b, 1 + hash % 10));
+    return true;
+  }
+}
@@ -0,0 +1,39 @@
+package socs.network.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs submitted tasks one at a time, in submission order, on top of a shared executor. Used to
+ * keep the packets of a single connection ordered while many connections share a small pool.
+ */
+public class SerialExecutor implements Executor {
+  private final Queue<Runnable> tasks = new ArrayDeque<>();
+  private final Executor executor;
+  private Runnable active;
+
+  public SerialExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public synchronized void execute(final Runnable r) {
+    tasks.add(() -> {
+      try {
+        r.run();
+      } finally {
+        scheduleNext();
+      }
+    });
+    if (active == null) {
+      scheduleNext();
+    }
+  }
+
+  private synchronized void scheduleNext() {
+    if ((active = tasks.poll()) != null) {
+      executor.execute(active);
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package socs.network.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestSOSPFPacket {
+
+  private static LSA createLSA(String linkStateID, int numLinks) {
+    List<LinkDescription> links = new ArrayList<>();
+    links.add(new LinkDescription(linkStateID, -1));
+    for (int i = 0; i < numLinks; i++) {
+      links.add(new LinkDescription("10.0." + i + ".1", 5002 + i, 1 + i * 1000));
+    }
+    return new LSA(linkStateID, Integer.MIN_VALUE + 7, links);
+  }
+
+  private static SOSPFPacket createLSAUpdate(int numLinks) {
+    LSA lsa = createLSA("192.168.1.1", numLinks);
+
+    SOSPFPacket packet = new SOSPFPacket();
+    packet.srcProcessIP = "127.0.0.1";
+    packet.srcProcessPort = 5001;
+    packet.srcIP = "192.168.1.1";
+    packet.dstIP = "192.168.1.100";
+    packet.sospfType = SOSPFPacket.LSAUPDATE;
+    packet.routerID = "192.168.1.1";
+    packet.neighborID = "192.168.1.100";
+    packet.lsaArray = new LinkedList<>();
+    packet.lsaArray.add(lsa);
+    return packet;
+  }
+
+  private static SOSPFPacket roundTrip(SOSPFPacket packet) throws ProtocolException {
+    ByteBuffer buffer = ByteBuffer.allocate(packet.encodedSize());
+    packet.encode(buffer);
+    assertEquals("encodedSize does not match the bytes written", 0, buffer.remaining());
+    buffer.flip();
+    SOSPFPacket decoded = SOSPFPacket.decode(buffer);
+    assertEquals("Decoder did not consume the whole packet", 0, buffer.remaining());
+    return decoded;
+  }
+
+  private static int serializedSize(SOSPFPacket packet) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(packet);
+    }
+    return bytes.size();
+  }
+
+  @Test
+  public void testHelloRoundTrip() throws ProtocolException {
+    SOSPFPacket hello = SOSPFPacket.createHello((short) 5001, "192.168.1.1", "192.168.1.100",
+        "192.168.1.1");
+    hello.linkCost = 40000;
+
+    SOSPFPacket decoded = roundTrip(hello);
+
+    assertEquals(SOSPFPacket.HELLO, decoded.sospfType);
+    assertEquals("127.0.0.1", decoded.srcProcessIP);
+    assertEquals(5001, decoded.srcProcessPort);
+    assertEquals("192.168.1.1", decoded.srcIP);
+    assertEquals("192.168.1.100", decoded.dstIP);
+    assertEquals("192.168.1.1", decoded.neighborID);
+    assertEquals(40000, decoded.linkCost);
+    assertNull(decoded.routerID);
+    assertNull(decoded.lsaArray);
+  }
+
+  @Test
+  public void testLSAUpdateRoundTrip() throws ProtocolException {
+    SOSPFPacket update = createLSAUpdate(4);
+
+    SOSPFPacket decoded = roundTrip(update);
+
+    assertEquals(SOSPFPacket.LSAUPDATE, decoded.sospfType);
+    assertEquals(update.routerID, decoded.routerID);
+    assertEquals(1, decoded.lsaArray.size());
+    assertLSAEquals(update.lsaArray.getFirst(), decoded.lsaArray.getFirst());
+  }
+
+  @Test
+  public void testBatchedLSAUpdateRoundTrip() throws ProtocolException {
+    SOSPFPacket update = createLSAUpdate(2);
+    update.lsaArray.add(createLSA("192.168.1.100", 0));
+    update.lsaArray.add(createLSA("192.168.2.1", 5));
+    update.lsaArray.add(new LSA("192.168.3.1", 1, Arrays.asList(
+        LinkDescription.parsePrefix("172.16.4.0/22", 3), LinkDescription.prefix("1.2.3.4", 0, 1),
+        new LinkDescription("192.168.1.1", 5002, 7))));
+
+    SOSPFPacket decoded = roundTrip(update);
+
+    assertEquals(4, decoded.lsaArray.size());
+    assertEquals("0.0.0.0", decoded.lsaArray.get(3).links.get(1).linkID);
+    for (int i = 0; i < 4; i++) {
+      assertLSAEquals(update.lsaArray.get(i), decoded.lsaArray.get(i));
+    }
+  }
+
+  @Test
+  public void testLSAAgeRoundTrip() throws ProtocolException {
+    SOSPFPacket update = createLSAUpdate(1);
+    LSA lsa = update.lsaArray.removeFirst();
+    // Aged 100 seconds while in the database, 20 of them since it was received
+    update.lsaArray.add(new LSA(lsa.linkStateID, lsa.lsaSeqNumber, 80,
+        System.nanoTime() - TimeUnit.SECONDS.toNanos(20), lsa.links));
+
+    SOSPFPacket decoded = roundTrip(update);
+
+    LSA received = decoded.lsaArray.getFirst();
+    assertEquals(100, received.age);
+    assertEquals(100, received.currentAge(received.stampNanos));
+  }
+
+  @Test
+  public void testDeltaRoundTrip() throws ProtocolException {
+    LSA base = createLSA("192.168.1.1", 20);
+    List<LinkDescription> links = new ArrayList<>(base.links);
+    links.remove(3);
+    links.add(LinkDescription.parsePrefix("172.16.0.0/12", 2));
+    LSA next = base.next(links);
+    SOSPFPacket update = createLSAUpdate(0);
+    update.lsaArray.set(0, LSA.delta(base, next));
+
+    SOSPFPacket decoded = roundTrip(update);
+
+    LSA delta = decoded.lsaArray.getFirst();
+    assertTrue(delta.isDelta());
+    assertEquals(base.lsaSeqNumber, delta.baseSeqNumber);
+    assertEquals(1, delta.links.size());
+    assertEquals(1, delta.removed.size());
+    assertEquals(base.links.get(3), delta.removed.get(0));
+    assertTrue(update.encodedSize() < createLSAUpdate(20).encodedSize());
+    LSA applied = delta.applyTo(base);
+    assertEquals(new HashSet<>(next.links), new HashSet<>(applied.links));
+    assertEquals(next.links.size(), applied.links.size());
+  }
+
+  @Test
+  public void testDataRoundTrip() throws ProtocolException {
+    SOSPFPacket data = SOSPFPacket.createData("192.168.1.1", "192.168.2.1", 42, new byte[300]);
+    data.payload[299] = 7;
+    data.srcProcessIP = "127.0.0.1";
+    data.srcProcessPort = 5001;
+    data.routerID = "192.168.1.100";
+    data.neighborID = "192.168.2.1";
+    data.ttl = 3;
+    data.echo = true;
+
+    SOSPFPacket decoded = roundTrip(data);
+
+    assertEquals(SOSPFPacket.DATA, decoded.sospfType);
+    assertEquals("192.168.1.1", decoded.srcIP);
+    assertEquals("192.168.2.1", decoded.dstIP);
+    assertEquals("192.168.1.100", decoded.routerID);
+    assertEquals(3, decoded.ttl);
+    assertTrue(decoded.echo);
+    assertEquals(42, decoded.sequence);
+    assertEquals(data.sentNanos, decoded.sentNanos);
+    assertEquals(300, decoded.payload.length);
+    assertEquals(7, decoded.payload[299]);
+  }
+
+  private static void assertLSAEquals(LSA expected, LSA actual) {
+    assertEquals(expected.linkStateID, actual.linkStateID);
+    assertEquals(expected.lsaSeqNumber, actual.lsaSeqNumber);
+    assertEquals(expected.links.size(), actual.links.size());
+    for (int i = 0; i < expected.links.size(); i++) {
+      assertEquals(expected.links.get(i).linkID, actual.links.get(i).linkID);
+      assertEquals(expected.links.get(i).portNum, actual.links.get(i).portNum);
+      assertEquals(expected.links.get(i).cost, actual.links.get(i).cost);
+      assertEquals(expected.links.get(i).prefixLength, actual.links.get(i).prefixLength);
+    }
+  }
+
+  @Test(expected = ProtocolException.class)
+  public void testTruncatedPacketRejected() throws ProtocolException {
+    SOSPFPacket update = createLSAUpdate(2);
+    ByteBuffer buffer = ByteBuffer.allocate(update.encodedSize());
+    update.encode(buffer);
+    buffer.flip();
+    buffer.limit(buffer.limit() - 3);
+    SOSPFPacket.decode(buffer);
+  }
+
+  @Test(expected = ProtocolException.class)
+  public void testPrefixLengthOutOfRangeRejected() throws ProtocolException {
+    SOSPFPacket update = createLSAUpdate(0);
+    update.lsaArray.add(new LSA("192.168.3.1", 1, Arrays.asList(
+        LinkDescription.parsePrefix("172.16.4.0/22", 3))));
+    ByteBuffer buffer = ByteBuffer.allocate(update.encodedSize());
+    update.encode(buffer);
+    buffer.flip();
+    // The prefix length ends the packet
+    buffer.put(buffer.limit() - 1, (byte) 40);
+    SOSPFPacket.decode(buffer);
+  }
+
+  @Test
+  public void testBinaryFormatSmallerThanSerialization() throws IOException {
+    for (int numLinks : new int[] {0, 4, 32}) {
+      SOSPFPacket update = createLSAUpdate(numLinks);
+      int binary = update.encodedSize();
+      int serialized = serializedSize(update);
+      assertTrue("Binary format should be at least 4x smaller, " + binary + " bytes against "
+          + serialized + " for " + (numLinks + 1) + " links", binary * 4 < serialized);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import socs.network.message.LSA;
+import socs.network.util.Configuration;
+
+public class TestCommandBatch {
+
+  private final MemoryTransport transport = new MemoryTransport(4);
+  private final List<Router> routers = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    for (Router router : routers) {
+      router.quit();
+    }
+    transport.close();
+  }
+
+  private Router createRouter(String simulatedIP, int port, boolean control) throws IOException {
+    Configuration config = new Configuration();
+    config.addEntry("socs.network.router.ip", simulatedIP);
+    config.addEntry("socs.network.router.port", String.valueOf(port));
+    config.addEntry("socs.network.router.quiet", "true");
+    config.addEntry("socs.network.router.floodWindowMs", "0");
+    if (control) {
+      config.addEntry("socs.network.router.controlPort", "0");
+    }
+    Router router = new Router(config, transport);
+    routers.add(router);
+    return router;
+  }
+
+  @Test
+  public void testBatchConnectsAndReportsEachCommand() throws IOException {
+    Router hub = createRouter("10.0.0.1", 3001, false);
+    for (int i = 2; i <= 4; i++) {
+      createRouter("10.0.0." + i, 3000 + i, false);
+    }
+
+    CommandBatch batch = new CommandBatch(hub, false);
+    List<CommandBatch.Result> results = batch.run(Arrays.asList(
+        "# spokes",
+        "connect 127.0.0.1 3002 10.0.0.2",
+        "connect 127.0.0.1 3003 10.0.0.3 5",
+        "connect 127.0.0.1 3004 10.0.0.4",
+        "connect 127.0.0.1 nope 10.0.0.5",
+        "",
+        "detect 10.0.0.3",
+        "detect 10.0.0.4",
+        "disconnect 9",
+        "quit"));
+
+    assertEquals(8, results.size());
+    for (int i = 0; i < 3; i++) {
+      assertTrue(results.get(i).toJson(), results.get(i).ok);
+    }
+    assertEquals(2, results.get(0).line);
+    assertFalse(results.get(3).ok);
+    assertEquals("10.0.0.1 -> 10.0.0.3", results.get(4).output);
+    assertTrue(results.get(5).ok);
+    assertEquals("{\"line\":9,\"command\":\"disconnect 9\",\"ok\":false,"
+        + "\"output\":\"Port not currently populated\"}", results.get(6).toJson());
+    // Not from the control socket
+    assertFalse(results.get(7).ok);
+    assertFalse(batch.quit());
+    // The spokes and the router itself
+    assertEquals(4, hub.getLinkStateDatabase().getLSA("10.0.0.1").links.size());
+
+    results = new CommandBatch(hub, false).run(Arrays.asList("disconnect 0", "disconnect 1"));
+    assertTrue(results.get(0).ok);
+    assertTrue(results.get(1).ok);
+    // Withdrawn in a single LSA
+    LSA lsa = hub.getLinkStateDatabase().getLSA("10.0.0.1");
+    assertEquals(1, lsa.links.size());
+    assertEquals("10.0.0.4", lsa.links.get(0).linkID);
+  }
+
+  @Test
+  public void testControlSocket() throws IOException {
+    Router router = createRouter("10.0.0.1", 3001, true);
+    createRouter("10.0.0.2", 3002, false);
+    assertTrue(router.getControlPort() > 0);
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), router.getControlPort());
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true,
+            StandardCharsets.UTF_8)) {
+      out.print("connect 127.0.0.1 3002 10.0.0.2\ndetect 10.0.0.2\n\n");
+      out.flush();
+      assertEquals("{\"line\":1,\"command\":\"connect 127.0.0.1 3002 10.0.0.2\",\"ok\":true,"
+          + "\"output\":\"connected 10.0.0.2\"}", in.readLine());
+      assertEquals("{\"line\":2,\"command\":\"detect 10.0.0.2\",\"ok\":true,"
+          + "\"output\":\"10.0.0.1 -> 10.0.0.2\"}", in.readLine());
+      assertEquals("", in.readLine());
+
+      // The connection takes further batches
+      out.print("bogus\n\n");
+      out.flush();
+      assertTrue(in.readLine().contains("\"ok\":false"));
+      assertEquals("", in.readLine());
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+
+public class TestFloodScheduler {
+
+  private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor();
+  // neighbor simulated IP => batches it received
+  private final Map<String, List<List<LSA>>> sent = new HashMap<>();
+
+  @After
+  public void tearDown() {
+    timers.shutdownNow();
+  }
+
+  private static Link createLink(String neighborIP) {
+    RouterDescription self = new RouterDescription();
+    self.simulatedIPAddress = "10.0.0.1";
+    RouterDescription neighbor = new RouterDescription();
+    neighbor.simulatedIPAddress = neighborIP;
+    return new Link(self, neighbor);
+  }
+
+  private static LSA createLSA(String linkStateID, int sequence) {
+    return new LSA(linkStateID, sequence, Collections.<LinkDescription>emptyList());
+  }
+
+  private FloodScheduler createScheduler(long windowMillis, String... neighborIPs) {
+    List<Link> links = new ArrayList<>();
+    for (String ip : neighborIPs) {
+      links.add(createLink(ip));
+    }
+    return new FloodScheduler(timers, windowMillis, () -> links, (link, lsas) -> {
+      synchronized (sent) {
+        sent.computeIfAbsent(link.router2.simulatedIPAddress, k -> new ArrayList<>())
+            .add(new ArrayList<>(lsas));
+        sent.notifyAll();
+      }
+      return true;
+    });
+  }
+
+  @Test
+  public void testCoalescesPerOriginatorAndSkipsSender() {
+    FloodScheduler flooder = createScheduler(60_000, "10.0.0.2", "10.0.0.3");
+
+    flooder.offer(createLSA("10.0.0.5", 1), "10.0.0.2");
+    flooder.offer(createLSA("10.0.0.5", 3), "10.0.0.2");
+    // Older copy arriving late is dropped
+    flooder.offer(createLSA("10.0.0.5", 2), "10.0.0.3");
+    flooder.offer(createLSA("10.0.0.1", 7), null);
+    flooder.offer(createLSA("10.0.0.3", 1), "10.0.0.3");
+    flooder.flush();
+
+    List<List<LSA>> toFirst = sent.get("10.0.0.2");
+    assertEquals(1, toFirst.size());
+    assertEquals(Arrays.asList("10.0.0.1", "10.0.0.3"), ids(toFirst.get(0)));
+
+    List<List<LSA>> toSecond = sent.get("10.0.0.3");
+    assertEquals(1, toSecond.size());
+    assertEquals(Arrays.asList("10.0.0.5", "10.0.0.1"), ids(toSecond.get(0)));
+    assertEquals(3, toSecond.get(0).get(0).lsaSeqNumber);
+
+    assertEquals(5, flooder.offered());
+    assertEquals(2, flooder.coalesced());
+    assertEquals(2, flooder.packetsSent());
+    assertEquals(4, flooder.lsasSent());
+    // 2 dropped copies that would have gone to 1 neighbor each, and 2 packets carrying 2 LSAs
+    assertEquals(4, flooder.suppressedSends());
+
+    // Nothing left for the next window
+    flooder.flush();
+    assertEquals(2, flooder.packetsSent());
+  }
+
+  @Test
+  public void testWindowSendsOneBatchPerNeighbor() throws InterruptedException {
+    FloodScheduler flooder = createScheduler(100, "10.0.0.2");
+    for (int i = 1; i <= 20; i++) {
+      flooder.offer(createLSA("10.0.0.1", i), null);
+      flooder.offer(createLSA("10.0.0." + (10 + i % 4), i), null);
+    }
+
+    synchronized (sent) {
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+      while (!sent.containsKey("10.0.0.2") && System.currentTimeMillis() < deadline) {
+        sent.wait(100);
+      }
+    }
+    Thread.sleep(200);
+
+    List<List<LSA>> batches = sent.get("10.0.0.2");
+    assertEquals(1, batches.size());
+    assertEquals(5, batches.get(0).size());
+    assertEquals(20, batches.get(0).get(0).lsaSeqNumber);
+    assertTrue(flooder.suppressedSends() >= 35);
+  }
+
+  @Test
+  public void testZeroWindowSendsImmediately() {
+    FloodScheduler flooder = createScheduler(0, "10.0.0.2");
+    flooder.offer(createLSA("10.0.0.1", 1), null);
+    flooder.offer(createLSA("10.0.0.1", 2), null);
+
+    assertEquals(2, sent.get("10.0.0.2").size());
+    assertEquals(0, flooder.coalesced());
+  }
+
+  private static List<String> ids(List<LSA> lsas) {
+    List<String> ids = new ArrayList<>();
+    for (LSA lsa : lsas) {
+      ids.add(lsa.linkStateID);
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,138 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import socs.network.message.IPAddresses;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+
+public class TestForwardingTable {
+
+  private static final String SOURCE = "10.0.0.1";
+
+  /**
+   * @return database of a router linked to every neighbor with cost 1
+   */
+  private static LinkStateDatabase createStar(String... neighbors) {
+    RouterDescription rd = new RouterDescription();
+    rd.simulatedIPAddress = SOURCE;
+    LinkStateDatabase lsd = new LinkStateDatabase(rd);
+    for (String neighbor : neighbors) {
+      lsd.addLocalLink(new LinkDescription(neighbor, 1), true);
+    }
+    return lsd;
+  }
+
+  private static LSA createLSA(String linkStateID, int sequence, LinkDescription... links) {
+    List<LinkDescription> all = new ArrayList<>(Arrays.asList(links));
+    all.add(new LinkDescription(SOURCE, 1));
+    return new LSA(linkStateID, sequence, all);
+  }
+
+  @Test
+  public void testLongestPrefixWins() {
+    LinkStateDatabase lsd = createStar("10.0.0.2", "10.0.0.3");
+    lsd.syncLinkStateDatabase(createLSA("10.0.0.2", 1,
+        LinkDescription.parsePrefix("172.16.0.0/16", 1),
+        LinkDescription.parsePrefix("0.0.0.0/0", 1)));
+    lsd.syncLinkStateDatabase(createLSA("10.0.0.3", 1,
+        LinkDescription.parsePrefix("172.16.5.0/24", 1)));
+
+    assertEquals("10.0.0.3", lsd.getNextHop("172.16.5.9"));
+    assertEquals("10.0.0.2", lsd.getNextHop("172.16.6.1"));
+    // Only the default route matches
+    assertEquals("10.0.0.2", lsd.getNextHop("8.8.8.8"));
+    // Router addresses have /32 routes of their own
+    assertEquals("10.0.0.3", lsd.getNextHop("10.0.0.3"));
+    assertNull(lsd.getNextHop(SOURCE));
+    assertEquals(6, lsd.getForwardingTable().size());
+  }
+
+  @Test
+  public void testNearestAdvertiserWins() {
+    LinkStateDatabase lsd = createStar("10.0.0.2", "10.0.0.3");
+    lsd.syncLinkStateDatabase(createLSA("10.0.0.2", 1,
+        LinkDescription.parsePrefix("172.16.0.0/16", 10)));
+    lsd.syncLinkStateDatabase(createLSA("10.0.0.3", 1,
+        LinkDescription.parsePrefix("172.16.0.0/16", 2)));
+    assertEquals("10.0.0.3", lsd.getNextHop("172.16.1.1"));
+
+    // The table follows the database
+    lsd.syncLinkStateDatabase(createLSA("10.0.0.3", 2));
+    assertEquals("10.0.0.2", lsd.getNextHop("172.16.1.1"));
+  }
+
+  @Test
+  public void testLocalPrefix() {
+    LinkStateDatabase lsd = createStar("10.0.0.2");
+    lsd.advertisePrefix(LinkDescription.parsePrefix("192.168.7.0/24", 1));
+    // Kept when the links change
+    lsd.updateLocalLinks(Arrays.asList(new LinkDescription("10.0.0.2", 1)));
+
+    assertTrue(lsd.getForwardingTable().isLocal("192.168.7.200"));
+    assertTrue(lsd.getForwardingTable().isLocal(SOURCE));
+    assertFalse(lsd.getForwardingTable().isLocal("192.168.8.1"));
+    assertNull(lsd.getNextHop("192.168.7.200"));
+  }
+
+  @Test
+  public void testMatchesLinearScan() {
+    Random random = new Random(535);
+    int routers = 50;
+    String[] neighbors = new String[routers];
+    for (int i = 0; i < routers; i++) {
+      neighbors[i] = "10.0.1." + (i + 1);
+    }
+    LinkStateDatabase lsd = createStar(neighbors);
+
+    // Unique prefixes, each advertised by one neighbor, many of them nested
+    List<int[]> prefixes = new ArrayList<>();
+    Set<Long> seen = new HashSet<>();
+    List<List<LinkDescription>> advertised = new ArrayList<>();
+    for (int i = 0; i < routers; i++) {
+      advertised.add(new ArrayList<>());
+    }
+    while (prefixes.size() < 2000) {
+      int length = 8 + random.nextInt(25);
+      int network = (0xAC000000 | random.nextInt(1 << 20) << 4) & IPAddresses.mask(length);
+      if (!seen.add(((long) network << 8) | length)) {
+        continue;
+      }
+      int router = random.nextInt(routers);
+      prefixes.add(new int[] {network, length, router});
+      advertised.get(router).add(LinkDescription.prefix(IPAddresses.unpack(network), length, 1));
+    }
+    for (int i = 0; i < routers; i++) {
+      lsd.syncLinkStateDatabase(createLSA(neighbors[i], 1,
+          advertised.get(i).toArray(new LinkDescription[0])));
+    }
+
+    ForwardingTable fib = lsd.getForwardingTable();
+    for (int i = 0; i < 20000; i++) {
+      int address = 0xAC000000 | random.nextInt(1 << 24);
+      int bestLength = -1;
+      String expected = null;
+      for (int[] prefix : prefixes) {
+        if (((address ^ prefix[0]) & IPAddresses.mask(prefix[1])) == 0 && prefix[1] > bestLength) {
+          bestLength = prefix[1];
+          expected = neighbors[prefix[2]];
+        }
+      }
+      int route = fib.lookup(address);
+      assertEquals(IPAddresses.unpack(address), expected,
+          route == ForwardingTable.NO_ROUTE ? null : fib.hop(route));
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TestKeepaliveScheduler {
+
+  private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor();
+  private final List<String> hellos = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> dead = Collections.synchronizedList(new ArrayList<>());
+
+  @After
+  public void tearDown() {
+    timers.shutdownNow();
+  }
+
+  private static Link createLink(String neighborIP, long lastHeardNanos) {
+    RouterDescription self = new RouterDescription();
+    self.simulatedIPAddress = "10.0.0.1";
+    RouterDescription neighbor = new RouterDescription();
+    neighbor.simulatedIPAddress = neighborIP;
+    neighbor.status = lastHeardNanos == 0 ? RouterStatus.INIT : RouterStatus.TWO_WAY;
+    Link link = new Link(self, neighbor);
+    link.lastHeardNanos = lastHeardNanos;
+    return link;
+  }
+
+  private KeepaliveScheduler createScheduler(long helloMillis, long deadMillis, List<Link> links) {
+    return new KeepaliveScheduler(timers, helloMillis, deadMillis, () -> links,
+        link -> hellos.add(link.router2.simulatedIPAddress),
+        link -> dead.add(link.router2.simulatedIPAddress));
+  }
+
+  @Test
+  public void testSilentNeighborIsDead() {
+    long now = System.nanoTime();
+    List<Link> links = Arrays.asList(
+        createLink("10.0.0.2", now),
+        createLink("10.0.0.3", now - TimeUnit.SECONDS.toNanos(10)),
+        // Still in its first handshake
+        createLink("10.0.0.4", 0));
+
+    createScheduler(1000, 4000, links).tick();
+
+    assertEquals(Collections.singletonList("10.0.0.2"), hellos);
+    assertEquals(Collections.singletonList("10.0.0.3"), dead);
+  }
+
+  @Test
+  public void testPeriodicHellos() throws InterruptedException {
+    CountDownLatch sent = new CountDownLatch(3);
+    List<Link> links = Collections.singletonList(createLink("10.0.0.2", System.nanoTime()));
+    KeepaliveScheduler scheduler = new KeepaliveScheduler(timers, 10, 10000, () -> links,
+        link -> sent.countDown(), link -> dead.add(link.router2.simulatedIPAddress));
+
+    scheduler.start();
+
+    assertTrue(sent.await(5, TimeUnit.SECONDS));
+    scheduler.stop();
+    assertTrue(dead.isEmpty());
+  }
+
+  @Test
+  public void testDisabled() throws InterruptedException {
+    List<Link> links = Collections.singletonList(createLink("10.0.0.2", System.nanoTime()));
+    KeepaliveScheduler scheduler = createScheduler(0, 0, links);
+
+    scheduler.start();
+    Thread.sleep(50);
+
+    assertTrue(hellos.isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDeadIntervalShorterThanHello() {
+    createScheduler(1000, 500, Collections.emptyList());
+  }
+}
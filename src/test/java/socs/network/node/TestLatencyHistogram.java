@@ -0,0 +1,47 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.meanMicros());
+    assertEquals(0, histogram.percentileMicros(0.99));
+  }
+
+  @Test
+  public void testPercentilesWithinFactorOfTwo() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // 99 fast events and one slow one
+    for (int i = 0; i < 99; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+
+    assertEquals(100, histogram.count());
+    assertEquals(50000, histogram.maxMicros());
+    assertEquals((99 * 100 + 50000) / 100, histogram.meanMicros());
+    long p50 = histogram.percentileMicros(0.5);
+    assertTrue("p50 " + p50, p50 >= 100 && p50 <= 200);
+    long p99 = histogram.percentileMicros(0.99);
+    assertTrue("p99 " + p99, p99 >= 100 && p99 <= 200);
+    assertEquals(50000, histogram.percentileMicros(1));
+  }
+
+  @Test
+  public void testHugeLatencyGoesToLastBucket() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(TimeUnit.DAYS.toNanos(365 * 100));
+
+    assertEquals(histogram.maxMicros(), histogram.percentileMicros(0.5));
+  }
+}
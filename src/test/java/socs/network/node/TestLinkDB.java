@@ -0,0 +1,94 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestLinkDB {
+
+  private final RouterDescription self = new RouterDescription();
+
+  private static String neighborIP(int i) {
+    return "10.0." + (i / 256) + "." + (i % 256);
+  }
+
+  @Test
+  public void testManyPorts() {
+    LinkDB ports = new LinkDB(300);
+    for (int i = 0; i < 300; i++) {
+      assertTrue(ports.addLink("127.0.0.1", (short) (2000 + i), neighborIP(i), self));
+    }
+    assertFalse(ports.addLink("127.0.0.1", (short) 5000, "10.1.0.1", self));
+
+    assertEquals(300, ports.getCurrentSize());
+    assertEquals(neighborIP(123), ports.findLink((short) 2123).get().router2.simulatedIPAddress);
+    assertEquals(2200, ports.findLinkByIP(neighborIP(200)).get().router2.processPortNumber);
+  }
+
+  @Test
+  public void testRemovedPortIsReused() {
+    LinkDB ports = new LinkDB(4);
+    ports.addLink("127.0.0.1", (short) 2000, "10.0.0.1", self);
+    ports.addLink("127.0.0.1", (short) 2001, "10.0.0.2", self);
+    ports.addLink("127.0.0.1", (short) 2002, "10.0.0.3", self);
+
+    assertTrue(ports.removeLink((short) 2001));
+    assertFalse(ports.removeLink((short) 2001));
+    assertEquals(2, ports.getCurrentSize());
+    assertFalse(ports.findLinkByIP("10.0.0.2").isPresent());
+    assertNull(ports.getLinkByIndex(1));
+
+    ports.addLink("127.0.0.1", (short) 2003, "10.0.0.4", self);
+    assertEquals("10.0.0.4", ports.getLinkByIndex(1).router2.simulatedIPAddress);
+    assertTrue(ports.toString().contains("10.0.0.4"));
+    assertFalse(ports.toString().contains("10.0.0.2"));
+  }
+
+  @Test
+  public void testDuplicateNeighborRejected() {
+    LinkDB ports = new LinkDB(4);
+    ports.addLink("127.0.0.1", (short) 2000, "10.0.0.1", self);
+
+    assertFalse(ports.addLink("127.0.0.1", (short) 2000, "10.0.0.9", self));
+    assertFalse(ports.addLink("127.0.0.1", (short) 2009, "10.0.0.1", self));
+    assertEquals(1, ports.getCurrentSize());
+  }
+
+  @Test
+  public void testIterationIsASnapshot() {
+    LinkDB ports = new LinkDB(4);
+    ports.addLink("127.0.0.1", (short) 2000, "10.0.0.1", self);
+    ports.addLink("127.0.0.1", (short) 2001, "10.0.0.2", self);
+
+    Iterator<Link> iterator = ports.iterator();
+    Link first = iterator.next();
+    ports.removeLink((short) 2001);
+    ports.addLink("127.0.0.1", (short) 2002, "10.0.0.3", self);
+
+    assertSame(first, ports.findLink((short) 2000).get());
+    assertEquals("10.0.0.2", iterator.next().router2.simulatedIPAddress);
+    assertFalse(iterator.hasNext());
+    List<Link> now = new ArrayList<>();
+    ports.forEach(now::add);
+    assertEquals(2, now.size());
+  }
+
+  @Test
+  public void testRemoveAll() {
+    LinkDB ports = new LinkDB(4);
+    ports.addLink("127.0.0.1", (short) 2000, "10.0.0.1", self);
+    ports.addLink("127.0.0.1", (short) 2001, "10.0.0.2", self);
+
+    assertEquals(2, ports.removeAll().size());
+    assertEquals(0, ports.getCurrentSize());
+    assertEquals("Router has no current neighbors", ports.toString());
+  }
+}
@@ -1,14 +1,38 @@
 package socs.network.node;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import socs.network.message.LSA;
 import socs.network.message.LinkDescription;
 
 public class TestLinkStateDatabase {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @Test
   public void testGetShortestPath() {
     // Create a router description for the source router
@@ -23,20 +47,14 @@ public class TestLinkStateDatabase {
     LinkStateDatabase linkStateDatabase = new LinkStateDatabase(sourceRouter);
 
     // Add link descriptions for source router
-    LinkDescription linkDescription1 = new LinkDescription();
-    linkDescription1.linkID = "192.168.0.2"; // Destination IP
-    linkDescription1.portNum = 1; // Example port number
-    linkStateDatabase._store.get(sourceRouter.simulatedIPAddress).links.add(linkDescription1);
+    LinkDescription linkDescription1 = new LinkDescription("192.168.0.2", 1); // Destination IP
+    linkStateDatabase.addLocalLink(linkDescription1, true);
 
     // Add link descriptions for destination router
-    LinkDescription linkDescription2 = new LinkDescription();
-    linkDescription2.linkID = "192.168.0.1"; // Source IP
-    linkDescription2.portNum = 2; // Example port number
-    LSA lsa = new LSA();
-    lsa.linkStateID = destinationRouter.simulatedIPAddress;
-    lsa.links.add(linkDescription2);
-    linkStateDatabase._store.put(destinationRouter.simulatedIPAddress, lsa);
-    linkStateDatabase._store.get(destinationRouter.simulatedIPAddress).links.add(linkDescription2);
+    LinkDescription linkDescription2 = new LinkDescription("192.168.0.1", 2); // Source IP
+    LSA lsa = new LSA(destinationRouter.simulatedIPAddress, LSA.INITIAL_SEQUENCE,
+        Arrays.asList(linkDescription2, linkDescription2));
+    linkStateDatabase.syncLinkStateDatabase(lsa);
 
     // Test shortest path
     String shortestPath = linkStateDatabase.getShortestPath(destinationRouter.simulatedIPAddress);
@@ -44,4 +62,435 @@ public class TestLinkStateDatabase {
     // Assert expected shortest path
     assertEquals("Shortest path is not as expected", "192.168.0.1 -> 192.168.0.2", shortestPath);
   }
-}
\ No newline at end of file
+
+  private static LSA createLSA(String linkStateID, String... neighbors) {
+    return createLSA(linkStateID, LSA.INITIAL_SEQUENCE, neighbors);
+  }
+
+  private static LSA createLSA(String linkStateID, int sequence, String... neighbors) {
+    List<LinkDescription> links = new ArrayList<>();
+    for (String neighbor : neighbors) {
+      links.add(new LinkDescription(neighbor, 1));
+    }
+    return new LSA(linkStateID, sequence, links);
+  }
+
+  private static String ringIP(int i, int size) {
+    return "10.0.0." + (((i % size) + size) % size + 1);
+  }
+
+  @Test
+  public void testGetShortestPathOnRing() {
+    int size = 10;
+    RouterDescription sourceRouter = new RouterDescription();
+    sourceRouter.simulatedIPAddress = ringIP(0, size);
+    LinkStateDatabase linkStateDatabase = new LinkStateDatabase(sourceRouter);
+
+    for (int i = 0; i < size; i++) {
+      linkStateDatabase._store.put(ringIP(i, size),
+          createLSA(ringIP(i, size), ringIP(i - 1, size), ringIP(i + 1, size)));
+    }
+
+    assertEquals("10.0.0.1 -> 10.0.0.2 -> 10.0.0.3 -> 10.0.0.4",
+        linkStateDatabase.getShortestPath("10.0.0.4"));
+    assertEquals("10.0.0.1 -> 10.0.0.10 -> 10.0.0.9 -> 10.0.0.8",
+        linkStateDatabase.getShortestPath("10.0.0.8"));
+    assertEquals("10.0.0.1", linkStateDatabase.getShortestPath("10.0.0.1"));
+  }
+
+  @Test
+  public void testGetShortestPathUnknownOrUnreachable() {
+    RouterDescription sourceRouter = new RouterDescription();
+    sourceRouter.simulatedIPAddress = "192.168.0.1";
+    LinkStateDatabase linkStateDatabase = new LinkStateDatabase(sourceRouter);
+
+    // 192.168.0.3 only links away from us, 192.168.0.4 is mentioned but has no LSA
+    linkStateDatabase._store.put("192.168.0.3", createLSA("192.168.0.3", "192.168.0.4"));
+
+    assertEquals("Destination router not found in the network.",
+        linkStateDatabase.getShortestPath("192.168.0.9"));
+    assertEquals("No path found to destination router.",
+        linkStateDatabase.getShortestPath("192.168.0.3"));
+    assertEquals("No path found to destination router.",
+        linkStateDatabase.getShortestPath("192.168.0.4"));
+  }
+
+  @Test
+  public void testRoutingTableRecomputedOnlyOnNewerLSA() {
+    RouterDescription sourceRouter = new RouterDescription();
+    sourceRouter.simulatedIPAddress = "192.168.0.1";
+    LinkStateDatabase linkStateDatabase = new LinkStateDatabase(sourceRouter);
+    linkStateDatabase.addLocalLink(new LinkDescription("192.168.0.2", 2), true);
+
+    LSA lsa = createLSA("192.168.0.2", 5, "192.168.0.1");
+    assertTrue(linkStateDatabase.syncLinkStateDatabase(lsa));
+
+    RoutingTable routingTable = linkStateDatabase.getRoutingTable();
+    for (int i = 0; i < 10; i++) {
+      assertEquals("192.168.0.1 -> 192.168.0.2", linkStateDatabase.getShortestPath("192.168.0.2"));
+    }
+    assertEquals(1, routingTable.computations());
+
+    // Same sequence number, the table stays valid
+    LSA duplicate = createLSA("192.168.0.2", 5, "192.168.0.1", "192.168.0.3");
+    assertFalse(linkStateDatabase.syncLinkStateDatabase(duplicate));
+    linkStateDatabase.getShortestPath("192.168.0.2");
+    assertEquals(1, routingTable.computations());
+
+    // Newer LSA reaching a new router, the table is recomputed once
+    LSA newer = createLSA("192.168.0.2", 6, "192.168.0.1", "192.168.0.3");
+    assertTrue(linkStateDatabase.syncLinkStateDatabase(newer));
+    assertTrue(linkStateDatabase.syncLinkStateDatabase(createLSA("192.168.0.3", "192.168.0.2")));
+    assertEquals("192.168.0.1 -> 192.168.0.2 -> 192.168.0.3",
+        linkStateDatabase.getShortestPath("192.168.0.3"));
+    assertEquals("192.168.0.1 -> 192.168.0.2", linkStateDatabase.getShortestPath("192.168.0.2"));
+    assertEquals(2, routingTable.computations());
+  }
+
+  @Test
+  public void testIncrementalSPFMatchesFullSPF() {
+    Random random = new Random(535);
+    int size = 200;
+    String[] ips = new String[size];
+    int[] sequence = new int[size];
+    for (int i = 0; i < size; i++) {
+      ips[i] = "10.0." + (i / 250) + "." + (i % 250 + 1);
+    }
+
+    RouterDescription sourceRouter = new RouterDescription();
+    sourceRouter.simulatedIPAddress = ips[0];
+    LinkStateDatabase linkStateDatabase = new LinkStateDatabase(sourceRouter);
+    for (int i = 0; i < size; i++) {
+      LSA lsa = createRandomLSA(random, ips, i, ++sequence[i], 3);
+      linkStateDatabase.syncLinkStateDatabase(lsa);
+    }
+
+    RoutingTable routingTable = linkStateDatabase.getRoutingTable();
+    for (int round = 0; round < 500; round++) {
+      ShortestPathTree previous = routingTable.tree();
+      long[][] previousOut = previous.graph.out.clone();
+      long[][] previousIn = previous.graph.in.clone();
+      // Mostly single changes, sometimes a few at once
+      int changes = random.nextInt(10) == 0 ? 2 + random.nextInt(3) : 1;
+      for (int c = 0; c < changes; c++) {
+        int router = random.nextInt(size);
+        LSA lsa = createRandomLSA(random, ips, router, ++sequence[router], random.nextInt(5));
+        assertTrue(linkStateDatabase.syncLinkStateDatabase(lsa));
+      }
+
+      ShortestPathTree tree = routingTable.tree();
+      // Lookups may still be reading the previous tree
+      assertArrayEquals(previousOut, previous.graph.out);
+      assertArrayEquals(previousIn, previous.graph.in);
+      AdjacencyIndex graph = AdjacencyIndex.build(linkStateDatabase.snapshot());
+      ShortestPathTree expected = ShortestPathTree.compute(graph, graph.idOf(ips[0]));
+      for (String ip : ips) {
+        int distance = tree.distance[tree.graph.idOf(ip)];
+        assertEquals("Distance to " + ip + " in round " + round,
+            expected.distance[graph.idOf(ip)], distance);
+        List<String> path = tree.pathTo(tree.graph.idOf(ip));
+        if (path != null) {
+          assertEquals(ips[0], path.get(0));
+          assertEquals(ip, path.get(path.size() - 1));
+        }
+        assertEquals("Next hops to " + ip + " in round " + round,
+            hopNames(expected, graph.idOf(ip)), hopNames(tree, tree.graph.idOf(ip)));
+      }
+    }
+    assertTrue("Incremental SPF was never used", routingTable.incrementalComputations() > 400);
+  }
+
+  @Test
+  public void testConcurrentSyncKeepsNewestLSA() throws Exception {
+    RouterDescription sourceRouter = new RouterDescription();
+    sourceRouter.simulatedIPAddress = ringIP(0, 8);
+    LinkStateDatabase linkStateDatabase = new LinkStateDatabase(sourceRouter);
+    linkStateDatabase.updateLocalLinks(createLSA(ringIP(0, 8), ringIP(1, 8)).links);
+
+    int threads = 4;
+    int updates = 2000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+    AtomicBoolean running = new AtomicBoolean(true);
+    // SPF keeps running against snapshots while LSAs come in
+    Future<?> reader = executor.submit(() -> {
+      while (running.get()) {
+        linkStateDatabase.getShortestPath(ringIP(4, 8));
+      }
+    });
+    List<Future<?>> writers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      int seed = t;
+      writers.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < updates; i++) {
+          int router = 1 + random.nextInt(7);
+          linkStateDatabase.syncLinkStateDatabase(createLSA(ringIP(router, 8),
+              random.nextInt(updates), ringIP(router - 1, 8), ringIP(router + 1, 8)));
+        }
+      }));
+    }
+    for (Future<?> writer : writers) {
+      writer.get();
+    }
+    running.set(false);
+    reader.get();
+    executor.shutdown();
+
+    for (int router = 1; router < 8; router++) {
+      int newest = linkStateDatabase.getLSA(ringIP(router, 8)).lsaSeqNumber;
+      assertFalse(linkStateDatabase.syncLinkStateDatabase(createLSA(ringIP(router, 8), newest)));
+      assertTrue(newest > updates - 50);
+    }
+    assertEquals("10.0.0.1 -> 10.0.0.2 -> 10.0.0.3 -> 10.0.0.4 -> 10.0.0.5",
+        linkStateDatabase.getShortestPath(ringIP(4, 8)));
+  }
+
+  private static LSA createRandomLSA(Random random, String[] ips, int router, int sequence,
+      int degree) {
+    List<LinkDescription> links = new ArrayList<>();
+    for (int d = 0; d < degree; d++) {
+      links.add(new LinkDescription(ips[random.nextInt(ips.length)], 1, 1 + random.nextInt(4)));
+    }
+    return new LSA(ips[router], sequence, links);
+  }
+
+  private static List<String> hopNames(ShortestPathTree tree, int id) {
+    List<String> names = new ArrayList<>();
+    for (int hop : tree.nextHops(id)) {
+      names.add(tree.graph.name(hop));
+    }
+    Collections.sort(names);
+    return names;
+  }
+
+  private static LSA createWeightedLSA(String linkStateID, int sequence,
+      Object... neighborsAndCosts) {
+    List<LinkDescription> links = new ArrayList<>();
+    for (int i = 0; i < neighborsAndCosts.length; i += 2) {
+      links.add(new LinkDescription((String) neighborsAndCosts[i], 1,
+          (Integer) neighborsAndCosts[i + 1]));
+    }
+    return new LSA(linkStateID, sequence, links);
+  }
+
+  @Test
+  public void testWeightedLinksAndEqualCostPaths() {
+    // Diamond 1 -> {2, 3} -> 4 with equal costs, plus a direct but expensive 1 -> 4 link
+    RouterDescription sourceRouter = new RouterDescription();
+    sourceRouter.simulatedIPAddress = "10.0.0.1";
+    LinkStateDatabase linkStateDatabase = new LinkStateDatabase(sourceRouter);
+    linkStateDatabase.updateLocalLinks(createWeightedLSA("10.0.0.1", 0,
+        "10.0.0.2", 2, "10.0.0.3", 2, "10.0.0.4", 6).links);
+    linkStateDatabase.syncLinkStateDatabase(createWeightedLSA("10.0.0.2", 0,
+        "10.0.0.1", 2, "10.0.0.4", 3));
+    linkStateDatabase.syncLinkStateDatabase(createWeightedLSA("10.0.0.3", 0,
+        "10.0.0.1", 2, "10.0.0.4", 3));
+    linkStateDatabase.syncLinkStateDatabase(createWeightedLSA("10.0.0.4", 0,
+        "10.0.0.1", 6, "10.0.0.2", 3, "10.0.0.3", 3));
+
+    assertEquals("10.0.0.1 -> 10.0.0.2 -> 10.0.0.4" + System.lineSeparator()
+        + "10.0.0.1 -> 10.0.0.3 -> 10.0.0.4", linkStateDatabase.getShortestPath("10.0.0.4"));
+    assertEquals(Arrays.asList("10.0.0.2", "10.0.0.3"),
+        sorted(linkStateDatabase.getNextHops("10.0.0.4")));
+    assertEquals(Arrays.asList("10.0.0.2"), linkStateDatabase.getNextHops("10.0.0.2"));
+
+    // Making one branch more expensive leaves a single path
+    LSA costlier = createWeightedLSA("10.0.0.3", 1, "10.0.0.1", 2, "10.0.0.4", 5);
+    assertTrue(linkStateDatabase.syncLinkStateDatabase(costlier));
+    assertEquals("10.0.0.1 -> 10.0.0.2 -> 10.0.0.4", linkStateDatabase.getShortestPath("10.0.0.4"));
+    assertEquals(Arrays.asList("10.0.0.2"), linkStateDatabase.getNextHops("10.0.0.4"));
+
+    // Once the cheap path is gone, the direct link wins
+    LSA removed = createWeightedLSA("10.0.0.2", 1, "10.0.0.1", 2);
+    assertTrue(linkStateDatabase.syncLinkStateDatabase(removed));
+    assertEquals("10.0.0.1 -> 10.0.0.4", linkStateDatabase.getShortestPath("10.0.0.4"));
+  }
+
+  private static List<String> sorted(List<String> values) {
+    List<String> copy = new ArrayList<>(values);
+    Collections.sort(copy);
+    return copy;
+  }
+
+  private static LinkStateDatabase createAgingDatabase(int maxAge) {
+    RouterDescription rd = new RouterDescription();
+    rd.simulatedIPAddress = "10.0.0.1";
+    return new LinkStateDatabase(rd, maxAge);
+  }
+
+  private static LSA withAge(LSA lsa, int age, long stampNanos) {
+    return new LSA(lsa.linkStateID, lsa.lsaSeqNumber, age, stampNanos, lsa.links);
+  }
+
+  @Test
+  public void testSweepPurgesMaxAgeLSA() {
+    LinkStateDatabase lsd = createAgingDatabase(60);
+    long now = System.nanoTime();
+    assertTrue(lsd.syncLinkStateDatabase(withAge(createLSA("10.0.0.2", "10.0.0.1"), 50, now)));
+    assertTrue(lsd.syncLinkStateDatabase(createLSA("10.0.0.3", "10.0.0.1")));
+
+    // Not yet
+    assertTrue(lsd.sweep(now + TimeUnit.SECONDS.toNanos(9), 30).isEmpty());
+    assertEquals(3, lsd.size());
+
+    List<LSA> flood = lsd.sweep(now + TimeUnit.SECONDS.toNanos(11), 30);
+    assertEquals(1, flood.size());
+    assertEquals("10.0.0.2", flood.get(0).linkStateID);
+    assertEquals(60, flood.get(0).currentAge(now + TimeUnit.SECONDS.toNanos(11)));
+    assertEquals(null, lsd.getLSA("10.0.0.2"));
+    assertEquals(1, lsd.purged());
+    assertEquals("Destination router not found in the network.", lsd.getShortestPath("10.0.0.2"));
+  }
+
+  @Test
+  public void testRefreshedLSAIsNotPurged() {
+    LinkStateDatabase lsd = createAgingDatabase(60);
+    long now = System.nanoTime();
+    lsd.syncLinkStateDatabase(withAge(createLSA("10.0.0.2", "10.0.0.1"), 50, now));
+    // The originator refreshed it before it expired
+    lsd.syncLinkStateDatabase(withAge(createLSA("10.0.0.2", LSA.INITIAL_SEQUENCE + 1,
+        "10.0.0.1"), 0, now + TimeUnit.SECONDS.toNanos(5)));
+
+    assertTrue(lsd.sweep(now + TimeUnit.SECONDS.toNanos(20), 30).isEmpty());
+    assertEquals(LSA.INITIAL_SEQUENCE + 1, lsd.getLSA("10.0.0.2").lsaSeqNumber);
+    // Purged once the refreshed copy reached max age too, followed by our own refresh
+    List<LSA> flood = lsd.sweep(now + TimeUnit.SECONDS.toNanos(66), 30);
+    assertEquals("10.0.0.2", flood.get(0).linkStateID);
+    assertEquals(null, lsd.getLSA("10.0.0.2"));
+  }
+
+  @Test
+  public void testMaxAgeCopyPurgesLSA() {
+    LinkStateDatabase lsd = createAgingDatabase(60);
+    LSA lsa = createLSA("10.0.0.2", 5, "10.0.0.1");
+    lsd.syncLinkStateDatabase(lsa);
+
+    // An older instance cannot purge it
+    assertFalse(lsd.syncLinkStateDatabase(withAge(createLSA("10.0.0.2", 4, "10.0.0.1"), 60,
+        System.nanoTime())));
+    assertTrue(lsd.syncLinkStateDatabase(withAge(lsa, 60, System.nanoTime())));
+    assertEquals(null, lsd.getLSA("10.0.0.2"));
+    // Nothing left to purge, the copy is not flooded further
+    assertFalse(lsd.syncLinkStateDatabase(withAge(lsa, 60, System.nanoTime())));
+  }
+
+  @Test
+  public void testPurgedRouterCanReturn() {
+    LinkStateDatabase lsd = createAgingDatabase(60);
+    lsd.addLocalLink(new LinkDescription("10.0.0.2", 1), true);
+    LSA lsa = createLSA("10.0.0.2", 5, "10.0.0.1", "10.0.0.3");
+    lsd.syncLinkStateDatabase(lsa);
+    lsd.syncLinkStateDatabase(createLSA("10.0.0.3", "10.0.0.2"));
+    assertEquals("10.0.0.1 -> 10.0.0.2 -> 10.0.0.3", lsd.getShortestPath("10.0.0.3"));
+
+    // The router keeps its id once purged, but its links are gone from the graph
+    lsd.syncLinkStateDatabase(withAge(lsa, 60, System.nanoTime()));
+    assertEquals("No path found to destination router.", lsd.getShortestPath("10.0.0.2"));
+    assertEquals("No path found to destination router.", lsd.getShortestPath("10.0.0.3"));
+
+    lsd.syncLinkStateDatabase(createLSA("10.0.0.2", 6, "10.0.0.1", "10.0.0.3"));
+    assertEquals("10.0.0.1 -> 10.0.0.2 -> 10.0.0.3", lsd.getShortestPath("10.0.0.3"));
+  }
+
+  @Test
+  public void testSweepRefreshesOwnLSA() {
+    LinkStateDatabase lsd = createAgingDatabase(60);
+    long now = System.nanoTime();
+    int sequence = lsd.getLSA("10.0.0.1").lsaSeqNumber;
+
+    assertTrue(lsd.sweep(now + TimeUnit.SECONDS.toNanos(10), 30).isEmpty());
+    List<LSA> flood = lsd.sweep(now + TimeUnit.SECONDS.toNanos(31), 30);
+
+    assertEquals(1, flood.size());
+    assertEquals(sequence + 1, flood.get(0).lsaSeqNumber);
+    assertEquals(flood.get(0), lsd.getLSA("10.0.0.1"));
+  }
+
+  @Test
+  public void testDeltaLSAs() {
+    RouterDescription rd = new RouterDescription();
+    rd.simulatedIPAddress = "10.0.0.1";
+    LinkStateDatabase sender = new LinkStateDatabase(rd);
+    sender.setDeltaLSAs(true);
+    String[] neighbors = new String[10];
+    for (int i = 0; i < neighbors.length; i++) {
+      neighbors[i] = "10.0.1." + (i + 1);
+    }
+    LSA base = createLSA("10.0.0.2", neighbors);
+    sender.syncLinkStateDatabase(base);
+    neighbors[0] = "10.0.2.1";
+    LSA next = createLSA("10.0.0.2", base.lsaSeqNumber + 1, neighbors);
+    sender.syncLinkStateDatabase(next);
+
+    // Only for a neighbor known to hold the previous LSA
+    assertSame(next, sender.deltaOf(next, null));
+    assertSame(next, sender.deltaOf(next, base.lsaSeqNumber - 1));
+    LSA delta = sender.deltaOf(next, base.lsaSeqNumber);
+    assertTrue(delta.isDelta());
+    assertEquals(1, delta.links.size());
+
+    rd = new RouterDescription();
+    rd.simulatedIPAddress = "10.0.0.3";
+    LinkStateDatabase receiver = new LinkStateDatabase(rd);
+    // Without the base the whole LSA has to be requested
+    assertNull(receiver.expand(delta));
+    assertFalse(receiver.syncLinkStateDatabase(delta));
+    assertNull(receiver.getLSA("10.0.0.2"));
+
+    receiver.syncLinkStateDatabase(base);
+    assertTrue(receiver.syncLinkStateDatabase(delta));
+    LSA applied = receiver.getLSA("10.0.0.2");
+    assertFalse(applied.isDelta());
+    assertEquals(next.lsaSeqNumber, applied.lsaSeqNumber);
+    assertEquals(new HashSet<>(next.links), new HashSet<>(applied.links));
+    // A duplicate expands to the copy already held
+    assertSame(applied, receiver.expand(delta));
+    assertFalse(receiver.syncLinkStateDatabase(delta));
+  }
+
+  @Test
+  public void testSnapshotRestoresDatabase() throws IOException {
+    int size = 10;
+    RouterDescription rd = new RouterDescription();
+    rd.simulatedIPAddress = ringIP(0, size);
+    LinkStateDatabase lsd = new LinkStateDatabase(rd);
+    lsd.addLocalLink(new LinkDescription(ringIP(1, size), 1), true);
+    lsd.addLocalLink(new LinkDescription(ringIP(-1, size), 1), true);
+    lsd.advertisePrefix(LinkDescription.parsePrefix("172.16.0.0/16", 1));
+    for (int i = 1; i < size; i++) {
+      lsd.syncLinkStateDatabase(createLSA(ringIP(i, size), ringIP(i - 1, size),
+          ringIP(i + 1, size)));
+    }
+    Path path = folder.getRoot().toPath().resolve("lsdb.snapshot");
+    lsd.save(path);
+
+    LinkStateDatabase restored = new LinkStateDatabase(rd);
+    assertEquals(size, restored.load(path));
+    assertEquals(size, restored.size());
+    assertEquals(lsd.getShortestPath(ringIP(4, size)), restored.getShortestPath(ringIP(4, size)));
+    assertTrue(restored.getForwardingTable().isLocal("172.16.3.4"));
+    int sequence = lsd.getLSA(rd.simulatedIPAddress).lsaSeqNumber;
+    assertEquals(sequence + 1, restored.getLSA(rd.simulatedIPAddress).lsaSeqNumber);
+
+    // The first local change replaces the restored links to routers, prefixes stay
+    restored.addLocalLink(new LinkDescription(ringIP(5, size), 1), false);
+    LSA own = restored.getLSA(rd.simulatedIPAddress);
+    assertEquals(sequence + 2, own.lsaSeqNumber);
+    assertEquals(3, own.links.size());
+    assertEquals(ringIP(5, size), restored.getNextHop(ringIP(5, size)));
+    assertTrue(restored.getForwardingTable().isLocal("172.16.3.4"));
+    assertEquals(0, new LinkStateDatabase(rd).load(path.resolveSibling("missing")));
+  }
+
+  @Test(expected = IOException.class)
+  public void testSnapshotOfAnotherRouterRefused() throws IOException {
+    RouterDescription rd = new RouterDescription();
+    rd.simulatedIPAddress = "10.0.0.1";
+    Path path = folder.getRoot().toPath().resolve("lsdb.snapshot");
+    new LinkStateDatabase(rd).save(path);
+
+    rd = new RouterDescription();
+    rd.simulatedIPAddress = "10.0.0.2";
+    new LinkStateDatabase(rd).load(path);
+  }
+}
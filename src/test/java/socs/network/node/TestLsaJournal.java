@@ -0,0 +1,138 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.sim.JournalReplay;
+
+public class TestLsaJournal {
+
+  private static final String SOURCE = "10.0.0.1";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static LSA createLSA(String linkStateID, int sequence, String... neighbors) {
+    List<LinkDescription> links = new ArrayList<>();
+    for (String neighbor : neighbors) {
+      links.add(new LinkDescription(neighbor, 1));
+    }
+    return new LSA(linkStateID, sequence, links);
+  }
+
+  private static List<LsaJournal.Entry> readAll(Path directory) throws IOException {
+    List<LsaJournal.Entry> entries = new ArrayList<>();
+    for (Path segment : LsaJournal.segments(directory)) {
+      LsaJournal.read(segment, entries::add);
+    }
+    return entries;
+  }
+
+  @Test
+  public void testAcceptedLSAsAreJournaled() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    LsaJournal journal = new LsaJournal(directory, SOURCE, LsaJournal.DEFAULT_SEGMENT_BYTES,
+        LsaJournal.DEFAULT_SEGMENTS);
+    LinkStateDatabase lsd = new LinkStateDatabase(SOURCE, LSA.MAX_AGE);
+    lsd.setJournal(journal);
+
+    lsd.addLocalLink(new LinkDescription("10.0.0.2", 1), true);
+    lsd.syncLinkStateDatabase(createLSA("10.0.0.2", 1, SOURCE), "10.0.0.2");
+    // Not newer, not journaled
+    lsd.syncLinkStateDatabase(createLSA("10.0.0.2", 1, SOURCE), "10.0.0.2");
+    LSA purge = createLSA("10.0.0.2", 1, SOURCE).withAge(LSA.MAX_AGE, System.nanoTime());
+    lsd.syncLinkStateDatabase(purge, "10.0.0.2");
+    journal.close();
+
+    List<LsaJournal.Entry> entries = readAll(directory);
+    assertEquals(3, entries.size());
+    assertEquals(LsaJournal.INSTALLED, entries.get(0).type);
+    assertEquals(SOURCE, entries.get(0).lsa.linkStateID);
+    assertNull(entries.get(0).neighborIP);
+    assertEquals(LsaJournal.INSTALLED, entries.get(1).type);
+    assertEquals("10.0.0.2", entries.get(1).neighborIP);
+    assertEquals(LsaJournal.PURGED, entries.get(2).type);
+    assertTrue(entries.get(2).lsa.age >= LSA.MAX_AGE);
+    assertTrue(entries.get(0).timeMillis <= entries.get(2).timeMillis);
+    assertEquals(0, journal.dropped());
+    assertEquals(SOURCE, LsaJournal.owner(LsaJournal.segments(directory).get(0)));
+  }
+
+  @Test
+  public void testSegmentsRotate() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    LsaJournal journal = new LsaJournal(directory, SOURCE, 256, 3);
+    for (int i = 0; i < 100; i++) {
+      journal.record(LsaJournal.INSTALLED, createLSA("10.0.0.2", i, SOURCE), "10.0.0.2");
+    }
+    journal.close();
+
+    List<Path> segments = LsaJournal.segments(directory);
+    assertEquals(3, segments.size());
+    List<LsaJournal.Entry> entries = readAll(directory);
+    assertTrue(entries.size() < 100);
+    // The newest events survive, in order
+    for (int i = 0; i < entries.size(); i++) {
+      assertEquals(100 - entries.size() + i, entries.get(i).lsa.lsaSeqNumber);
+    }
+
+    // A reopened journal continues after the last segment
+    new LsaJournal(directory, SOURCE, 256, 3).close();
+    List<Path> reopened = LsaJournal.segments(directory);
+    assertEquals(segments.get(2), reopened.get(1));
+  }
+
+  @Test
+  public void testReplayRebuildsDatabase() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    LsaJournal journal = new LsaJournal(directory, SOURCE, 1024, 100);
+    LinkStateDatabase lsd = new LinkStateDatabase(SOURCE, LSA.MAX_AGE);
+    lsd.setJournal(journal);
+    int size = 20;
+    for (int i = 0; i < size; i++) {
+      String ip = "10.0.1." + (i + 1);
+      lsd.addLocalLink(new LinkDescription(ip, 1 + i % 3), true);
+      lsd.syncLinkStateDatabase(createLSA(ip, 1, SOURCE, "10.0.1." + ((i + 1) % size + 1)), ip);
+    }
+    // Churn: the links between neighbors come and go
+    for (int round = 2; round < 10; round++) {
+      for (int i = round % 2; i < size; i += 2) {
+        String ip = "10.0.1." + (i + 1);
+        lsd.syncLinkStateDatabase(round % 3 == 0 ? createLSA(ip, round, SOURCE)
+            : createLSA(ip, round, SOURCE, "10.0.1." + ((i + 1) % size + 1)), ip);
+      }
+    }
+    journal.close();
+    assertTrue(LsaJournal.segments(directory).size() > 1);
+
+    JournalReplay replay = new JournalReplay(SOURCE, LSA.MAX_AGE, Long.MAX_VALUE, true);
+    replay.replay(LsaJournal.segments(directory));
+
+    LinkStateDatabase replayed = replay.getLinkStateDatabase();
+    assertEquals(replay.events(), replay.accepted());
+    assertEquals(lsd.size(), replayed.size());
+    for (LSA lsa : lsd.snapshot()) {
+      assertEquals(lsa.lsaSeqNumber, replayed.getLSA(lsa.linkStateID).lsaSeqNumber);
+      assertEquals(lsd.getShortestPath(lsa.linkStateID),
+          replayed.getShortestPath(lsa.linkStateID));
+    }
+
+    // Nothing happened before the journal started
+    JournalReplay empty = new JournalReplay(SOURCE, LSA.MAX_AGE, 0, false);
+    empty.replay(LsaJournal.segments(directory));
+    assertEquals(0, empty.events());
+    assertEquals(1, empty.getLinkStateDatabase().size());
+  }
+}
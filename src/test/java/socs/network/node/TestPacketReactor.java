@@ -0,0 +1,200 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import socs.network.message.LSA;
+import socs.network.message.SOSPFPacket;
+import socs.network.util.Configuration;
+
+public class TestPacketReactor {
+
+  private PacketReactor reactor;
+  private final BlockingQueue<SOSPFPacket> received = new LinkedBlockingQueue<>();
+  private final List<Router> routers = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    reactor = new PacketReactor(4);
+  }
+
+  @After
+  public void tearDown() {
+    for (Router router : routers) {
+      router.quit();
+    }
+    reactor.close();
+  }
+
+  /**
+   * @return a port nothing listens on, below 32768 since ports are shorts
+   */
+  private static short freePort() throws IOException {
+    for (int port = 20000; port < Short.MAX_VALUE; port++) {
+      try (ServerSocket socket = new ServerSocket(port)) {
+        return (short) port;
+      } catch (IOException e) {
+        // In use, try the next one
+      }
+    }
+    throw new IOException("No free port");
+  }
+
+  private static byte[] frame(SOSPFPacket packet) {
+    ByteBuffer frame = ByteBuffer.allocate(4 + packet.encodedSize());
+    frame.putInt(packet.encodedSize());
+    packet.encode(frame);
+    return frame.array();
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testFramesSplitAcrossReads() throws Exception {
+    short port = freePort();
+    reactor.listen(port, (channel, packet) -> received.add(packet));
+
+    // The large payload makes the frame outgrow the initial read buffer
+    int[] payloadSizes = {0, 10, 5000, 3, 1200, 0};
+    ByteBuffer stream = ByteBuffer.allocate(64 * 1024);
+    for (int i = 0; i < payloadSizes.length; i++) {
+      stream.put(frame(SOSPFPacket.createData("10.0.0.1", "10.0.0.2", i,
+          new byte[payloadSizes[i]])));
+    }
+    stream.flip();
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      socket.setTcpNoDelay(true);
+      OutputStream out = socket.getOutputStream();
+      // Cut inside the length prefix, inside the payload and across frame boundaries
+      int[] cuts = {1, 3, 7, 2, 700, 4096, 1};
+      int chunk = 0;
+      while (stream.hasRemaining()) {
+        int length = Math.min(cuts[chunk++ % cuts.length], stream.remaining());
+        out.write(stream.array(), stream.position(), length);
+        out.flush();
+        stream.position(stream.position() + length);
+        // Let the reactor read what is there before the rest arrives
+        Thread.sleep(5);
+      }
+
+      for (int i = 0; i < payloadSizes.length; i++) {
+        SOSPFPacket packet = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Frame " + i + " not delivered", packet);
+        assertEquals(i, packet.sequence);
+        assertEquals(payloadSizes[i], packet.payload.length);
+      }
+    }
+  }
+
+  @Test
+  public void testMalformedFrameIsSkipped() throws Exception {
+    short port = freePort();
+    reactor.listen(port, (channel, packet) -> received.add(packet));
+
+    byte[] malformed = frame(SOSPFPacket.createData("10.0.0.1", "10.0.0.2", 0, new byte[4]));
+    // Unknown wire version, the frame length still lets the reader find the next frame
+    malformed[4] = (byte) (SOSPFPacket.WIRE_VERSION + 1);
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      OutputStream out = socket.getOutputStream();
+      out.write(malformed);
+      out.write(frame(SOSPFPacket.createData("10.0.0.1", "10.0.0.2", 1, new byte[4])));
+      out.flush();
+
+      SOSPFPacket packet = received.poll(5, TimeUnit.SECONDS);
+      assertNotNull(packet);
+      assertEquals(1, packet.sequence);
+    }
+  }
+
+  @Test
+  public void testPacketsOfAChannelArriveInOrder() throws Exception {
+    short port = freePort();
+    // Answer on the channel the packet came in on
+    reactor.listen(port, (channel, packet) -> {
+      try {
+        channel.send(packet);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    int packets = 2000;
+    NeighborChannel channel = reactor.connect("127.0.0.1", port,
+        (reply, packet) -> received.add(packet));
+    try {
+      for (int i = 0; i < packets; i++) {
+        channel.send(SOSPFPacket.createData("10.0.0.1", "10.0.0.2", i, new byte[i % 300]));
+      }
+      // Both directions go through the shared worker pool
+      for (int i = 0; i < packets; i++) {
+        SOSPFPacket packet = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Echo " + i + " not delivered", packet);
+        assertEquals(i, packet.sequence);
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  @Test
+  public void testClosedChannelIsReconnected() throws Exception {
+    Router first = createRouter("10.0.0.1", freePort());
+    Router second = createRouter("10.0.0.2", freePort());
+    assertTrue(first.attach("127.0.0.1", second.getProcessPort(), second.getSimulatedIP(), 1));
+    first.start();
+    waitFor(() -> second.getLinkStateDatabase().size() == 2);
+    assertEquals(2, second.getLinkStateDatabase().size());
+
+    Link link = first.ports.getLinkByIndex(0);
+    NeighborChannel previous = link.channel;
+    previous.close();
+    assertTrue(previous.isClosed());
+
+    // The next update finds the channel closed and opens a new connection for it
+    first.advertise("10.1.0.0/16", 1);
+    int sequence = first.getLinkStateDatabase().getLSA("10.0.0.1").lsaSeqNumber;
+    waitFor(() -> second.getLinkStateDatabase().getLSA("10.0.0.1").lsaSeqNumber == sequence);
+    LSA lsa = second.getLinkStateDatabase().getLSA("10.0.0.1");
+    assertEquals(sequence, lsa.lsaSeqNumber);
+    assertNotSame(previous, link.channel);
+    assertFalse(link.channel.isClosed());
+  }
+
+  private Router createRouter(String simulatedIP, short port) throws IOException {
+    Configuration config = new Configuration();
+    config.addEntry("socs.network.router.ip", simulatedIP);
+    config.addEntry("socs.network.router.port", String.valueOf(port));
+    config.addEntry("socs.network.router.quiet", "true");
+    config.addEntry("socs.network.router.floodWindowMs", "0");
+    Router router = new Router(config, reactor);
+    routers.add(router);
+    return router;
+  }
+}
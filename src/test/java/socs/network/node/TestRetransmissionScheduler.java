@@ -0,0 +1,136 @@
+package socs.network.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import socs.network.message.LSA;
+import socs.network.message.SOSPFPacket;
+
+public class TestRetransmissionScheduler {
+
+  private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor();
+  // type and LSA ids and sequence numbers of every packet sent, e.g. "1 10.0.0.5#3 10.0.0.6#1"
+  private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+  private final Link link = createLink();
+
+  @After
+  public void tearDown() {
+    timers.shutdownNow();
+  }
+
+  private static Link createLink() {
+    RouterDescription self = new RouterDescription();
+    self.simulatedIPAddress = "10.0.0.1";
+    RouterDescription neighbor = new RouterDescription();
+    neighbor.simulatedIPAddress = "10.0.0.2";
+    neighbor.status = RouterStatus.TWO_WAY;
+    return new Link(self, neighbor);
+  }
+
+  private RetransmissionScheduler createScheduler(long retransmitMillis, long ackDelayMillis) {
+    return new RetransmissionScheduler(timers, retransmitMillis, ackDelayMillis, LSA.MAX_AGE,
+        () -> Collections.singletonList(link), (l, type, lsas) -> {
+          StringBuilder sb = new StringBuilder().append(type);
+          for (LSA lsa : lsas) {
+            sb.append(' ').append(lsa.linkStateID).append('#').append(lsa.lsaSeqNumber);
+          }
+          sent.add(sb.toString());
+          return true;
+        });
+  }
+
+  private static LSA lsa(String id, int seq) {
+    return new LSA(id, seq, Collections.emptyList());
+  }
+
+  @Test
+  public void testUnacknowledgedLSAIsRetransmitted() throws InterruptedException {
+    RetransmissionScheduler scheduler = createScheduler(1, 0);
+    scheduler.sending(link, Arrays.asList(lsa("10.0.0.5", 3), lsa("10.0.0.6", 1)));
+    Thread.sleep(5);
+
+    scheduler.retransmit();
+    assertEquals(1, sent.size());
+    assertTrue(sent.get(0).startsWith(SOSPFPacket.LSAUPDATE + " "));
+    assertTrue(sent.get(0).contains("10.0.0.5#3"));
+    assertTrue(sent.get(0).contains("10.0.0.6#1"));
+
+    scheduler.acknowledged(link, Arrays.asList(lsa("10.0.0.5", 3).header(),
+        lsa("10.0.0.6", 1).header()));
+    Thread.sleep(5);
+    scheduler.retransmit();
+
+    assertEquals(1, sent.size());
+    assertEquals(2, scheduler.retransmitted());
+    assertTrue(link.retransmissions.isEmpty());
+  }
+
+  @Test
+  public void testNotDueBeforeInterval() {
+    RetransmissionScheduler scheduler = createScheduler(60000, 0);
+    scheduler.sending(link, Collections.singletonList(lsa("10.0.0.5", 3)));
+
+    scheduler.retransmit();
+
+    assertTrue(sent.isEmpty());
+  }
+
+  @Test
+  public void testAckOfOlderCopyKeepsNewer() {
+    RetransmissionScheduler scheduler = createScheduler(1000, 0);
+    scheduler.sending(link, Collections.singletonList(lsa("10.0.0.5", 3)));
+    scheduler.sending(link, Collections.singletonList(lsa("10.0.0.5", 4)));
+    // A late retransmission of the older copy does not replace the newer one
+    scheduler.sending(link, Collections.singletonList(lsa("10.0.0.5", 2)));
+
+    scheduler.acknowledged(link, Collections.singletonList(lsa("10.0.0.5", 3).header()));
+
+    assertEquals(4, link.retransmissions.get("10.0.0.5").lsa.lsaSeqNumber);
+  }
+
+  @Test
+  public void testReceivedCopyIsImplicitAck() {
+    RetransmissionScheduler scheduler = createScheduler(1000, 0);
+    scheduler.sending(link, Collections.singletonList(lsa("10.0.0.5", 3)));
+
+    scheduler.received(link, lsa("10.0.0.5", 3));
+
+    assertTrue(link.retransmissions.isEmpty());
+    assertEquals(Collections.singletonList(SOSPFPacket.LSACK + " 10.0.0.5#3"), sent);
+  }
+
+  @Test
+  public void testAcksAreBundled() throws InterruptedException {
+    CountDownLatch flushed = new CountDownLatch(1);
+    RetransmissionScheduler scheduler = createScheduler(1000, 20);
+    timers.execute(() -> {
+      // Runs before the flush, which is queued on the same thread after the delay
+      scheduler.received(link, lsa("10.0.0.5", 3));
+      scheduler.received(link, lsa("10.0.0.6", 1));
+      scheduler.received(link, lsa("10.0.0.7", 9));
+    });
+    timers.schedule(flushed::countDown, 100, TimeUnit.MILLISECONDS);
+
+    assertTrue(flushed.await(5, TimeUnit.SECONDS));
+    assertEquals(
+        Collections.singletonList(SOSPFPacket.LSACK + " 10.0.0.5#3 10.0.0.6#1 10.0.0.7#9"), sent);
+    assertEquals(3, scheduler.acksSent());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAckDelayLongerThanRetransmit() {
+    createScheduler(100, 100);
+  }
+}
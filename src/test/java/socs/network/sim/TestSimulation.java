@@ -0,0 +1,317 @@
+package socs.network.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import socs.network.message.LSA;
+import socs.network.message.SOSPFPacket;
+import socs.network.node.ExecutionMode;
+import socs.network.node.MemoryTransport;
+import socs.network.node.NeighborChannel;
+import socs.network.node.PacketHandler;
+import socs.network.node.Router;
+import socs.network.node.TrafficGenerator;
+import socs.network.node.Transport;
+import socs.network.util.Configuration;
+
+public class TestSimulation {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final MemoryTransport transport = new MemoryTransport(4);
+  private Simulation simulation;
+
+  @After
+  public void tearDown() {
+    if (simulation != null) {
+      simulation.shutdown();
+    }
+    transport.close();
+  }
+
+  @Test
+  public void testParseTopology() throws IOException {
+    File file = folder.newFile("topology.txt");
+    Files.write(file.toPath(), Arrays.asList(
+        "# two routers and a generated ring",
+        "router 192.168.1.1 5001",
+        "router 192.168.1.100 5002",
+        "link 192.168.1.1 192.168.1.100 7",
+        "generate ring 3"), StandardCharsets.UTF_8);
+
+    Topology topology = Topology.parse(file.toPath());
+
+    assertEquals(5, topology.routers().size());
+    assertEquals(4, topology.links().size());
+    assertEquals(7, topology.links().get(0).cost);
+    // Generated routers are numbered after the declared ones
+    assertEquals(Topology.generatedIP(4), topology.routers().get(4).simulatedIP);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParseUnknownRouter() throws IOException {
+    File file = folder.newFile("topology.txt");
+    Files.write(file.toPath(), Arrays.asList(
+        "router 192.168.1.1 5001",
+        "link 192.168.1.1 192.168.1.2"), StandardCharsets.UTF_8);
+
+    Topology.parse(file.toPath());
+  }
+
+  @Test
+  public void testRingConverges() throws Exception {
+    simulation = new Simulation(Topology.generate(Topology.Shape.RING, 20, 0), transport, 0);
+    simulation.build();
+
+    Simulation.Result result = simulation.run(30000);
+
+    assertEquals(0, simulation.rejectedLinks());
+    assertTrue(result.converged);
+    assertTrue(result.packets > 0);
+    // Both ways around the ring are known, so the path cannot take more than half of it
+    String path = simulation.routers().get(0).detect(Topology.generatedIP(10));
+    assertTrue(path, path.startsWith(Topology.generatedIP(0) + " -> "));
+    assertTrue(path, path.endsWith(Topology.generatedIP(10)));
+  }
+
+  @Test
+  public void testRingConvergesOnVirtualThreads() throws Exception {
+    MemoryTransport virtual = new MemoryTransport(ExecutionMode.VIRTUAL, 1);
+    try {
+      simulation = new Simulation(Topology.generate(Topology.Shape.RING, 20, 0), virtual, 0);
+      simulation.build();
+
+      assertTrue(simulation.run(30000).converged);
+    } finally {
+      simulation.shutdown();
+      simulation = null;
+      virtual.close();
+    }
+  }
+
+  @Test
+  public void testJoiningRouterLearnsDatabase() throws Exception {
+    simulation = new Simulation(Topology.generate(Topology.Shape.RING, 10, 0), transport, 0);
+    simulation.build();
+    assertTrue(simulation.run(30000).converged);
+
+    Configuration config = new Configuration();
+    config.addEntry("socs.network.router.ip", "10.0.1.1");
+    config.addEntry("socs.network.router.port", "2000");
+    config.addEntry("socs.network.router.quiet", "true");
+    config.addEntry("socs.network.router.floodWindowMs", "0");
+    Router joining = new Router(config, transport);
+    Router first = simulation.routers().get(0);
+    try {
+      assertTrue(joining.attach("127.0.0.1", first.getProcessPort(), first.getSimulatedIP(), 1));
+      joining.start();
+
+      // The database description exchange hands over every LSA without any flooding
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (joining.getLinkStateDatabase().size() < 11 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(11, joining.getLinkStateDatabase().size());
+      String path = joining.detect(Topology.generatedIP(5));
+      assertTrue(path, path.startsWith("10.0.1.1 -> " + Topology.generatedIP(0) + " -> "));
+    } finally {
+      joining.quit();
+    }
+  }
+
+  @Test
+  public void testDataIsForwardedAndEchoed() throws Exception {
+    simulation = new Simulation(Topology.generate(Topology.Shape.RING, 10, 0), transport, 0);
+    simulation.build();
+    assertTrue(simulation.run(30000).converged);
+
+    Router source = simulation.routers().get(0);
+    TrafficGenerator.Report report = source.send(Topology.generatedIP(5), 200, 2000, 100);
+
+    assertEquals(200, report.received);
+    assertEquals(0, report.dropped());
+    assertTrue(report.latencyMicros(0.99) > 0);
+    // Five hops each way, every router on one of the two halves of the ring forwarded them.
+    // A hop counts a packet once handed to the next one, the last echo may arrive first
+    waitFor(() -> forwarded() == 200 * 10);
+    assertEquals(200 * 10, forwarded());
+    assertEquals(200, simulation.routers().get(5).getStats().getDataDelivered());
+  }
+
+  @Test
+  public void testPrefixChangeFloodsDelta() throws Exception {
+    simulation = new Simulation(Topology.generate(Topology.Shape.RING, 10, 0), transport, 0);
+    simulation.setDeltaLSAs(true);
+    simulation.setAckDelayMillis(0);
+    simulation.build();
+    assertTrue(simulation.run(30000).converged);
+
+    Router origin = simulation.routers().get(0);
+    // A delta is only sent to neighbors known to hold the previous sequence, so each change
+    // waits for the acknowledgements of the one before
+    waitFor(() -> origin.getStats().getLsasUnacknowledged() == 0);
+    for (int i = 0; i < 20; i++) {
+      origin.advertise("172.16." + i + ".0/24", 1);
+      int sequence = origin.getLinkStateDatabase().getLSA(origin.getSimulatedIP()).lsaSeqNumber;
+      waitFor(() -> simulation.routers().stream().allMatch(router -> router
+          .getLinkStateDatabase().getLSA(origin.getSimulatedIP()).lsaSeqNumber == sequence)
+          && origin.getStats().getLsasUnacknowledged() == 0);
+    }
+
+    long applied = 0;
+    for (Router router : simulation.routers()) {
+      LSA lsa = router.getLinkStateDatabase().getLSA(origin.getSimulatedIP());
+      assertEquals(origin.getLinkStateDatabase().getLSA(origin.getSimulatedIP()).links.size(),
+          lsa.links.size());
+      applied += router.getStats().getDeltasApplied();
+    }
+    assertTrue(origin.getStats().getDeltasSent() > 0);
+    assertTrue(applied > 0);
+    assertEquals(Topology.generatedIP(9), simulation.routers().get(8).getLinkStateDatabase()
+        .getNextHop("172.16.19.7"));
+  }
+
+  @Test
+  public void testLostUpdateIsRetransmitted() throws Exception {
+    LossyTransport lossy = new LossyTransport(transport);
+    Router sender = new Router(createConfig("10.0.1.1", "2001"), lossy);
+    Router receiver = new Router(createConfig("10.0.1.2", "2002"), transport);
+    try {
+      assertTrue(sender.attach("127.0.0.1", receiver.getProcessPort(),
+          receiver.getSimulatedIP(), 1));
+      sender.start();
+      // The handshake went through, our flood and database description did not
+      waitFor(() -> sender.getLinkStateDatabase().size() == 2
+          && sender.getStats().getLsasSent() > 0);
+      Thread.sleep(100);
+      lossy.dropping = false;
+
+      waitFor(() -> receiver.getLinkStateDatabase().size() == 2);
+      assertEquals(2, receiver.getLinkStateDatabase().size());
+      assertTrue(sender.getStats().getLsasRetransmitted() > 0);
+      // Acknowledged after the ack delay
+      waitFor(() -> sender.getStats().getAcksReceived() > 0);
+      assertTrue(sender.getStats().getAcksReceived() > 0);
+    } finally {
+      sender.quit();
+      receiver.quit();
+    }
+  }
+
+  private long forwarded() {
+    long forwarded = 0;
+    for (Router router : simulation.routers()) {
+      forwarded += router.getStats().getDataForwarded();
+    }
+    return forwarded;
+  }
+
+  private static Configuration createConfig(String simulatedIP, String port) {
+    Configuration config = new Configuration();
+    config.addEntry("socs.network.router.ip", simulatedIP);
+    config.addEntry("socs.network.router.port", port);
+    config.addEntry("socs.network.router.quiet", "true");
+    config.addEntry("socs.network.router.floodWindowMs", "0");
+    config.addEntry("socs.network.router.retransmitIntervalMs", "500");
+    config.addEntry("socs.network.router.ackDelayMs", "10");
+    return config;
+  }
+
+  private static void waitFor(BooleanSupplier condition)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * Transport silently losing the LSA updates and database descriptions written on the
+   * connections it opens, as a connection breaking after the write would
+   */
+  private static class LossyTransport implements Transport {
+    private final Transport delegate;
+    volatile boolean dropping = true;
+
+    LossyTransport(Transport delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void listen(short port, PacketHandler handler) throws IOException {
+      delegate.listen(port, handler);
+    }
+
+    @Override
+    public NeighborChannel connect(String processIP, short processPort, PacketHandler handler)
+        throws IOException {
+      NeighborChannel channel = delegate.connect(processIP, processPort, handler);
+      return new NeighborChannel() {
+        @Override
+        public void send(SOSPFPacket packet) throws IOException {
+          if (dropping && (packet.sospfType == SOSPFPacket.LSAUPDATE
+              || packet.sospfType == SOSPFPacket.DBD)) {
+            return;
+          }
+          channel.send(packet);
+        }
+
+        @Override
+        public void shutdown(long timeoutMillis) {
+          channel.shutdown(timeoutMillis);
+        }
+
+        @Override
+        public boolean isClosed() {
+          return channel.isClosed();
+        }
+
+        @Override
+        public void close() {
+          channel.close();
+        }
+      };
+    }
+
+    @Override
+    public ExecutorService workers() {
+      return delegate.workers();
+    }
+
+    @Override
+    public ScheduledExecutorService timers() {
+      return delegate.timers();
+    }
+
+    @Override
+    public long packetsSent() {
+      return delegate.packetsSent();
+    }
+
+    @Override
+    public long bytesSent() {
+      return delegate.bytesSent();
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package socs.network.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TestSerialExecutor {
+
+  private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void testTasksOfOneExecutorRunInOrderAndNeverOverlap() throws InterruptedException {
+    int channels = 4;
+    int tasks = 1000;
+    List<List<Integer>> order = new ArrayList<>();
+    List<SerialExecutor> executors = new ArrayList<>();
+    AtomicBoolean overlapped = new AtomicBoolean();
+    CountDownLatch done = new CountDownLatch(channels * tasks);
+    for (int c = 0; c < channels; c++) {
+      order.add(new ArrayList<>());
+      executors.add(new SerialExecutor(pool));
+    }
+    List<AtomicInteger> running = new ArrayList<>();
+    for (int c = 0; c < channels; c++) {
+      running.add(new AtomicInteger());
+    }
+
+    // Interleave the submissions so that every executor competes for the shared pool
+    for (int i = 0; i < tasks; i++) {
+      for (int c = 0; c < channels; c++) {
+        int channel = c;
+        int task = i;
+        executors.get(c).execute(() -> {
+          if (running.get(channel).incrementAndGet() != 1) {
+            overlapped.set(true);
+          }
+          // Not synchronized, the executor is what keeps the list consistent
+          order.get(channel).add(task);
+          running.get(channel).decrementAndGet();
+          done.countDown();
+        });
+      }
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertFalse(overlapped.get());
+    for (List<Integer> executed : order) {
+      assertEquals(tasks, executed.size());
+      for (int i = 0; i < tasks; i++) {
+        assertEquals(i, (int) executed.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testFailingTaskDoesNotStallTheQueue() throws InterruptedException {
+    AtomicInteger failures = new AtomicInteger();
+    // Catches what would reach the pool thread, the next task must be scheduled anyway
+    SerialExecutor executor = new SerialExecutor(task -> pool.execute(() -> {
+      try {
+        task.run();
+      } catch (IllegalStateException e) {
+        failures.incrementAndGet();
+      }
+    }));
+    List<Integer> executed = new ArrayList<>();
+    CountDownLatch done = new CountDownLatch(1);
+
+    executor.execute(() -> executed.add(0));
+    executor.execute(() -> {
+      throw new IllegalStateException("handler failed");
+    });
+    executor.execute(() -> executed.add(2));
+    executor.execute(done::countDown);
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(List.of(0, 2), executed);
+    // The exception is rethrown after the next task was scheduled
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(1, failures.get());
+  }
+}